@@ -0,0 +1,120 @@
+/*
+ * Copyright 2010 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.sunclock;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link World#createCompositeImage(long, int, int, int[])}, 
+ * the mask and the blend of the day and night textures.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompositeBenchmark {
+    
+    @Param({ "1024", "4096" })
+    public int width;
+    
+    /**
+     * Overridden with -Djmh.threads=1,4 (see the pom).
+     */
+    @Param({ "1" })
+    public int threads;
+    
+    /**
+     * Overridden with -Djmh.dates (see the pom).
+     */
+    @Param({ "2010-06-21T12:00:00Z" })
+    public String date;
+    
+    /**
+     * The time between two invocations in milliseconds. It's the 
+     * quantum of the cached {@link SolarPosition}s, so every mask 
+     * is computed from scratch.
+     */
+    private static final long STEP = 1000L;
+    
+    private ExecutorService executor;
+    
+    private World world;
+    
+    private long time;
+    
+    private long invocation;
+    
+    private int height;
+    
+    private int[] pixels;
+    
+    @Setup
+    public void setUp() throws IOException {
+        height = width / 2;
+        pixels = new int[width * height];
+        time = Instant.parse(date).toEpochMilli();
+        invocation = 0L;
+        
+        world = new World(
+                ImageUtils.load(Main.class.getResource("world.jpg")), 
+                ImageUtils.load(Main.class.getResource("world_night.jpg")));
+        
+        if (threads > 1) {
+            executor = Executors.newFixedThreadPool(threads);
+            world.setMaskEngine(new ParallelMaskEngine(ClockUtils.PER_COLUMN, 
+                    executor, threads, ParallelMaskEngine.DEFAULT_THRESHOLD));
+        } else {
+            world.setMaskEngine(ClockUtils.PER_COLUMN);
+        }
+        
+        // Scale the textures outside of the measurement
+        world.createCompositeImage(time, width, height, pixels);
+    }
+    
+    @TearDown
+    public void tearDown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+    
+    @Benchmark
+    public int[] createCompositeImage() {
+        world.createCompositeImage(time + STEP * invocation++, 
+                width, height, pixels);
+        return pixels;
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2010 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.sunclock;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the {@link ImageUtils} operations that run when the 
+ * textures are loaded or scaled.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ImageBenchmark {
+    
+    @Param({ "1024", "2048", "4096", "8192" })
+    public int width;
+    
+    private BufferedImage image;
+    
+    @Setup
+    public void setUp() throws IOException {
+        image = ImageUtils.resample(ImageUtils.load(
+                Main.class.getResource("world.jpg")), width, width / 2);
+    }
+    
+    @Benchmark
+    public BufferedImage brightnessToAlpha() {
+        return ImageUtils.brightnessToAlpha(image, 0.4f);
+    }
+    
+    @Benchmark
+    public BufferedImage scale() {
+        return ImageUtils.scale(image, 1000, 500);
+    }
+    
+    @Benchmark
+    public BufferedImage resample() {
+        return ImageUtils.resample(image, 1000, 500);
+    }
+}
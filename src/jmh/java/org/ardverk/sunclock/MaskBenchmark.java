@@ -0,0 +1,122 @@
+/*
+ * Copyright 2010 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.sunclock;
+
+import java.time.Instant;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link ClockUtils#createMask(long, int, int, byte[], int, int, MaskEngine)}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MaskBenchmark {
+    
+    @Param({ "1024", "4096" })
+    public int width;
+    
+    /**
+     * Overridden with -Djmh.threads=1,4 (see the pom).
+     */
+    @Param({ "1" })
+    public int threads;
+    
+    /**
+     * Overridden with -Djmh.dates=2010-03-20T12:00:00Z,... (see the 
+     * pom). The solstice has the most curved terminator.
+     */
+    @Param({ "2010-06-21T12:00:00Z" })
+    public String date;
+    
+    @Param({ "column", "gradient", "antialiased" })
+    public String engine;
+    
+    /**
+     * The time between two invocations in milliseconds. It's the 
+     * quantum of the cached {@link SolarPosition}s, so every mask 
+     * is computed from scratch.
+     */
+    private static final long STEP = 1000L;
+    
+    private ExecutorService executor;
+    
+    private MaskEngine maskEngine;
+    
+    private long time;
+    
+    private long invocation;
+    
+    private int height;
+    
+    private byte[] mask;
+    
+    @Setup
+    public void setUp() {
+        height = width / 2;
+        mask = new byte[width * height];
+        time = Instant.parse(date).toEpochMilli();
+        invocation = 0L;
+        
+        MaskEngine base = ClockUtils.PER_COLUMN;
+        if (engine.equals("gradient")) {
+            base = ClockUtils.GRADIENT;
+        } else if (engine.equals("antialiased")) {
+            base = ClockUtils.ANTIALIASED;
+        }
+        
+        if (threads > 1) {
+            executor = Executors.newFixedThreadPool(threads);
+            maskEngine = new ParallelMaskEngine(base, executor, 
+                    threads, ParallelMaskEngine.DEFAULT_THRESHOLD);
+        } else {
+            maskEngine = base;
+        }
+    }
+    
+    @TearDown
+    public void tearDown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+    
+    @Benchmark
+    public byte[] createMask() {
+        ClockUtils.createMask(time + STEP * invocation++, width, height, 
+                mask, 0, width, maskEngine);
+        return mask;
+    }
+}
@@ -0,0 +1,342 @@
+/*
+ * Copyright 2010 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.sunclock;
+
+import static java.lang.Math.acos;
+import static java.lang.Math.cos;
+import static java.lang.Math.sin;
+import static java.lang.Math.toDegrees;
+import static java.lang.Math.toRadians;
+
+import java.util.Arrays;
+
+/**
+ * A {@link MaskEngine} that anti-aliases the terminator and the twilight 
+ * boundary of a {@link ColumnMaskEngine}.
+ * 
+ * The pixels next to a boundary are found from the runs of the 
+ * {@link Terminator}s: the ends of the run of every column and the 
+ * rows in which the runs of two neighboring columns differ. Only these 
+ * pixels are supersampled and get the fraction of their samples below 
+ * each horizon, all others keep their single sample. The extra cost is 
+ * proportional to the length of the boundaries and not to the size of 
+ * the mask.
+ */
+class AntialiasedMaskEngine implements MaskEngine {
+    
+    private static final double SIN_SEA_LEVEL 
+        = sin(toRadians(ClockUtils.HORIZON_SEA_LEVEL));
+    
+    private static final double SIN_TWILIGHT 
+        = sin(toRadians(ClockUtils.HORIZON_TWILIGHT));
+    
+    private final ColumnMaskEngine engine;
+    
+    private final int samples;
+    
+    /**
+     * Creates an {@link AntialiasedMaskEngine} that takes 
+     * {@code samples*samples} samples of each boundary pixel.
+     */
+    public AntialiasedMaskEngine(ColumnMaskEngine engine, int samples) {
+        if (engine == null) {
+            throw new NullPointerException("engine");
+        }
+        
+        if (samples < 2) {
+            throw new IllegalArgumentException("samples=" + samples);
+        }
+        
+        this.engine = engine;
+        this.samples = samples;
+    }
+    
+    @Override
+    public boolean isGradient() {
+        return true;
+    }
+    
+    @Override
+    public void createMask(SolarPosition position, Region region, int w, int h, 
+            byte[] mask, int offset, int scanline, int from, int to) {
+        
+        engine.createMask(position, region, w, h, 
+                mask, offset, scanline, from, to);
+        
+        ColumnMaskEngine.Horizons horizons 
+            = engine.getHorizons(position, region, w, h);
+        Terminator below = horizons.getBelow();
+        Terminator above = horizons.getAbove();
+        
+        int top = from;
+        int bottom = to;
+        
+        Sampler sampler = new Sampler(position, region, 
+                w, h, top, bottom, samples);
+        int[] runs = new int[64];
+        int[] rows = new int[6];
+        
+        for (int j = 0; j < w; j++) {
+            int count = 0;
+            count = addEnds(below, j, h, runs, count);
+            count = addEnds(above, j, h, runs, count);
+            count = addDifferences(below, j, j-1, w, h, rows, runs, count);
+            count = addDifferences(below, j, j+1, w, h, rows, runs, count);
+            count = addDifferences(above, j, j-1, w, h, rows, runs, count);
+            count = addDifferences(above, j, j+1, w, h, rows, runs, count);
+            
+            if (count == 0) {
+                continue;
+            }
+            
+            sort(runs, count);
+            
+            // Supersample the union of the runs within the band
+            int next = top;
+            for (int k = 0; k < count; k += 2) {
+                int start = Math.max(Math.max(runs[k], next), top);
+                int end = Math.min(runs[k+1], bottom);
+                
+                for (int i = start; i < end; i++) {
+                    mask[offset + i * scanline + j] 
+                        = (byte)sampler.valueOf(i, j);
+                }
+                
+                next = Math.max(next, end);
+            }
+        }
+    }
+    
+    /**
+     * Adds the rows on both sides of the ends of the run in column j.
+     */
+    private static int addEnds(Terminator terminator, int j, int h, 
+            int[] runs, int count) {
+        
+        int start = terminator.getStart(j);
+        int end = terminator.getEnd(j);
+        
+        // The poles are no transitions
+        if (start > 0 && start < h) {
+            count = add(runs, count, start-1, start+1, h);
+        }
+        
+        if (end > 0 && end < h) {
+            count = add(runs, count, end-1, end+1, h);
+        }
+        return count;
+    }
+    
+    /**
+     * Adds the rows in which the night side of column j differs from 
+     * the one of column k. The night side of a column changes only at 
+     * the ends of its run. The six boundaries are sorted in the given 
+     * {@code rows} buffer.
+     */
+    private static int addDifferences(Terminator terminator, int j, int k, 
+            int w, int h, int[] rows, int[] runs, int count) {
+        
+        if (k < 0 || k >= w) {
+            return count;
+        }
+        
+        rows[0] = 0;
+        rows[1] = h;
+        rows[2] = terminator.getStart(j);
+        rows[3] = terminator.getEnd(j);
+        rows[4] = terminator.getStart(k);
+        rows[5] = terminator.getEnd(k);
+        Arrays.sort(rows);
+        
+        for (int i = 0; i < rows.length-1; i++) {
+            int start = rows[i];
+            int end = rows[i+1];
+            
+            if (start < end && terminator.contains(start, j) 
+                    != terminator.contains(start, k)) {
+                count = add(runs, count, start, end, h);
+            }
+        }
+        
+        return count;
+    }
+    
+    private static int add(int[] runs, int count, int start, int end, int h) {
+        start = Math.max(start, 0);
+        end = Math.min(end, h);
+        
+        if (start < end) {
+            runs[count++] = start;
+            runs[count++] = end;
+        }
+        return count;
+    }
+    
+    /**
+     * Sorts the runs by their start.
+     */
+    private static void sort(int[] runs, int count) {
+        for (int i = 2; i < count; i += 2) {
+            int start = runs[i];
+            int end = runs[i+1];
+            
+            int k = i - 2;
+            while (k >= 0 && runs[k] > start) {
+                runs[k+2] = runs[k];
+                runs[k+3] = runs[k+1];
+                k -= 2;
+            }
+            
+            runs[k+2] = start;
+            runs[k+3] = end;
+        }
+    }
+    
+    /**
+     * Takes a grid of samples of a pixel that is centered at the 
+     * single sample of the {@link ColumnMaskEngine}. The terms of 
+     * the horizons are computed once per row of samples.
+     */
+    private static class Sampler {
+        
+        private final SolarPosition position;
+        
+        private final Region region;
+        
+        private final int w;
+        
+        private final int h;
+        
+        private final int top;
+        
+        private final int samples;
+        
+        private final double sinDelta;
+        
+        private final double cosDelta;
+        
+        private final double[] m0;
+        
+        /**
+         * The cosine and the hour angle of both horizons for 
+         * every row of samples.
+         */
+        private final double[] horizons;
+        
+        private final boolean[] computed;
+        
+        public Sampler(SolarPosition position, Region region, 
+                int w, int h, int top, int bottom, int samples) {
+            this.position = position;
+            this.region = region;
+            this.w = w;
+            this.h = h;
+            this.top = top;
+            this.samples = samples;
+            this.sinDelta = sin(position.delta);
+            this.cosDelta = cos(position.delta);
+            this.m0 = new double[samples];
+            this.horizons = new double[(bottom - top) * samples * 4];
+            this.computed = new boolean[bottom - top];
+        }
+        
+        /**
+         * Returns the mask value of the pixel in row i (counted from 
+         * the north pole) and column j.
+         */
+        public int valueOf(int i, int j) {
+            double ftime = position.ftime;
+            
+            for (int b = 0; b < samples; b++) {
+                double longitude = region.longitude(j + offset(b), w);
+                m0[b] = ClockUtils.fractionOfDay(
+                        (position.alpha + longitude - position.theta) / 360.0);
+            }
+            
+            int index = getHorizons(i);
+            
+            int below = 0;
+            int above = 0;
+            
+            for (int a = 0; a < samples; a++, index += 4) {
+                double cosH0Below = horizons[index];
+                double H0Below = horizons[index+1];
+                double cosH0Above = horizons[index+2];
+                double H0Above = horizons[index+3];
+                
+                for (int b = 0; b < samples; b++) {
+                    if (ClockUtils.isBelowHorizon(cosH0Below, H0Below, m0[b], ftime)) {
+                        below++;
+                    }
+                    
+                    if (ClockUtils.isBelowHorizon(cosH0Above, H0Above, m0[b], ftime)) {
+                        above++;
+                    }
+                }
+            }
+            
+            // Below the twilight horizon is below the sea level 
+            // horizon as well: 0x80 + 0x7F = 0xFF
+            int n = samples * samples;
+            return (0x80 * below + 0x7F * above + n/2) / n;
+        }
+        
+        /**
+         * Computes the terms of the horizons of the rows of samples 
+         * of row i if necessary and returns their index.
+         */
+        private int getHorizons(int i) {
+            int index = (i - top) * samples * 4;
+            if (computed[i - top]) {
+                return index;
+            }
+            
+            for (int a = 0; a < samples; a++) {
+                double latitude = region.latitude(i + offset(a), h);
+                latitude = toRadians(Math.max(-90.0, Math.min(90.0, latitude)));
+                
+                double sinLatitude = sin(latitude);
+                double cosLatitude = cos(latitude);
+                
+                double cosH0Below = (SIN_SEA_LEVEL - sinLatitude * sinDelta) 
+                        / (cosLatitude * cosDelta);
+                double cosH0Above = (SIN_TWILIGHT - sinLatitude * sinDelta) 
+                        / (cosLatitude * cosDelta);
+                
+                int k = index + a * 4;
+                horizons[k] = cosH0Below;
+                horizons[k+1] = hourAngle(cosH0Below);
+                horizons[k+2] = cosH0Above;
+                horizons[k+3] = hourAngle(cosH0Above);
+            }
+            
+            computed[i - top] = true;
+            return index;
+        }
+        
+        private double offset(int index) {
+            return (index + 0.5) / samples - 0.5;
+        }
+        
+        private static double hourAngle(double cosH0) {
+            if (cosH0 <= 1.0 && cosH0 >= -1) {
+                return toDegrees(acos(cosH0));
+            }
+            return 0.0;
+        }
+    }
+}
@@ -0,0 +1,347 @@
+/*
+ * Copyright 2010 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.sunclock;
+
+import java.awt.Component;
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Renders the composite images of a {@link World} on a background 
+ * thread and hands the finished frames to the painting thread.
+ * 
+ * Every render size of the last few sizes that were painted has its 
+ * own frames, so components of different sizes neither reallocate 
+ * each other's buffers nor paint frames that were rendered for the 
+ * other size. Frames are rendered into one of three buffers. The latest 
+ * published frame and the frame that is currently being painted are 
+ * never written to, so a frame never changes while it's painted. 
+ * Requests that arrive while a frame is being rendered are coalesced 
+ * into a single request for the latest time. In the incremental mode 
+ * of the {@link World} every buffer keeps its own {@link IncrementalMask} 
+ * and only the pixels that changed since the buffer was last rendered 
+ * are blended again.
+ */
+class AsyncRenderer {
+    
+    private static final ThreadFactory FACTORY = new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "AsyncRenderer");
+            thread.setDaemon(true);
+            return thread;
+        }
+    };
+    
+    private final World world;
+    
+    private final ExecutorService executor 
+        = Executors.newSingleThreadExecutor(FACTORY);
+    
+    /**
+     * The frames of the last few render sizes.
+     */
+    private final RecentlyUsed<Frames> sizes 
+        = new RecentlyUsed<Frames>(4);
+    
+    private volatile boolean shutdown = false;
+    
+    public AsyncRenderer(World world) {
+        if (world == null) {
+            throw new NullPointerException("world");
+        }
+        
+        this.world = world;
+    }
+    
+    /**
+     * Requests a frame for the given time at every size that 
+     * was painted before.
+     */
+    public void request(long time) {
+        for (Frames frames : sizes.values()) {
+            frames.request(time);
+        }
+    }
+    
+    /**
+     * Paints the latest finished frame of the render size scaled to 
+     * the given width and height and requests a new frame if it's not 
+     * for the given time and the current {@link MaskEngine} of the 
+     * {@link World}.
+     */
+    public void paint(Component c, Graphics g, int width, int height, 
+            long time, int renderWidth, int renderHeight) {
+        getFrames(renderWidth, renderHeight).paint(c, g, width, height, time);
+    }
+    
+    /**
+     * Returns the memory of the frames and their incremental 
+     * masks in bytes.
+     */
+    public long getSize() {
+        long size = 0L;
+        for (Frames frames : sizes.values()) {
+            size += frames.size;
+        }
+        return size;
+    }
+    
+    /**
+     * Stops the background thread.
+     */
+    public void shutdown() {
+        shutdown = true;
+        executor.shutdown();
+    }
+    
+    /**
+     * Returns the frames of the given size. The frames of the least 
+     * recently used size are dropped once they're no longer in use.
+     */
+    private Frames getFrames(final int width, final int height) {
+        synchronized (sizes) {
+            Frames frames = sizes.get(new RecentlyUsed.Matcher<Frames>() {
+                @Override
+                public boolean matches(Frames value) {
+                    return value.width == width && value.height == height;
+                }
+            });
+            
+            if (frames == null) {
+                frames = new Frames(width, height);
+                sizes.add(frames);
+            }
+            return frames;
+        }
+    }
+    
+    /**
+     * The triple buffered frames of one render size.
+     */
+    private class Frames implements Runnable {
+        
+        private final int width;
+        
+        private final int height;
+        
+        private final Frame[] frames = new Frame[3];
+        
+        private final AtomicReference<Frame> front 
+            = new AtomicReference<Frame>();
+        
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        
+        private volatile Frame painting = null;
+        
+        private final AtomicReference<Long> requested 
+            = new AtomicReference<Long>();
+        
+        private volatile Component component = null;
+        
+        /**
+         * The memory of the frames and their incremental masks in bytes.
+         */
+        private volatile long size = 0L;
+        
+        public Frames(int width, int height) {
+            this.width = width;
+            this.height = height;
+        }
+        
+        /**
+         * Requests a frame for the given time. The request replaces 
+         * any other request that hasn't been started yet. Requests 
+         * after {@link #shutdown()} are ignored.
+         */
+        public void request(long time) {
+            if (shutdown) {
+                return;
+            }
+            
+            Long previous = requested.getAndSet(time);
+            
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException err) {
+                    // Lost a race with shutdown(), drop the request
+                    scheduled.set(false);
+                }
+            } else if (previous != null && previous.longValue() != time) {
+                // A pending request was replaced before it was rendered
+                RenderMetrics.increment(Metric.DROPPED_FRAME);
+            }
+        }
+        
+        public void paint(Component c, Graphics g, 
+                int width, int height, long time) {
+            
+            component = c;
+            
+            Frame frame;
+            do {
+                frame = front.get();
+                painting = frame;
+            } while (front.get() != frame);
+            
+            try {
+                if (frame == null || !frame.matches(time, world.getMaskEngine())) {
+                    request(time);
+                }
+                
+                if (frame != null) {
+                    frame.painted = true;
+                    
+                    long start = !frame.isSize(width, height) 
+                            ? RenderMetrics.start() : 0L;
+                    g.drawImage(frame.image, 0, 0, width, height, null);
+                    RenderMetrics.stop(Metric.SCALE, start);
+                }
+            } finally {
+                painting = null;
+            }
+        }
+        
+        @Override
+        public void run() {
+            scheduled.set(false);
+            
+            long time = requested.get();
+            
+            // The frame may be rendered with a newer engine, 
+            // which only causes another render
+            MaskEngine engine = world.getMaskEngine();
+            
+            Frame current = front.get();
+            if (current != null && current.matches(time, engine)) {
+                return;
+            }
+            
+            Frame frame = nextFrame();
+            
+            if (frame.engine != engine) {
+                frame.incrementalMask = null;
+            }
+            
+            if (world.isIncremental()) {
+                if (frame.incrementalMask == null) {
+                    frame.incrementalMask = new IncrementalMask(width, height);
+                }
+                
+                world.updateCompositeImage(frame.incrementalMask, 
+                        time, frame.pixels, engine);
+            } else {
+                frame.incrementalMask = null;
+                world.createCompositeImage(ClockUtils.solarPosition(time), 
+                        Region.WORLD, width, height, frame.pixels, engine);
+            }
+            
+            frame.time = time;
+            frame.engine = engine;
+            frame.painted = false;
+            
+            size = computeSize();
+            
+            Frame previous = front.getAndSet(frame);
+            if (previous != null && !previous.painted) {
+                // The previous frame was replaced before it was painted
+                RenderMetrics.increment(Metric.DROPPED_FRAME);
+            }
+            
+            Component c = component;
+            if (c != null) {
+                c.repaint();
+            }
+        }
+        
+        private long computeSize() {
+            long size = 0L;
+            for (Frame frame : frames) {
+                if (frame != null) {
+                    size += 4L * frame.pixels.length;
+                    
+                    if (frame.incrementalMask != null) {
+                        size += frame.incrementalMask.getSize();
+                    }
+                }
+            }
+            return size;
+        }
+        
+        /**
+         * Returns a buffer that is neither the latest published 
+         * frame nor currently being painted.
+         */
+        private Frame nextFrame() {
+            Frame current = front.get();
+            Frame painting = this.painting;
+            
+            for (int i = 0; i < frames.length; i++) {
+                if (frames[i] == null) {
+                    frames[i] = new Frame(width, height);
+                }
+                
+                if (frames[i] != current && frames[i] != painting) {
+                    return frames[i];
+                }
+            }
+            
+            throw new IllegalStateException();
+        }
+    }
+    
+    private static class Frame {
+        
+        private final BufferedImage image;
+        
+        private final int[] pixels;
+        
+        /**
+         * The mask that the pixels were last rendered with 
+         * in the incremental mode.
+         */
+        private IncrementalMask incrementalMask = null;
+        
+        private long time;
+        
+        private MaskEngine engine = null;
+        
+        private volatile boolean painted = false;
+        
+        public Frame(int width, int height) {
+            image = new BufferedImage(width, height, 
+                    BufferedImage.TYPE_INT_ARGB);
+            pixels = ImageUtils.getPixels(image);
+        }
+        
+        public boolean isSize(int width, int height) {
+            return image.getWidth() == width && image.getHeight() == height;
+        }
+        
+        public boolean matches(long time, MaskEngine engine) {
+            return this.time == time && this.engine == engine;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2010 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.sunclock;
+
+/**
+ * Blends the night image over the day image with the day and 
+ * night mask as the alpha channel of the night image.
+ * 
+ * The images are {@link java.awt.image.BufferedImage#TYPE_INT_ARGB} 
+ * pixels and treated as opaque. Neither of them is modified.
+ */
+class Blender {
+    
+    private Blender() {}
+    
+    /**
+     * Blends the pixels {@code from} (inclusive) to {@code to} (exclusive)
+     * into the destination array.
+     */
+    public static void blend(int[] day, int[] night, 
+            byte[] mask, int[] dst, int from, int to) {
+        
+        for (int i = from; i < to; i++) {
+            dst[i] = blend(day[i], night[i], mask[i] & 0xFF);
+        }
+    }
+    
+    /**
+     * Blends the pixels {@code from} (inclusive) to {@code to} (exclusive)
+     * of a projected image into the destination array. The day and night 
+     * textures and the mask are sampled at the given index of each pixel 
+     * and pixels with an index of -1 are set to 0.
+     * 
+     * @see ProjectionTable
+     */
+    public static void blend(int[] day, int[] night, byte[] mask, 
+            int[] index, int[] dst, int from, int to) {
+        
+        for (int i = from; i < to; i++) {
+            int k = index[i];
+            dst[i] = (k != -1) ? blend(day[k], night[k], mask[k] & 0xFF) : 0;
+        }
+    }
+    
+    /**
+     * Blends the pixels {@code from} (inclusive) to {@code to} (exclusive)
+     * of {@link java.awt.image.BufferedImage#TYPE_3BYTE_BGR} textures 
+     * into the destination array.
+     */
+    public static void blend(byte[] day, byte[] night, 
+            byte[] mask, int[] dst, int from, int to) {
+        
+        for (int i = from; i < to; i++) {
+            dst[i] = blend(rgb(day, i), rgb(night, i), mask[i] & 0xFF);
+        }
+    }
+    
+    /**
+     * Blends the pixels {@code from} (inclusive) to {@code to} (exclusive)
+     * of a projected image from {@link java.awt.image.BufferedImage#TYPE_3BYTE_BGR} 
+     * textures into the destination array.
+     * 
+     * @see #blend(int[], int[], byte[], int[], int[], int, int)
+     */
+    public static void blend(byte[] day, byte[] night, byte[] mask, 
+            int[] index, int[] dst, int from, int to) {
+        
+        for (int i = from; i < to; i++) {
+            int k = index[i];
+            dst[i] = (k != -1) ? blend(rgb(day, k), 
+                    rgb(night, k), mask[k] & 0xFF) : 0;
+        }
+    }
+    
+    /**
+     * Returns the pixel at the given index of a 
+     * {@link java.awt.image.BufferedImage#TYPE_3BYTE_BGR} image 
+     * as an RGB int.
+     */
+    public static int rgb(byte[] pixels, int index) {
+        int offset = 3 * index;
+        return (pixels[offset+2] & 0xFF) << 16 
+                | (pixels[offset+1] & 0xFF) << 8 
+                | (pixels[offset] & 0xFF);
+    }
+    
+    /**
+     * Blends the pixels {@code from} (inclusive) to {@code to} (exclusive)
+     * of the upper image with their own alpha over the lower image.
+     */
+    public static void over(int[] lower, int[] upper, 
+            int[] dst, int from, int to) {
+        
+        for (int i = from; i < to; i++) {
+            dst[i] = blend(lower[i], upper[i], upper[i] >>> 24);
+        }
+    }
+    
+    /**
+     * Blends a single night pixel with the given alpha over a day pixel.
+     */
+    public static int blend(int day, int night, int alpha) {
+        if (alpha == 0x00) {
+            return 0xFF000000 | day;
+        } else if (alpha == 0xFF) {
+            return 0xFF000000 | night;
+        }
+        
+        int beta = 0xFF - alpha;
+        
+        // Red and blue are blended at once in the upper and lower half 
+        // of an int. The sums don't exceed 16 bits so they can't overlap.
+        int rb = (night & 0x00FF00FF) * alpha 
+                + (day & 0x00FF00FF) * beta + 0x00800080;
+        int g = (night & 0x0000FF00) * alpha 
+                + (day & 0x0000FF00) * beta + 0x00008000;
+        
+        // Divide by 255 with rounding
+        rb = ((rb + ((rb >>> 8) & 0x00FF00FF)) >>> 8) & 0x00FF00FF;
+        g = ((g + ((g >>> 8) & 0x00FFFF00)) >>> 8) & 0x0000FF00;
+        
+        return 0xFF000000 | rb | g;
+    }
+}
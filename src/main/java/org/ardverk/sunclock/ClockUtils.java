@@ -16,7 +16,6 @@
 
 package org.ardverk.sunclock;
 
-import static java.lang.Math.acos;
 import static java.lang.Math.asin;
 import static java.lang.Math.atan2;
 import static java.lang.Math.cos;
@@ -25,24 +24,66 @@ import static java.lang.Math.sin;
 import static java.lang.Math.toDegrees;
 import static java.lang.Math.toRadians;
 
-import java.util.Calendar;
-import java.util.GregorianCalendar;
-import java.util.Locale;
-import java.util.TimeZone;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
 
 class ClockUtils {
 
-    private static final TimeZone UTC = TimeZone.getTimeZone("GMT");
+    static final long MILLIS_PER_DAY = 24L * 60L * 60L * 1000L;
     
-    private static final double HORIZON_SEA_LEVEL = -50.0/60.0;
+    static final double HORIZON_SEA_LEVEL = -50.0/60.0;
     
-    private static final double HORIZON_TWILIGHT = -360.0/45.0;
+    static final double HORIZON_TWILIGHT = -360.0/45.0;
     
-    private static final int GRGORIAN_BEGIN_YEAR = 1582;
+    /**
+     * The original engine that solves the sunrise and sunset 
+     * equations for every pixel.
+     */
+    public static final MaskEngine PER_PIXEL = new PixelMaskEngine();
     
-    private static final int GRGORIAN_BEGIN_MONTH = 10;
+    /**
+     * An engine that solves the terminator once per longitude 
+     * column and fills the rows from it.
+     */
+    public static final MaskEngine PER_COLUMN = new ColumnMaskEngine();
     
-    private static final int GRGORIAN_BEGIN_DAY = 15;
+    /**
+     * Computes bands of rows with {@link #PER_COLUMN} on all cores.
+     */
+    public static final MaskEngine PARALLEL = new ParallelMaskEngine(PER_COLUMN);
+    
+    /**
+     * Produces a smooth gradient through civil, nautical and 
+     * astronomical twilight.
+     */
+    public static final MaskEngine GRADIENT = new GradientMaskEngine();
+    
+    /**
+     * Supersamples only the pixels along the terminator and the 
+     * twilight boundary for smooth edges.
+     */
+    public static final MaskEngine ANTIALIASED 
+        = new AntialiasedMaskEngine(new ColumnMaskEngine(), 4);
+    
+    private static final MaskEngine DEFAULT_ENGINE = PER_COLUMN;
+    
+    /**
+     * The julian day at 0h UTC of January 1, 1970.
+     */
+    private static final double JULIAN_DAY_EPOCH = 2440587.5;
+    
+    private static final SolarPositionCache CACHE 
+        = new SolarPositionCache(1000L, 16);
+    
+    /**
+     * The byte masks of the last size that {@link #createMask(long, int, 
+     * int, MaskEngine)} widens into its {@code int[]}. The pool is 
+     * replaced when the size changes, so it keeps at most two buffers.
+     */
+    private static volatile MaskPool buffers = new MaskPool(0, 2);
     
     private ClockUtils() {}
     
@@ -51,129 +92,311 @@ class ClockUtils {
     }
     
     public static int[] createMask(long time, int w, int h) {
+        return createMask(time, w, h, DEFAULT_ENGINE);
+    }
+    
+    public static int[] createMask(long time, int w, int h, MaskEngine engine) {
+        if (w < 0) {
+            throw new IllegalArgumentException("width=" + w);
+        }
         
-        int[] mask = new int[w*h];
+        if (h < 0) {
+            throw new IllegalArgumentException("height=" + h);
+        }
         
-        Calendar cal = GregorianCalendar.getInstance(UTC, Locale.US);
-        cal.setTimeInMillis(time);
+        MaskPool pool = buffers;
+        if (pool.getSize() != w*h) {
+            pool = new MaskPool(w*h, 2);
+            buffers = pool;
+        }
         
-        int day = cal.get(Calendar.DAY_OF_MONTH);
-        int month = cal.get(Calendar.MONTH) + 1;
-        int year = cal.get(Calendar.YEAR);
+        byte[] mask = pool.acquire();
+        try {
+            createMask(time, w, h, mask, 0, w, engine);
+            
+            int[] dst = new int[w*h];
+            for (int i = 0; i < dst.length; i++) {
+                dst[i] = mask[i] & 0xFF;
+            }
+            return dst;
+        } finally {
+            pool.release(mask);
+        }
+    }
+    
+    /**
+     * Writes the mask into the given {@code byte[]} without allocating 
+     * any memory for it.
+     */
+    public static void createMask(long time, int w, int h, byte[] mask) {
+        createMask(time, w, h, mask, 0, w, DEFAULT_ENGINE);
+    }
+    
+    /**
+     * Writes the mask into a region of the given {@code byte[]}. The 
+     * pixel (x, y) is written to {@code mask[offset + y*scanline + x]}.
+     */
+    public static void createMask(long time, int w, int h, 
+            byte[] mask, int offset, int scanline, MaskEngine engine) {
+        createMask(time, Region.WORLD, w, h, mask, offset, scanline, engine);
+    }
+    
+    /**
+     * Writes the mask of the given {@link Region} into a region of the 
+     * given {@code byte[]}. The cost is proportional to the size of the 
+     * mask and not to the size the whole world would have at its scale.
+     */
+    public static void createMask(long time, Region region, int w, int h, 
+            byte[] mask, int offset, int scanline, MaskEngine engine) {
+        createMask(solarPosition(time), region, w, h, 
+                mask, offset, scanline, engine);
+    }
+    
+    /**
+     * Writes the mask of the given {@link Region} for the given 
+     * {@link SolarPosition}, for example one from an {@link EphemerisTable}.
+     */
+    static void createMask(SolarPosition position, Region region, int w, int h, 
+            byte[] mask, int offset, int scanline, MaskEngine engine) {
         
-        double julianDay = julianDay(day, month, year);
-        double t = julianCentury(julianDay);
+        if (position == null) {
+            throw new NullPointerException("position");
+        }
         
-        double[] declination = apparentRightAscensionAndDeclination(t);
-        double alpha = declination[0];
-        double delta = declination[1];
+        if (region == null) {
+            throw new NullPointerException("region");
+        }
         
-        double theta = meanGreenwichSideralTime(t);
+        if (mask == null) {
+            throw new NullPointerException("mask");
+        }
         
-        int hour = cal.get(Calendar.HOUR_OF_DAY);
-        int minute = cal.get(Calendar.MINUTE);
-        int second = cal.get(Calendar.SECOND);
-        double ftime = fractionalTime(hour, minute, second);
-        
-        int i, j, k;
-        double latitude, longitude, cosH0, H0, m0, m1, m2;
-        double h0[] = { HORIZON_SEA_LEVEL, HORIZON_TWILIGHT };
-        
-        for (i = 0; i < h; i++) {
-            latitude = 90 - (double)i * 180.0 / (double)h;
-            for (j = 0; j < w; j++) {
-                
-                int x = j;
-                int y = h-i-1;
-                
-                for (k = 0; k < h0.length; k++) {
-                    cosH0 = (sin(toRadians(h0[k]))-sin(toRadians(latitude)) *
-                            sin(delta)) / (cos(toRadians(latitude))*cos(delta));
-                    
-                    if (cosH0 > 1.0) { // pixel is always below horizon so it's night
-                        if (k == 0) {
-                            bitBelow(mask, x, y, w);
-                        } else {
-                            bitAbove(mask, x, y, w);
-                        }
-                    } else if (cosH0 >= -1) {
-                        H0 = toDegrees(acos(cosH0));
-                        // the longitude is intervered since the shadow was going
-                        // the wrong way on the map :))
-                        
-                        longitude = 180.0 - (double)j * 360.0 / (double)w;
-                        m0 = (alpha + longitude - theta) / 360.0; // transit
-                        while (m0 > 1.0) m0 -= 1.0;
-                        while (m0 < 0.0) m0 += 1.0;
-                        m1 = m0 - H0/360.0; // sunrise
-                        
-                        while (m1 > 1.0) m1 -= 1.0;
-                        while (m1 < 0.0) m1 += 1.0;
-                        m2 = m0 + H0/360.0; // sunset
-                        
-                        while (m2 > 1.0) m2 -= 1.0;
-                        while (m2 < 0.0) m2 += 1.0;
-                        
-                        if (m1 < m2 && (ftime < m1 || ftime > m2)) {
-                            if (k == 0) {
-                                bitBelow(mask, x, y, w);
-                            } else {
-                                bitAbove(mask, x, y, w);
-                            }
-                            
-                        } else if (m1 > m2 && ftime > m2 && ftime < m1) {
-                            if (k == 0) {
-                                bitBelow(mask, x, y, w);
-                            } else {
-                                bitAbove(mask, x, y, w);
-                            }
-                        }
-                    }
-                }
-            }
+        if (engine == null) {
+            throw new NullPointerException("engine");
+        }
+        
+        if (w < 0) {
+            throw new IllegalArgumentException("width=" + w);
         }
         
-        return mask;
+        if (h < 0) {
+            throw new IllegalArgumentException("height=" + h);
+        }
+        
+        if (scanline < w) {
+            throw new IllegalArgumentException("scanline=" + scanline);
+        }
+        
+        if (h > 0 && (offset < 0 || offset + (long)(h-1) * scanline + w > mask.length)) {
+            throw new IndexOutOfBoundsException("offset=" + offset 
+                    + ", length=" + mask.length);
+        }
+        
+        engine.createMask(position, region, w, h, 
+                mask, offset, scanline, 0, h);
     }
     
-    private static void bitBelow(int[] mask, int x, int y, int scansize) {
-        mask[(y * scansize) + x] = 0x80;
+    /**
+     * Writes the mask of the given {@link Projection} into the given 
+     * {@code byte[]}. The mask is computed on the equirectangular grid 
+     * of the visible {@link Region} of the projection and sampled through 
+     * its {@link ProjectionTable}.
+     * Pixels that aren't on the map are 0x00.
+     */
+    public static void createMask(long time, Projection projection, 
+            int w, int h, byte[] mask, MaskEngine engine) {
+        
+        if (projection == null) {
+            throw new NullPointerException("projection");
+        }
+        
+        if (projection.isEquirectangular()) {
+            createMask(time, w, h, mask, 0, w, engine);
+            return;
+        }
+        
+        if (mask == null) {
+            throw new NullPointerException("mask");
+        }
+        
+        if (mask.length < w*h) {
+            throw new IllegalArgumentException("length=" + mask.length);
+        }
+        
+        ProjectionTable table = projection.getTable(w, h);
+        int gw = table.getGridWidth();
+        int gh = table.getGridHeight();
+        
+        MaskPool masks = table.getMasks();
+        byte[] grid = masks.acquire();
+        try {
+            createMask(time, table.getRegion(), gw, gh, grid, 0, gw, engine);
+            table.sample(grid, mask);
+        } finally {
+            masks.release(grid);
+        }
     }
     
-    private static void bitAbove(int[] mask, int x, int y, int scansize) {
-        mask[(y * scansize) + x] = 0xFF;
+    /**
+     * Writes the mask into the first band of the given {@link WritableRaster}.
+     */
+    public static void createMask(long time, WritableRaster raster) {
+        createMask(time, raster, DEFAULT_ENGINE);
     }
     
-    private static double julianDay(int day, int month, int year) {
-        int a = 0;
-        int b = 0;
+    /**
+     * Writes the mask into the first band of the given {@link WritableRaster}. 
+     * Rasters that are backed by a {@link DataBufferByte} with one byte per 
+     * pixel are written directly, all others row by row.
+     */
+    public static void createMask(long time, WritableRaster raster, MaskEngine engine) {
+        if (raster == null) {
+            throw new NullPointerException("raster");
+        }
         
-        boolean isGregorian = false;
-        if (year > GRGORIAN_BEGIN_YEAR) {
-            isGregorian = true;
-        } else if (year == GRGORIAN_BEGIN_YEAR) {
-            if (month > GRGORIAN_BEGIN_MONTH) {
-                isGregorian = true;
-            } else if (month == GRGORIAN_BEGIN_MONTH) {
-                if (day >= GRGORIAN_BEGIN_DAY) {
-                    isGregorian = true;
-                }
-            }
+        int w = raster.getWidth();
+        int h = raster.getHeight();
+        
+        SampleModel sampleModel = raster.getSampleModel();
+        DataBuffer dataBuffer = raster.getDataBuffer();
+        
+        if (dataBuffer instanceof DataBufferByte 
+                && sampleModel instanceof ComponentSampleModel
+                && ((ComponentSampleModel)sampleModel).getPixelStride() == 1) {
+            
+            ComponentSampleModel model = (ComponentSampleModel)sampleModel;
+            int bank = model.getBankIndices()[0];
+            int offset = dataBuffer.getOffsets()[bank] + model.getOffset(
+                    raster.getMinX() - raster.getSampleModelTranslateX(), 
+                    raster.getMinY() - raster.getSampleModelTranslateY(), 0);
+            
+            byte[] mask = ((DataBufferByte)dataBuffer).getData(bank);
+            createMask(time, w, h, mask, offset, 
+                    model.getScanlineStride(), engine);
+            return;
         }
         
-        if (month < 3) {
-            year--;
-            month += 3;
+        if (engine == null) {
+            throw new NullPointerException("engine");
         }
         
-        if (isGregorian) {
-            a = year / 100;
-            b = 2 - a + (int)(a / 4);
+        SolarPosition position = solarPosition(time);
+        
+        byte[] mask = new byte[w];
+        int[] samples = new int[w];
+        
+        int minX = raster.getMinX();
+        int minY = raster.getMinY();
+        
+        for (int y = 0; y < h; y++) {
+            engine.createMask(position, Region.WORLD, w, h, 
+                    mask, -y * w, w, y, y+1);
+            for (int x = 0; x < w; x++) {
+                samples[x] = mask[x] & 0xFF;
+            }
+            raster.setSamples(minX, minY + y, w, 1, 0, samples);
         }
+    }
+    
+    /**
+     * Returns the position of the sun at the given time from 
+     * a cache with a resolution of one second.
+     */
+    static SolarPosition solarPosition(long time) {
+        return CACHE.get(time);
+    }
+    
+    /**
+     * Computes the position of the sun at the given time.
+     */
+    static SolarPosition computeSolarPosition(long time) {
+        return computeSolarPosition(time, julianDay(time));
+    }
+    
+    /**
+     * Returns the julian day at 0h UTC of the UTC day of the given 
+     * time, which is the julian day that the series is evaluated for.
+     */
+    static double julianDay(long time) {
+        return Math.floorDiv(time, MILLIS_PER_DAY) + JULIAN_DAY_EPOCH;
+    }
+    
+    /**
+     * Computes the position of the sun at the given time on the day 
+     * with the given julian day.
+     */
+    static SolarPosition computeSolarPosition(long time, double julianDay) {
+        double t = julianCentury(julianDay);
+        
+        double l0 = meanLongitude(t);
+        double m = meanAnomaly(t);
+        double c = centerEquation(toRadians(m), t);
+        double omicron = trueLongitude(l0, c);
+        double omega = apparentLongitudeCorrection(t);
+        double lambda = toRadians(apparentLongitude(omicron, omega, t));
+        double epsilon = toRadians(ecliptiqueObliquity(t));
+        omega = toRadians(omega);
+        
+        double alpha = apparentRightAscension(epsilon, omega, lambda);
+        double delta = apparentDeclination(epsilon, omega, lambda);
         
-        return ((int)365.25 * (year + 4716)) 
-                + (int)(30.6001 * (month + 1)) 
-                + day + (double)b - 1524.5;
+        double theta = meanGreenwichSideralTime(t);
+        
+        return new SolarPosition(time, alpha, delta, theta, fractionalTime(time));
+    }
+    
+    /**
+     * Returns the fraction of the (UTC) day that has passed at the 
+     * given time in whole seconds.
+     */
+    static double fractionalTime(long time) {
+        int seconds = (int)(Math.floorMod(time, MILLIS_PER_DAY) / 1000L);
+        
+        int hour = seconds / 3600;
+        int minute = (seconds / 60) % 60;
+        int second = seconds % 60;
+        return fractionalTime(hour, minute, second);
+    }
+    
+    /**
+     * The sunrise and sunset test of {@link PixelMaskEngine}. Returns 
+     * true if the sun is below the horizon at the given fractional time 
+     * of the day at a place with the given transit and the given cosine 
+     * and hour angle (in degrees) of the horizon.
+     */
+    static boolean isBelowHorizon(double cosH0, double H0, 
+            double m0, double ftime) {
+        
+        if (cosH0 > 1.0) {
+            return true;
+        } else if (cosH0 >= -1) {
+            double m1 = fractionOfDay(m0 - H0/360.0); // sunrise
+            double m2 = fractionOfDay(m0 + H0/360.0); // sunset
+            
+            if (m1 < m2 && (ftime < m1 || ftime > m2)) {
+                return true;
+            } else if (m1 > m2 && ftime > m2 && ftime < m1) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Wraps the given time into the range of a day.
+     */
+    static double fractionOfDay(double m) {
+        while (m > 1.0) m -= 1.0;
+        while (m < 0.0) m += 1.0;
+        return m;
+    }
+    
+    static void bitBelow(byte[] mask, int offset, int x, int y, int scansize) {
+        mask[offset + (y * scansize) + x] = (byte)0x80;
+    }
+    
+    static void bitAbove(byte[] mask, int offset, int x, int y, int scansize) {
+        mask[offset + (y * scansize) + x] = (byte)0xFF;
     }
     
     private static double julianCentury(double julianDay) {
@@ -182,28 +405,12 @@ class ClockUtils {
     
     private static double meanLongitude(double t) {
         double longitude = 280.46646 + 36000.76983 * t + pow((0.0003032 * t), 2.0);
-        while (longitude > 360.0) {
-            longitude -= 360.0;
-        }
-        
-        while (longitude < 0.0) {
-            longitude += 360.0;
-        }
-        
-        return longitude;
+        return normalize(longitude);
     }
     
     private static double meanAnomaly(double t) {
         double anomaly = 357.52911 + 35999.05029 * t - pow((0.0001537 * t), 2.0);
-        while (anomaly > 360.0) { 
-            anomaly -= 360.0;
-        }
-        
-        while (anomaly < 0.0) { 
-            anomaly += 360.0;
-        }
-        
-        return anomaly;
+        return normalize(anomaly);
     }
     
     private static double centerEquation(double m, double t) {
@@ -232,9 +439,7 @@ class ClockUtils {
     private static double apparentRightAscension(double epsilon, double omega, double lambda) {
         epsilon += toRadians(0.00256) * cos(omega); // correction low accuracy
         double alpha = toDegrees(atan2((cos(epsilon) * sin(lambda)), (cos(lambda))));
-        while (alpha > 360.0) alpha -= 360.0;
-        while (alpha < 0) alpha += 360.0;
-        return alpha;
+        return normalize(alpha);
 
     }
     
@@ -243,34 +448,18 @@ class ClockUtils {
         return asin(sin(epsilon) * sin(lambda));
     }
     
-    private static double[] apparentRightAscensionAndDeclination(double t) {
-        double l0 = meanLongitude(t);
-        double m = meanAnomaly(t);
-        double c = centerEquation(toRadians(m), t);
-        double omicron = trueLongitude(l0, c);
-        double omega = apparentLongitudeCorrection(t);
-        double lambda = toRadians(apparentLongitude(omicron, omega, t));
-        double epsilon = toRadians(ecliptiqueObliquity(t));
-        omega = toRadians(omega);
-        
-        double a = apparentRightAscension(epsilon, omega, lambda);
-        double b = apparentDeclination(epsilon, omega, lambda);
-        
-        return new double[] { a, b };
-    }
-    
     private static double meanGreenwichSideralTime(double t) {
         double theta = 100.46061837 + 36000.770053608 * t + 0.000387933
                 * (t * t) - (t * t * t) / 38710000;
-        while (theta > 360.0) {
-            theta -= 360.0;
-        }
-        
-        while (theta < 0.0) {
-            theta += 360.0;
-        }
-        
-        return theta;
+        return normalize(theta);
+    }
+    
+    /**
+     * Returns the given angle in degrees reduced to [0, 360) in 
+     * constant time.
+     */
+    static double normalize(double degrees) {
+        return degrees - 360.0 * Math.floor(degrees / 360.0);
     }
     
     private static double fractionalTime(int hour, int minute, int second) {
@@ -16,51 +16,70 @@
 
 package org.ardverk.sunclock;
 
-import java.awt.Component;
-import java.awt.Graphics;
 import java.awt.Image;
 import java.awt.image.BufferedImage;
 
-import javax.swing.Icon;
-
-class Clouds implements Icon {
+/**
+ * A {@link Layer} with a cloud image whose brightness is its opacity.
+ * The clouds are scaled once per size and whenever the image is replaced.
+ */
+class Clouds extends Layer {
 
-    private final BufferedImage clouds;
+    /**
+     * The system property with the URL of a cloud image that 
+     * {@link Main} draws over the map.
+     */
+    public static final String PROPERTY = "org.ardverk.sunclock.clouds";
+    
+    private final float alpha;
     
-    private volatile Image image;
+    private volatile BufferedImage clouds;
+    
+    private volatile long version = 0L;
     
     public Clouds(Image clouds, float alpha) {
         if (clouds == null) {
             throw new NullPointerException("clouds");
         }
         
+        this.alpha = alpha;
         this.clouds = ImageUtils.brightnessToAlpha(clouds, alpha);
     }
     
+    /**
+     * Replaces the cloud image.
+     */
+    public synchronized void setImage(Image clouds) {
+        if (clouds == null) {
+            throw new NullPointerException("clouds");
+        }
+        
+        this.clouds = ImageUtils.brightnessToAlpha(clouds, alpha);
+        version++;
+    }
+    
     @Override
-    public int getIconWidth() {
+    public int getWidth() {
         return clouds.getWidth();
     }
     
     @Override
-    public int getIconHeight() {
+    public int getHeight() {
         return clouds.getHeight();
     }
     
     @Override
-    public void paintIcon(Component c, Graphics g, int x, int y) {
-        int width = c.getWidth();
-        int height = c.getHeight();
-        
-        Image image = this.image;
-        
-        if (image == null || image.getWidth(null) != width 
-                || image.getHeight(null) != height) {
-            image = clouds.getScaledInstance(
-                    width, height, BufferedImage.SCALE_DEFAULT);
-            this.image = image;
-        }
+    protected long getVersion() {
+        return version;
+    }
+    
+    @Override
+    protected void render(int width, int height, int[] pixels) {
+        long start = RenderMetrics.start();
+        BufferedImage scaled = ImageUtils.resample(clouds, width, height);
+        RenderMetrics.stop(Metric.SCALE, start);
         
-        g.drawImage(image, 0, 0, null);
+        System.arraycopy(ImageUtils.getPixels(scaled), 0, 
+                pixels, 0, pixels.length);
     }
 }
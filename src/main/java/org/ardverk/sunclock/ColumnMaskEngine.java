@@ -0,0 +1,214 @@
+/*
+ * Copyright 2010 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.sunclock;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * A {@link MaskEngine} that solves the latitude of the terminator 
+ * and the twilight boundary once per longitude column and fills the 
+ * rows of the mask from it.
+ */
+class ColumnMaskEngine implements MaskEngine {
+
+    /**
+     * The number of masks whose {@link Horizons} are kept. An engine 
+     * is shared by all {@link World}s, renderers and time lapses.
+     */
+    private static final int CACHE_SIZE = 8;
+    
+    /**
+     * The {@link Horizons} of the most recent masks. They're shared
+     * by all bands of a {@link ParallelMaskEngine}.
+     */
+    private final RecentlyUsed<Entry> horizons 
+        = new RecentlyUsed<Entry>(CACHE_SIZE);
+    
+    @Override
+    public boolean isGradient() {
+        return false;
+    }
+    
+    @Override
+    public void createMask(SolarPosition position, Region region, int w, int h, 
+            byte[] mask, int offset, int scanline, int from, int to) {
+        
+        Horizons horizons = getHorizons(position, region, w, h);
+        Terminator below = horizons.below;
+        Terminator above = horizons.above;
+        
+        for (int y = from; y < to; y++) {
+            int row = offset + y * scanline;
+            
+            for (int j = 0; j < w; j++) {
+                mask[row + j] = (byte)valueOf(below, above, y, j);
+            }
+        }
+    }
+    
+    /**
+     * Returns the mask value of the pixel in row i (counted from 
+     * the north pole) and column j.
+     */
+    static int valueOf(Terminator below, Terminator above, int i, int j) {
+        if (above.contains(i, j)) {
+            return 0xFF;
+        } else if (below.contains(i, j)) {
+            return 0x80;
+        }
+        return 0x00;
+    }
+    
+    /**
+     * Returns the {@link Horizons} of the given mask and computes 
+     * them if they're not the ones of a recent mask. The bands of a 
+     * mask that ask for the same {@link Horizons} at the same time 
+     * wait for the first one to compute them.
+     */
+    Horizons getHorizons(final SolarPosition position, 
+            final Region region, final int w, final int h) {
+        
+        Entry entry;
+        boolean created = false;
+        
+        synchronized (horizons) {
+            entry = horizons.get(new RecentlyUsed.Matcher<Entry>() {
+                @Override
+                public boolean matches(Entry value) {
+                    return value.matches(position, region, w, h);
+                }
+            });
+            
+            if (entry == null) {
+                entry = new Entry(position, region, w, h);
+                horizons.add(entry);
+                created = true;
+            }
+        }
+        
+        if (created) {
+            entry.run();
+        }
+        
+        // Only the thread that computed a failed entry drops it, 
+        // the others that waited for it just rethrow the failure
+        try {
+            return entry.getUninterruptibly();
+        } catch (RuntimeException err) {
+            if (created) {
+                horizons.remove(entry);
+            }
+            throw err;
+        } catch (Error err) {
+            if (created) {
+                horizons.remove(entry);
+            }
+            throw err;
+        }
+    }
+    
+    /**
+     * A {@link Horizons} that is computed once.
+     */
+    private static class Entry extends FutureTask<Horizons> {
+        
+        private final SolarPosition position;
+        
+        private final Region region;
+        
+        private final int w;
+        
+        private final int h;
+        
+        public Entry(final SolarPosition position, 
+                final Region region, final int w, final int h) {
+            super(new Callable<Horizons>() {
+                @Override
+                public Horizons call() {
+                    return new Horizons(position, region, w, h);
+                }
+            });
+            
+            this.position = position;
+            this.region = region;
+            this.w = w;
+            this.h = h;
+        }
+        
+        public boolean matches(SolarPosition position, 
+                Region region, int w, int h) {
+            return this.position == position && this.region.equals(region) 
+                    && this.w == w && this.h == h;
+        }
+        
+        /**
+         * Waits for the {@link Horizons} and restores the interrupt 
+         * flag if the thread was interrupted while waiting.
+         */
+        public Horizons getUninterruptibly() {
+            boolean interrupted = false;
+            try {
+                while (true) {
+                    try {
+                        return get();
+                    } catch (InterruptedException err) {
+                        interrupted = true;
+                    } catch (ExecutionException err) {
+                        Throwable cause = err.getCause();
+                        if (cause instanceof RuntimeException) {
+                            throw (RuntimeException)cause;
+                        } else if (cause instanceof Error) {
+                            throw (Error)cause;
+                        }
+                        throw new IllegalStateException(cause);
+                    }
+                }
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+    
+    /**
+     * The {@link Terminator}s of the sea level and the twilight horizon.
+     */
+    static class Horizons {
+        
+        private final Terminator below;
+        
+        private final Terminator above;
+        
+        public Horizons(SolarPosition position, Region region, int w, int h) {
+            below = new Terminator(position, 
+                    ClockUtils.HORIZON_SEA_LEVEL, region, w, h);
+            above = new Terminator(position, 
+                    ClockUtils.HORIZON_TWILIGHT, region, w, h);
+        }
+        
+        public Terminator getBelow() {
+            return below;
+        }
+        
+        public Terminator getAbove() {
+            return above;
+        }
+    }
+}
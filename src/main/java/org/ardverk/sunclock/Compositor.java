@@ -0,0 +1,151 @@
+/*
+ * Copyright 2010 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.sunclock;
+
+import java.awt.Component;
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+
+import javax.swing.Icon;
+
+/**
+ * An {@link Icon} that blends a stack of {@link Layer}s at the size of 
+ * the component. The first layer is at the bottom and treated as opaque.
+ * 
+ * The blend of every layer with all layers below it is kept, so when a 
+ * layer changes only it and the layers above it are blended again and 
+ * layers that haven't changed are neither rendered nor scaled.
+ */
+class Compositor implements Icon {
+    
+    private final Layer[] layers;
+    
+    /**
+     * The blend of the layers 0 to i. The first one is unused.
+     */
+    private final BufferedImage[] composites;
+    
+    /**
+     * The {@link Layer#getSerial()} of every layer when the 
+     * composites were last blended.
+     */
+    private final long[] serials;
+    
+    /**
+     * The {@link Layer#getSerial()} of every layer while the 
+     * composites are blended.
+     */
+    private final long[] current;
+    
+    public Compositor(Layer... layers) {
+        if (layers == null) {
+            throw new NullPointerException("layers");
+        }
+        
+        if (layers.length == 0) {
+            throw new IllegalArgumentException("length=0");
+        }
+        
+        this.layers = layers.clone();
+        this.composites = new BufferedImage[layers.length];
+        this.serials = new long[layers.length];
+        this.current = new long[layers.length];
+        
+        // Nothing has been blended yet
+        for (int i = 0; i < layers.length; i++) {
+            serials[i] = layers[i].getSerial() - 1L;
+        }
+    }
+    
+    @Override
+    public int getIconHeight() {
+        int height = 0;
+        for (Layer layer : layers) {
+            height = Math.max(layer.getHeight(), height);
+        }
+        return height;
+    }
+
+    @Override
+    public int getIconWidth() {
+        int width = 0;
+        for (Layer layer : layers) {
+            width = Math.max(layer.getWidth(), width);
+        }
+        return width;
+    }
+    
+    @Override
+    public void paintIcon(Component c, Graphics g, int x, int y) {
+        int width = c.getWidth();
+        int height = c.getHeight();
+        
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+        
+        long start = RenderMetrics.start();
+        try {
+            g.drawImage(getImage(width, height), 0, 0, null);
+        } finally {
+            RenderMetrics.stop(Metric.PAINT, start);
+        }
+    }
+    
+    /**
+     * Returns the blend of all layers at the given size. A layer counts 
+     * as changed if it was rendered since the last blend, which is read 
+     * after it was rendered and not polled before.
+     */
+    public BufferedImage getImage(int width, int height) {
+        BufferedImage lower = layers[0].getImage(width, height);
+        current[0] = layers[0].getSerial();
+        boolean changed = current[0] != serials[0];
+        
+        for (int i = 1; i < layers.length; i++) {
+            BufferedImage upper = layers[i].getImage(width, height);
+            current[i] = layers[i].getSerial();
+            
+            BufferedImage composite = composites[i];
+            if (composite == null || composite.getWidth() != width 
+                    || composite.getHeight() != height) {
+                composite = new BufferedImage(width, height, 
+                        BufferedImage.TYPE_INT_ARGB);
+                composites[i] = composite;
+                changed = true;
+            }
+            
+            if (changed || current[i] != serials[i]) {
+                int[] dst = ImageUtils.getPixels(composite);
+                
+                long start = RenderMetrics.start();
+                Blender.over(ImageUtils.getPixels(lower), 
+                        ImageUtils.getPixels(upper), dst, 0, dst.length);
+                RenderMetrics.stop(Metric.BLEND, start);
+                
+                changed = true;
+            }
+            
+            lower = composite;
+        }
+        
+        // Only once all composites are blended
+        System.arraycopy(current, 0, serials, 0, current.length);
+        
+        return lower;
+    }
+}
@@ -0,0 +1,382 @@
+/*
+ * Copyright 2010 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.sunclock;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.LocalDate;
+
+/**
+ * A precomputed table of the right ascension, the declination and the 
+ * sideral time of the sun for a range of UTC days.
+ * 
+ * The position of the sun depends only on the julian day that the 
+ * series is evaluated for on the UTC day of a time (the fraction of 
+ * the day is applied on top of it), so a table with one entry per 
+ * day is exact and returns the same {@link SolarPosition}s as 
+ * {@link SolarPosition#valueOf(long)}. Coarser tables interpolate 
+ * linearly between their entries. The largest difference 
+ * to the series over every day in the range is measured when the table 
+ * is created and returned by {@link #getMaxError()}.
+ * 
+ * The table stores the right ascension and the sideral time rather 
+ * than the equation of time. The masks need both to compute the hour 
+ * angle, and the equation of time is their difference to the mean sun, 
+ * so it would have to be expanded into the same two series again.
+ */
+public final class EphemerisTable {
+    
+    /**
+     * The number of values per entry.
+     */
+    private static final int STRIDE = 3;
+    
+    private static final int MAGIC = 0x53435048;
+    
+    private static final int VERSION = 1;
+    
+    /**
+     * Creates the table for the years from {@code fromYear} to {@code toYear}
+     * (inclusive) with an entry every {@code interval} days and writes it 
+     * to a file.
+     * 
+     * <pre>EphemerisTable &lt;fromYear&gt; &lt;toYear&gt; &lt;interval&gt; &lt;file&gt;</pre>
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 4) {
+            System.err.println("EphemerisTable <fromYear> <toYear> <interval> <file>");
+            System.exit(1);
+        }
+        
+        EphemerisTable table = create(
+                Integer.parseInt(args[0]), 
+                Integer.parseInt(args[1]), 
+                Integer.parseInt(args[2]));
+        
+        table.save(new File(args[3]));
+        System.out.println(table);
+    }
+    
+    /**
+     * Creates the table for the years from {@code fromYear} to {@code toYear}
+     * (inclusive) with an entry every {@code interval} days.
+     */
+    public static EphemerisTable create(int fromYear, int toYear, int interval) {
+        if (toYear < fromYear) {
+            throw new IllegalArgumentException(
+                    "fromYear=" + fromYear + ", toYear=" + toYear);
+        }
+        
+        long start = LocalDate.of(fromYear, 1, 1).toEpochDay();
+        long end = LocalDate.of(toYear, 12, 31).toEpochDay();
+        return create(start, end, interval);
+    }
+    
+    /**
+     * Creates the table for the UTC days of the given times (inclusive)
+     * with an entry every {@code interval} days.
+     */
+    static EphemerisTable createForTimes(long start, long end, int interval) {
+        if (end < start) {
+            throw new IllegalArgumentException("start=" + start + ", end=" + end);
+        }
+        
+        return create(Math.floorDiv(start, ClockUtils.MILLIS_PER_DAY), 
+                Math.floorDiv(end, ClockUtils.MILLIS_PER_DAY), interval);
+    }
+    
+    private static EphemerisTable create(long firstDay, long lastDay, int interval) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("interval=" + interval);
+        }
+        
+        double[] range = getJulianDays(firstDay, lastDay);
+        double min = range[0];
+        
+        long count = getCount(range, interval);
+        if (count * STRIDE > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("count=" + count);
+        }
+        
+        double[] values = new double[(int)count * STRIDE];
+        for (int i = 0; i < count; i++) {
+            SolarPosition position = ClockUtils.computeSolarPosition(
+                    0L, min + (double)i * interval);
+            
+            values[i*STRIDE] = position.alpha;
+            values[i*STRIDE+1] = position.delta;
+            values[i*STRIDE+2] = position.theta;
+        }
+        
+        EphemerisTable table = new EphemerisTable(
+                firstDay, lastDay, min, interval, values, 0.0);
+        if (interval == 1) {
+            return table;
+        }
+        
+        // Measure the interpolation error on every day of the range
+        double maxError = 0.0;
+        for (long day = firstDay; day <= lastDay; day++) {
+            long time = day * ClockUtils.MILLIS_PER_DAY;
+            SolarPosition expected = ClockUtils.computeSolarPosition(time);
+            SolarPosition actual = table.get(time);
+            
+            maxError = Math.max(maxError, Math.abs(
+                    angle(actual.alpha - expected.alpha)));
+            maxError = Math.max(maxError, Math.abs(
+                    Math.toDegrees(actual.delta - expected.delta)));
+            maxError = Math.max(maxError, Math.abs(
+                    angle(actual.theta - expected.theta)));
+        }
+        
+        return new EphemerisTable(firstDay, lastDay, 
+                min, interval, values, maxError);
+    }
+    
+    /**
+     * Reads a table that was written with {@link #write(OutputStream)}.
+     */
+    public static EphemerisTable read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not an ephemeris table");
+        }
+        
+        int version = data.readInt();
+        if (version != VERSION) {
+            throw new IOException("version=" + version);
+        }
+        
+        long firstDay = data.readLong();
+        long lastDay = data.readLong();
+        double firstJulianDay = data.readDouble();
+        int interval = data.readInt();
+        int count = data.readInt();
+        double maxError = data.readDouble();
+        
+        if (lastDay < firstDay || interval <= 0 || count <= 0 
+                || count > Integer.MAX_VALUE / STRIDE) {
+            throw new IOException("interval=" + interval + ", count=" + count);
+        }
+        
+        if (firstDay < Long.MIN_VALUE / ClockUtils.MILLIS_PER_DAY 
+                || lastDay > Long.MAX_VALUE / ClockUtils.MILLIS_PER_DAY) {
+            throw new IOException("firstDay=" + firstDay + ", lastDay=" + lastDay);
+        }
+        
+        if (!(maxError >= 0.0)) {
+            throw new IOException("maxError=" + maxError);
+        }
+        
+        double[] range = getJulianDays(firstDay, lastDay);
+        if (firstJulianDay != range[0] || count != getCount(range, interval)) {
+            throw new IOException("firstJulianDay=" + firstJulianDay 
+                    + ", count=" + count);
+        }
+        
+        double[] values = new double[count * STRIDE];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = data.readDouble();
+        }
+        
+        return new EphemerisTable(firstDay, lastDay, 
+                firstJulianDay, interval, values, maxError);
+    }
+    
+    /**
+     * Returns the smallest and the largest julian day of the 
+     * given UTC days.
+     */
+    private static double[] getJulianDays(long firstDay, long lastDay) {
+        return new double[] { 
+            ClockUtils.julianDay(firstDay * ClockUtils.MILLIS_PER_DAY), 
+            ClockUtils.julianDay(lastDay * ClockUtils.MILLIS_PER_DAY) 
+        };
+    }
+    
+    /**
+     * Returns the number of entries that cover the given 
+     * range of julian days.
+     */
+    private static long getCount(double[] range, int interval) {
+        return ((long)(range[1] - range[0]) + interval - 1L) / interval + 1L;
+    }
+    
+    /**
+     * Loads a table from the given {@link File}.
+     */
+    public static EphemerisTable load(File file) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(file));
+        try {
+            return read(in);
+        } finally {
+            in.close();
+        }
+    }
+    
+    private final long firstDay;
+    
+    private final long lastDay;
+    
+    private final double firstJulianDay;
+    
+    private final int interval;
+    
+    /**
+     * The right ascension (degrees), the declination (radians) and 
+     * the sideral time (degrees) of every entry.
+     */
+    private final double[] values;
+    
+    private final int count;
+    
+    private final double maxError;
+    
+    private EphemerisTable(long firstDay, long lastDay, double firstJulianDay, 
+            int interval, double[] values, double maxError) {
+        this.firstDay = firstDay;
+        this.lastDay = lastDay;
+        this.firstJulianDay = firstJulianDay;
+        this.interval = interval;
+        this.values = values;
+        this.count = values.length / STRIDE;
+        this.maxError = maxError;
+    }
+    
+    /**
+     * Returns the first time that is covered by this table.
+     */
+    public long getStart() {
+        return firstDay * ClockUtils.MILLIS_PER_DAY;
+    }
+    
+    /**
+     * Returns the end (exclusive) of the times that are covered 
+     * by this table.
+     */
+    public long getEnd() {
+        return (lastDay + 1L) * ClockUtils.MILLIS_PER_DAY;
+    }
+    
+    /**
+     * Returns the number of days between two entries.
+     */
+    public int getInterval() {
+        return interval;
+    }
+    
+    /**
+     * Returns the largest difference in degrees between the values of 
+     * this table and the series on any day in its range. It's zero for 
+     * tables with an entry for every day. An error of one degree in the 
+     * right ascension or the sideral time moves the terminator by four 
+     * minutes of time.
+     */
+    public double getMaxError() {
+        return maxError;
+    }
+    
+    /**
+     * Returns the position of the sun at the given time. Times outside 
+     * of the range of this table are computed with the series.
+     */
+    public SolarPosition get(long time) {
+        long day = Math.floorDiv(time, ClockUtils.MILLIS_PER_DAY);
+        if (day < firstDay || day > lastDay) {
+            return ClockUtils.computeSolarPosition(time);
+        }
+        
+        long offset = (long)(ClockUtils.julianDay(time) - firstJulianDay);
+        long index = offset / interval;
+        int remainder = (int)(offset % interval);
+        
+        int i = (int)index * STRIDE;
+        double ftime = ClockUtils.fractionalTime(time);
+        
+        if (remainder == 0) {
+            return new SolarPosition(time, values[i], 
+                    values[i+1], values[i+2], ftime);
+        }
+        
+        double f = (double)remainder / interval;
+        int j = i + STRIDE;
+        
+        double alpha = ClockUtils.normalize(values[i] + f * angle(values[j] - values[i]));
+        double delta = values[i+1] + f * (values[j+1] - values[i+1]);
+        double theta = ClockUtils.normalize(values[i+2] + f * angle(values[j+2] - values[i+2]));
+        
+        return new SolarPosition(time, alpha, delta, theta, ftime);
+    }
+    
+    /**
+     * Writes this table to the given {@link OutputStream}.
+     */
+    public void write(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeLong(firstDay);
+        data.writeLong(lastDay);
+        data.writeDouble(firstJulianDay);
+        data.writeInt(interval);
+        data.writeInt(count);
+        data.writeDouble(maxError);
+        
+        for (double value : values) {
+            data.writeDouble(value);
+        }
+        
+        data.flush();
+    }
+    
+    /**
+     * Saves this table to the given {@link File}.
+     */
+    public void save(File file) throws IOException {
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+        try {
+            write(out);
+        } finally {
+            out.close();
+        }
+    }
+    
+    @Override
+    public String toString() {
+        return "EphemerisTable[start=" + LocalDate.ofEpochDay(firstDay) 
+                + ", end=" + LocalDate.ofEpochDay(lastDay) 
+                + ", count=" + count + ", interval=" + interval 
+                + ", maxError=" + maxError + "]";
+    }
+    
+    /**
+     * Wraps the given difference of two angles into [-180, 180) in 
+     * constant time.
+     */
+    private static double angle(double degrees) {
+        return degrees - 360.0 * Math.floor((degrees + 180.0) / 360.0);
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2010 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.sunclock;
+
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A {@link FrameSink} receives the frames of a {@link TimeLapse} 
+ * in order.
+ */
+interface FrameSink extends Closeable {
+
+    /**
+     * Writes the frame with the given index. The image is reused for 
+     * other frames after the method returns.
+     */
+    public void write(int index, long time, BufferedImage image) throws IOException;
+}
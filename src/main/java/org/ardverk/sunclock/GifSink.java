@@ -0,0 +1,125 @@
+/*
+ * Copyright 2010 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.sunclock;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.FileImageOutputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * A {@link FrameSink} that encodes the frames as an animated GIF.
+ */
+class GifSink implements FrameSink {
+    
+    private static final String FORMAT = "javax_imageio_gif_image_1.0";
+    
+    private final ImageOutputStream out;
+    
+    private final ImageWriter writer;
+    
+    private final int delay;
+    
+    /**
+     * Creates a {@link GifSink} with the given delay between two 
+     * frames in milliseconds. The animation loops forever.
+     */
+    public GifSink(File file, int delay) throws IOException {
+        if (delay < 0) {
+            throw new IllegalArgumentException("delay=" + delay);
+        }
+        
+        Iterator<ImageWriter> it = ImageIO.getImageWritersByFormatName("gif");
+        if (!it.hasNext()) {
+            throw new IOException("No writer: gif");
+        }
+        
+        File parent = file.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Failed to create: " + parent);
+        }
+        
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Failed to delete: " + file);
+        }
+        
+        this.delay = delay;
+        this.writer = it.next();
+        this.out = new FileImageOutputStream(file);
+        
+        writer.setOutput(out);
+        writer.prepareWriteSequence(null);
+    }
+    
+    @Override
+    public void write(int index, long time, BufferedImage image) throws IOException {
+        IIOMetadata metadata = writer.getDefaultImageMetadata(
+                new ImageTypeSpecifier(image), null);
+        
+        IIOMetadataNode root = (IIOMetadataNode)metadata.getAsTree(FORMAT);
+        
+        IIOMetadataNode control = child(root, "GraphicControlExtension");
+        control.setAttribute("disposalMethod", "none");
+        control.setAttribute("userInputFlag", "FALSE");
+        control.setAttribute("transparentColorFlag", "FALSE");
+        control.setAttribute("delayTime", Integer.toString(delay / 10));
+        control.setAttribute("transparentColorIndex", "0");
+        
+        if (index == 0) {
+            IIOMetadataNode extensions = child(root, "ApplicationExtensions");
+            IIOMetadataNode extension = new IIOMetadataNode("ApplicationExtension");
+            extension.setAttribute("applicationID", "NETSCAPE");
+            extension.setAttribute("authenticationCode", "2.0");
+            extension.setUserObject(new byte[] { 0x01, 0x00, 0x00 });
+            extensions.appendChild(extension);
+        }
+        
+        metadata.setFromTree(FORMAT, root);
+        writer.writeToSequence(new IIOImage(image, null, metadata), null);
+    }
+    
+    @Override
+    public void close() throws IOException {
+        try {
+            writer.endWriteSequence();
+        } finally {
+            writer.dispose();
+            out.close();
+        }
+    }
+    
+    private static IIOMetadataNode child(IIOMetadataNode root, String name) {
+        for (int i = 0; i < root.getLength(); i++) {
+            if (root.item(i).getNodeName().equalsIgnoreCase(name)) {
+                return (IIOMetadataNode)root.item(i);
+            }
+        }
+        
+        IIOMetadataNode node = new IIOMetadataNode(name);
+        root.appendChild(node);
+        return node;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2010 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.sunclock;
+
+import static java.lang.Math.asin;
+import static java.lang.Math.cos;
+import static java.lang.Math.sin;
+import static java.lang.Math.toDegrees;
+import static java.lang.Math.toRadians;
+
+/**
+ * A {@link MaskEngine} that produces a smooth gradient from day to 
+ * night through civil, nautical and astronomical twilight.
+ * 
+ * The sine of the solar altitude is {@code sin(latitude) * sin(delta) 
+ * + cos(latitude) * cos(delta) * cos(H)}. The latitude terms only 
+ * change per row and the hour angle only per column, which leaves a 
+ * single multiply-add and a table lookup per pixel.
+ */
+class GradientMaskEngine implements MaskEngine {
+    
+    /**
+     * The solar altitudes (in degrees) and the opacity of the night 
+     * image at them: sunset, civil, nautical and astronomical twilight.
+     */
+    private static final double[] ALTITUDES = { -50.0/60.0, -6.0, -12.0, -18.0 };
+    
+    private static final int[] OPACITIES = { 0x00, 0x80, 0xD0, 0xFF };
+    
+    private static final int LUT_SIZE = 4096;
+    
+    private static final double MIN = sin(toRadians(ALTITUDES[ALTITUDES.length-1]));
+    
+    private static final double MAX = sin(toRadians(ALTITUDES[0]));
+    
+    private static final double SCALE = (LUT_SIZE - 1) / (MAX - MIN);
+    
+    /**
+     * The opacity of the night image by the sine of the solar altitude.
+     */
+    private static final byte[] LUT = new byte[LUT_SIZE];
+    
+    static {
+        for (int i = 0; i < LUT_SIZE; i++) {
+            double altitude = toDegrees(asin(MIN + i / SCALE));
+            
+            int k = 1;
+            while (k < ALTITUDES.length-1 && altitude < ALTITUDES[k]) {
+                k++;
+            }
+            
+            double f = (ALTITUDES[k-1] - altitude) / (ALTITUDES[k-1] - ALTITUDES[k]);
+            f = Math.max(0.0, Math.min(1.0, f));
+            
+            LUT[i] = (byte)Math.round(OPACITIES[k-1] + f * (OPACITIES[k] - OPACITIES[k-1]));
+        }
+    }
+    
+    /**
+     * The cosines of the hour angles of the columns. Every thread 
+     * (and so every band of a {@link ParallelMaskEngine}) reuses 
+     * its own buffer.
+     */
+    private final ThreadLocal<double[]> buffers = new ThreadLocal<double[]>();
+    
+    @Override
+    public boolean isGradient() {
+        return true;
+    }
+    
+    @Override
+    public void createMask(SolarPosition position, Region region, int w, int h, 
+            byte[] mask, int offset, int scanline, int from, int to) {
+        
+        double delta = position.delta;
+        double sinDelta = sin(delta);
+        double cosDelta = cos(delta);
+        
+        double[] cosH = buffers.get();
+        if (cosH == null || cosH.length < w) {
+            cosH = new double[w];
+            buffers.set(cosH);
+        }
+        
+        for (int j = 0; j < w; j++) {
+            double longitude = region.longitude(j, w);
+            double m0 = (position.alpha + longitude - position.theta) / 360.0;
+            cosH[j] = cos(2.0 * Math.PI * (position.ftime - m0));
+        }
+        
+        for (int y = from; y < to; y++) {
+            double latitude = toRadians(region.latitude(y, h));
+            double a = sin(latitude) * sinDelta - MIN;
+            double b = cos(latitude) * cosDelta;
+            
+            int row = offset + y * scanline;
+            for (int j = 0; j < w; j++) {
+                double value = (a + b * cosH[j]) * SCALE;
+                
+                if (value <= 0.0) {
+                    mask[row + j] = (byte)0xFF;
+                } else if (value >= LUT_SIZE - 1) {
+                    mask[row + j] = 0x00;
+                } else {
+                    mask[row + j] = LUT[(int)value];
+                }
+            }
+        }
+    }
+}
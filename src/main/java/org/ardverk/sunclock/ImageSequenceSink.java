@@ -0,0 +1,71 @@
+/*
+ * Copyright 2010 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.sunclock;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+import javax.imageio.ImageIO;
+
+/**
+ * A {@link FrameSink} that writes every frame into a numbered file.
+ */
+class ImageSequenceSink implements FrameSink {
+
+    private final String pattern;
+    
+    private final String format;
+    
+    /**
+     * Creates an {@link ImageSequenceSink} for a file name pattern such 
+     * as {@code frames/frame-%05d.png}. The format is derived from the 
+     * file extension.
+     */
+    public ImageSequenceSink(String pattern) {
+        if (pattern == null) {
+            throw new NullPointerException("pattern");
+        }
+        
+        int index = pattern.lastIndexOf('.');
+        if (index == -1) {
+            throw new IllegalArgumentException("pattern=" + pattern);
+        }
+        
+        this.pattern = pattern;
+        this.format = pattern.substring(index + 1).toLowerCase(Locale.US);
+    }
+    
+    @Override
+    public void write(int index, long time, BufferedImage image) throws IOException {
+        File file = new File(String.format(Locale.US, pattern, index));
+        
+        File parent = file.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Failed to create: " + parent);
+        }
+        
+        if (!ImageIO.write(image, format, file)) {
+            throw new IOException("No writer: " + format);
+        }
+    }
+    
+    @Override
+    public void close() {
+    }
+}
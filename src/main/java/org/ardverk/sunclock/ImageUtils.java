@@ -16,19 +16,36 @@
 
 package org.ardverk.sunclock;
 
-import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
 import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
 import java.awt.image.WritableRaster;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
+import java.util.concurrent.ForkJoinPool;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 
 class ImageUtils {
 
+    /**
+     * The number of pixels per band when an image is processed 
+     * on multiple cores.
+     */
+    private static final int PARALLEL_THRESHOLD = 512 * 512;
+    
+    private static final ReaderPool READERS = new ReaderPool(2);
+    
     private ImageUtils() {}
 
     /**
@@ -44,6 +61,16 @@ class ImageUtils {
      */
     public static BufferedImage brightnessToAlpha(
             Image image, int alpha) {
+        return brightnessToAlpha(image, alpha, false);
+    }
+    
+    /**
+     * Takes the image brightness and turns it into an alpha-channel.
+     * If {@code inPlace} is true a {@link BufferedImage#TYPE_INT_ARGB} 
+     * image is modified and returned instead of a copy.
+     */
+    public static BufferedImage brightnessToAlpha(
+            Image image, int alpha, boolean inPlace) {
         
         if (image == null) {
             throw new NullPointerException("image");
@@ -58,37 +85,82 @@ class ImageUtils {
         int width = src.getWidth();
         int height = src.getHeight();
         
-        int[] rgb = new int[width * height];
-        src.getRGB(0, 0, width, height, rgb, 0, width);
+        // The brightness of a pixel is max(r, g, b)/255 and the same 
+        // float arithmetic as with Color.RGBtoHSB() yields the same 
+        // alpha values.
+        int[] table = new int[256];
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (int)(((float)i / 255.0f) * alpha) << 24;
+        }
+        
+        if (inPlace) {
+            int[] pixels = getPackedPixels(src);
+            if (pixels == null || src.getType() != BufferedImage.TYPE_INT_ARGB) {
+                throw new IllegalArgumentException("type=" + src.getType());
+            }
+            
+            brightnessToAlpha(pixels, pixels, table);
+            return src;
+        }
         
         BufferedImage dst = new BufferedImage(
                 width, height, BufferedImage.TYPE_INT_ARGB);
+        int[] pixels = getPixels(dst);
+        
+        int[] rgb = getPackedPixels(src);
+        if (rgb == null) {
+            src.getRGB(0, 0, width, height, pixels, 0, width);
+            rgb = pixels;
+        }
+        
+        brightnessToAlpha(rgb, pixels, table);
+        return dst;
+    }
+    
+    /**
+     * Replaces the alpha values of the given pixels with the values 
+     * from the table. Large images are split into bands that are 
+     * processed on all cores.
+     */
+    private static void brightnessToAlpha(final int[] src, 
+            final int[] dst, final int[] table) {
+        
+        int bands = Math.min(Runtime.getRuntime().availableProcessors(), 
+                src.length / PARALLEL_THRESHOLD);
+        
+        ParallelUtils.forEachBand(ForkJoinPool.commonPool(), 
+                bands, 0, src.length, new ParallelUtils.Band() {
+            @Override
+            public void run(int from, int to) {
+                brightnessToAlpha(src, dst, table, from, to);
+            }
+        });
+    }
+    
+    private static void brightnessToAlpha(int[] src, int[] dst, 
+            int[] table, int from, int to) {
         
-        int value, r, g, b, a;
-        float[] hsb = new float[3];
+        int value, r, g, b, max;
         
-        for (int i = 0; i < rgb.length; i++) {
-            value = rgb[i];
+        for (int i = from; i < to; i++) {
+            value = src[i];
             
             // Get the RGB components
             r = (value >> 16) & 0xFF;
             g = (value >>  8) & 0xFF;
             b = (value      ) & 0xFF;
             
-            // Turn RGB into HSB
-            Color.RGBtoHSB(r, g, b, hsb);
-            
-            // Use the Brightness to compute the alpha value
-            a = (int)(hsb[2] * alpha);
+            // The brightness is the largest component
+            max = (r > g) ? r : g;
+            if (b > max) {
+                max = b;
+            }
             
             // Re-Create the pixel with the new alpha value
-            rgb[i] = (value & 0x00FFFFFF) | (a << 24);
+            dst[i] = (value & 0x00FFFFFF) | table[max];
         }
-        
-        dst.setRGB(0, 0, width, height, rgb, 0, width);
-        return dst;
     }
-
+    
     /**
      * Scales an image to the given dimensions.
      */
@@ -127,6 +199,140 @@ class ImageUtils {
         return dst;
     }
     
+    /**
+     * Resamples an image to the given dimensions and returns a 
+     * {@link BufferedImage#TYPE_INT_ARGB} image. 
+     * 
+     * Images are shrunk in bilinear steps of at most a factor of two, 
+     * which is fast and doesn't alias like a single step does.
+     */
+    public static BufferedImage resample(Image image, int w, int h) {
+        if (image == null) {
+            throw new NullPointerException("image");
+        }
+        
+        if (w <= 0) {
+            throw new IllegalArgumentException("width=" + w);
+        }
+        
+        if (h <= 0) {
+            throw new IllegalArgumentException("height=" + h);
+        }
+        
+        // Any type of image is drawn without converting it first
+        BufferedImage src = toBufferedImage(image);
+        
+        int width = src.getWidth();
+        int height = src.getHeight();
+        
+        if (width == w && height == h) {
+            return toIntARGB(src);
+        }
+        
+        do {
+            width = (width / 2 >= w) ? width / 2 : w;
+            height = (height / 2 >= h) ? height / 2 : h;
+            
+            BufferedImage dst = new BufferedImage(
+                    width, height, BufferedImage.TYPE_INT_ARGB);
+            
+            Graphics2D gfx = dst.createGraphics();
+            gfx.setRenderingHint(RenderingHints.KEY_INTERPOLATION, 
+                    RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            gfx.drawImage(src, 0, 0, width, height, null);
+            gfx.dispose();
+            
+            src = dst;
+        } while (width != w || height != h);
+        
+        return src;
+    }
+    
+    /**
+     * Resamples a window of an image to the given dimensions and returns 
+     * a {@link BufferedImage#TYPE_INT_ARGB} image. The edges of the window 
+     * are in pixels and may be fractional. Only the pixels of the window 
+     * are read.
+     * 
+     * @see #resample(Image, int, int)
+     */
+    public static BufferedImage resample(Image image, 
+            Rectangle2D window, int w, int h) {
+        
+        if (window == null) {
+            throw new NullPointerException("window");
+        }
+        
+        if (w <= 0) {
+            throw new IllegalArgumentException("width=" + w);
+        }
+        
+        if (h <= 0) {
+            throw new IllegalArgumentException("height=" + h);
+        }
+        
+        BufferedImage src = toBufferedImage(image);
+        
+        Rectangle bounds = window.getBounds().intersection(
+                new Rectangle(0, 0, src.getWidth(), src.getHeight()));
+        if (bounds.isEmpty() || window.isEmpty()) {
+            throw new IllegalArgumentException("window=" + window);
+        }
+        
+        if (bounds.equals(window) && bounds.x == 0 && bounds.y == 0 
+                && bounds.width == src.getWidth() 
+                && bounds.height == src.getHeight()) {
+            return resample(src, w, h);
+        }
+        
+        // The size of the pixels that surround the window at the 
+        // scale of the output
+        double sx = w / window.getWidth();
+        double sy = h / window.getHeight();
+        double tw = bounds.width * sx;
+        double th = bounds.height * sy;
+        
+        src = src.getSubimage(bounds.x, bounds.y, bounds.width, bounds.height);
+        
+        int width = bounds.width;
+        int height = bounds.height;
+        
+        // Shrink in steps of at most a factor of two
+        while (width / 2 >= tw || height / 2 >= th) {
+            width = (width / 2 >= tw) ? width / 2 : width;
+            height = (height / 2 >= th) ? height / 2 : height;
+            
+            BufferedImage dst = new BufferedImage(
+                    width, height, BufferedImage.TYPE_INT_ARGB);
+            
+            Graphics2D gfx = dst.createGraphics();
+            gfx.setRenderingHint(RenderingHints.KEY_INTERPOLATION, 
+                    RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            gfx.drawImage(src, 0, 0, width, height, null);
+            gfx.dispose();
+            
+            src = dst;
+        }
+        
+        // Map the window onto the output
+        double kx = (double)width / bounds.width;
+        double ky = (double)height / bounds.height;
+        
+        AffineTransform tx = AffineTransform.getScaleInstance(sx / kx, sy / ky);
+        tx.translate(-(window.getX() - bounds.x) * kx, 
+                -(window.getY() - bounds.y) * ky);
+        
+        BufferedImage dst = new BufferedImage(
+                w, h, BufferedImage.TYPE_INT_ARGB);
+        
+        Graphics2D gfx = dst.createGraphics();
+        gfx.setRenderingHint(RenderingHints.KEY_INTERPOLATION, 
+                RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        gfx.drawImage(src, tx, null);
+        gfx.dispose();
+        return dst;
+    }
+    
     /**
      * Takes an {@link Image} and adds an alpha-channel component to it.
      * In other words, a RGB image is turned into an ARGB image.
@@ -157,6 +363,161 @@ class ImageUtils {
         return dst;
     }
     
+    /**
+     * Takes an {@link Image} and turns it into a {@link BufferedImage}
+     * of type {@link BufferedImage#TYPE_INT_ARGB}.
+     */
+    public static BufferedImage toIntARGB(Image image) {
+        if (image == null) {
+            throw new NullPointerException("image");
+        }
+        
+        if (image instanceof BufferedImage && ((BufferedImage)image).getType() 
+                == BufferedImage.TYPE_INT_ARGB) {
+            return (BufferedImage)image;
+        }
+        
+        int width = image.getWidth(null);
+        int height = image.getHeight(null);
+        
+        BufferedImage dst = new BufferedImage(
+                width, height, BufferedImage.TYPE_INT_ARGB);
+        
+        Graphics2D gfx = dst.createGraphics();
+        gfx.drawImage(image, 0, 0, null);
+        gfx.dispose();
+        return dst;
+    }
+    
+    /**
+     * Takes an {@link Image} and turns it into a {@link BufferedImage} 
+     * of type {@link BufferedImage#TYPE_3BYTE_BGR} whose pixels are 
+     * the whole {@link DataBufferByte}. The alpha channel is dropped.
+     */
+    public static BufferedImage toBGR(Image image) {
+        if (image == null) {
+            throw new NullPointerException("image");
+        }
+        
+        if (image instanceof BufferedImage 
+                && getPackedBytes((BufferedImage)image) != null) {
+            return (BufferedImage)image;
+        }
+        
+        int width = image.getWidth(null);
+        int height = image.getHeight(null);
+        
+        BufferedImage dst = new BufferedImage(
+                width, height, BufferedImage.TYPE_3BYTE_BGR);
+        
+        Graphics2D gfx = dst.createGraphics();
+        gfx.drawImage(image, 0, 0, null);
+        gfx.dispose();
+        return dst;
+    }
+    
+    /**
+     * Returns a copy of the given image whose columns are rotated to 
+     * the left by the given number of pixels, so the column {@code shift} 
+     * becomes the first one. The pixels are copied without conversion.
+     */
+    public static BufferedImage roll(BufferedImage image, int shift) {
+        if (image == null) {
+            throw new NullPointerException("image");
+        }
+        
+        int width = image.getWidth();
+        if (shift < 0 || shift >= width) {
+            throw new IllegalArgumentException("shift=" + shift);
+        }
+        
+        BufferedImage dst = new BufferedImage(image.getColorModel(), 
+                image.getRaster().createCompatibleWritableRaster(), 
+                image.isAlphaPremultiplied(), null);
+        
+        WritableRaster raster = dst.getRaster();
+        raster.setRect(-shift, 0, image.getRaster());
+        raster.setRect(width - shift, 0, image.getRaster());
+        return dst;
+    }
+    
+    /**
+     * Returns the blue, green and red bytes of every pixel of a 
+     * {@link BufferedImage#TYPE_3BYTE_BGR} image that was returned 
+     * by {@link #toBGR(Image)}.
+     */
+    public static byte[] getBytes(BufferedImage image) {
+        byte[] pixels = getPackedBytes(image);
+        if (pixels == null) {
+            throw new IllegalArgumentException("type=" + image.getType());
+        }
+        return pixels;
+    }
+    
+    /**
+     * Returns the pixels of a {@link BufferedImage#TYPE_3BYTE_BGR} 
+     * image if they're the whole {@link DataBufferByte} and null 
+     * otherwise.
+     */
+    private static byte[] getPackedBytes(BufferedImage image) {
+        if (image.getType() != BufferedImage.TYPE_3BYTE_BGR) {
+            return null;
+        }
+        
+        WritableRaster raster = image.getRaster();
+        if (raster.getSampleModelTranslateX() != 0 
+                || raster.getSampleModelTranslateY() != 0
+                || raster.getDataBuffer().getOffset() != 0) {
+            return null;
+        }
+        
+        byte[] pixels = ((DataBufferByte)raster.getDataBuffer()).getData();
+        if (pixels.length != 3 * image.getWidth() * image.getHeight()) {
+            return null;
+        }
+        
+        return pixels;
+    }
+    
+    /**
+     * Returns the pixels of a {@link BufferedImage#TYPE_INT_ARGB} 
+     * or {@link BufferedImage#TYPE_INT_RGB} image.
+     */
+    public static int[] getPixels(BufferedImage image) {
+        if (image.getType() != BufferedImage.TYPE_INT_ARGB
+                && image.getType() != BufferedImage.TYPE_INT_RGB) {
+            throw new IllegalArgumentException("type=" + image.getType());
+        }
+        
+        return ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+    }
+    
+    /**
+     * Returns the pixels of a {@link BufferedImage#TYPE_INT_ARGB} or 
+     * {@link BufferedImage#TYPE_INT_RGB} image if the pixels are the 
+     * whole {@link DataBufferInt} and null otherwise.
+     */
+    private static int[] getPackedPixels(BufferedImage image) {
+        if (image.getType() != BufferedImage.TYPE_INT_ARGB
+                && image.getType() != BufferedImage.TYPE_INT_RGB) {
+            return null;
+        }
+        
+        WritableRaster raster = image.getRaster();
+        if (raster.getSampleModelTranslateX() != 0 
+                || raster.getSampleModelTranslateY() != 0
+                || raster.getDataBuffer().getOffset() != 0) {
+            return null;
+        }
+        
+        int[] pixels = ((DataBufferInt)raster.getDataBuffer()).getData();
+        if (pixels.length != image.getWidth() * image.getHeight()) {
+            return null;
+        }
+        
+        return pixels;
+    }
+    
     /**
      * Takes an {@link Image} and turns it into a {@link BufferedImage}.
      */
@@ -185,7 +546,96 @@ class ImageUtils {
      * Loads an image from the given {@link URL}.
      */
     public static BufferedImage load(URL url) throws IOException {
-        BufferedImage image = ImageIO.read(url);
+        // No subsampling
+        BufferedImage image = read(url, null, 
+                Integer.MAX_VALUE, Integer.MAX_VALUE);
         return createWithAlpha(image);
     }
+    
+    /**
+     * Loads an image from the given {@link URL} and returns it as a 
+     * {@link BufferedImage#TYPE_INT_ARGB} image of the given size.
+     * 
+     * @see #load(URL, Rectangle, int, int)
+     */
+    public static BufferedImage load(URL url, int w, int h) throws IOException {
+        return load(url, null, w, h);
+    }
+    
+    /**
+     * Loads a region of an image from the given {@link URL} and returns 
+     * it as a {@link BufferedImage#TYPE_INT_ARGB} image of the given size. 
+     * 
+     * Only the region is decoded (all of the image if it's null) and 
+     * every n-th pixel of it is kept if it's at least n times the given 
+     * size. The memory that is needed follows the size of the returned 
+     * image rather than the size of the encoded image.
+     */
+    public static BufferedImage load(URL url, Rectangle region, 
+            int w, int h) throws IOException {
+        
+        if (w <= 0) {
+            throw new IllegalArgumentException("width=" + w);
+        }
+        
+        if (h <= 0) {
+            throw new IllegalArgumentException("height=" + h);
+        }
+        
+        return resample(read(url, region, w, h), w, h);
+    }
+    
+    /**
+     * Decodes the given region of an image with the largest source 
+     * subsampling that yields at least the given size.
+     */
+    private static BufferedImage read(URL url, Rectangle region, 
+            int w, int h) throws IOException {
+        
+        if (url == null) {
+            throw new NullPointerException("url");
+        }
+        
+        InputStream in = url.openStream();
+        try {
+            ImageInputStream stream = ImageIO.createImageInputStream(in);
+            if (stream == null) {
+                throw new IOException("Unsupported input: " + url);
+            }
+            
+            try {
+                ImageReader reader = READERS.acquire(stream);
+                if (reader == null) {
+                    throw new IOException("Unsupported image: " + url);
+                }
+                
+                try {
+                    reader.setInput(stream, true, true);
+                    
+                    Rectangle bounds = new Rectangle(0, 0, 
+                            reader.getWidth(0), reader.getHeight(0));
+                    if (region != null) {
+                        bounds = bounds.intersection(region);
+                        if (bounds.isEmpty()) {
+                            throw new IllegalArgumentException("region=" + region);
+                        }
+                    }
+                    
+                    ImageReadParam param = reader.getDefaultReadParam();
+                    param.setSourceRegion(bounds);
+                    param.setSourceSubsampling(
+                            Math.max(1, bounds.width / w), 
+                            Math.max(1, bounds.height / h), 0, 0);
+                    
+                    return reader.read(0, param);
+                } finally {
+                    READERS.release(reader);
+                }
+            } finally {
+                stream.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
 }
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2010 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.sunclock;
+
+/**
+ * A day and night mask that is updated incrementally. Between two 
+ * updates only the pixels between the old and the new boundaries 
+ * are recomputed.
+ */
+class IncrementalMask {
+    
+    /**
+     * The default time jump above which the mask is rebuilt.
+     */
+    public static final long DEFAULT_MAX_DELTA = 60L * 60L * 1000L;
+    
+    private final int w;
+    
+    private final int h;
+    
+    private final byte[] mask;
+    
+    private final long maxDelta;
+    
+    private final int maxDirty;
+    
+    private int[] dirty = new int[1024];
+    
+    private int dirtyCount = 0;
+    
+    private Terminator below = null;
+    
+    private Terminator above = null;
+    
+    private long time;
+    
+    public IncrementalMask(int w, int h) {
+        this(w, h, DEFAULT_MAX_DELTA);
+    }
+    
+    public IncrementalMask(int w, int h, long maxDelta) {
+        if (w < 0) {
+            throw new IllegalArgumentException("width=" + w);
+        }
+        
+        if (h < 0) {
+            throw new IllegalArgumentException("height=" + h);
+        }
+        
+        if (maxDelta < 0L) {
+            throw new IllegalArgumentException("maxDelta=" + maxDelta);
+        }
+        
+        this.w = w;
+        this.h = h;
+        this.maxDelta = maxDelta;
+        this.maxDirty = (w * h) / 8;
+        this.mask = new byte[w * h];
+    }
+    
+    public int getWidth() {
+        return w;
+    }
+    
+    public int getHeight() {
+        return h;
+    }
+    
+    public long getTime() {
+        return time;
+    }
+    
+    /**
+     * Returns the memory of the mask and the dirty indices in bytes.
+     */
+    public long getSize() {
+        return mask.length + 4L * dirty.length;
+    }
+    
+    /**
+     * Returns the mask. The array is updated in place.
+     */
+    public byte[] getMask() {
+        return mask;
+    }
+    
+    /**
+     * Returns the indices of the pixels that were changed by the 
+     * last incremental {@link #update(long, MaskEngine)}.
+     * 
+     * @see #getDirtyCount()
+     */
+    public int[] getDirty() {
+        return dirty;
+    }
+    
+    /**
+     * Returns the number of valid elements in {@link #getDirty()}.
+     */
+    public int getDirtyCount() {
+        return dirtyCount;
+    }
+    
+    /**
+     * Updates the mask to the given time. Returns true if only the 
+     * pixels in {@link #getDirty()} changed and false if the whole 
+     * mask was rebuilt with the given {@link MaskEngine}. Masks of 
+     * gradient engines are always rebuilt.
+     */
+    public boolean update(long time, MaskEngine engine) {
+        if (engine == null) {
+            throw new NullPointerException("engine");
+        }
+        
+        SolarPosition position = ClockUtils.solarPosition(time);
+        
+        if (engine.isGradient()) {
+            // The boundaries of a gradient aren't tracked
+            engine.createMask(position, Region.WORLD, w, h, mask, 0, w, 0, h);
+            dirtyCount = 0;
+            
+            this.below = null;
+            this.above = null;
+            this.time = time;
+            
+            return false;
+        }
+        
+        Terminator below = new Terminator(position, 
+                ClockUtils.HORIZON_SEA_LEVEL, Region.WORLD, w, h);
+        Terminator above = new Terminator(position, 
+                ClockUtils.HORIZON_TWILIGHT, Region.WORLD, w, h);
+        
+        boolean incremental = this.below != null
+                && Math.abs(time - this.time) <= maxDelta
+                && update(below, above);
+        
+        if (!incremental) {
+            engine.createMask(position, Region.WORLD, w, h, mask, 0, w, 0, h);
+            dirtyCount = 0;
+        }
+        
+        this.below = below;
+        this.above = above;
+        this.time = time;
+        
+        return incremental;
+    }
+    
+    /**
+     * Recomputes the rows between the old and the new boundaries of 
+     * every column. Returns false if too many pixels changed.
+     */
+    private boolean update(Terminator below, Terminator above) {
+        dirtyCount = 0;
+        
+        for (int j = 0; j < w; j++) {
+            if (!update(this.below, below, below, above, j)
+                    || !update(this.above, above, below, above, j)) {
+                return false;
+            }
+        }
+        
+        return true;
+    }
+    
+    private boolean update(Terminator before, Terminator after, 
+            Terminator below, Terminator above, int j) {
+        
+        if (before.isInside(j) != after.isInside(j)) {
+            return update(0, h, below, above, j);
+        }
+        
+        int s0 = before.getStart(j);
+        int s1 = after.getStart(j);
+        int e0 = before.getEnd(j);
+        int e1 = after.getEnd(j);
+        
+        return update(Math.min(s0, s1), Math.max(s0, s1), below, above, j)
+                && update(Math.min(e0, e1), Math.max(e0, e1), below, above, j);
+    }
+    
+    private boolean update(int from, int to, 
+            Terminator below, Terminator above, int j) {
+        
+        for (int i = from; i < to; i++) {
+            int index = i * w + j;
+            byte value = (byte)ColumnMaskEngine.valueOf(below, above, i, j);
+            
+            if (mask[index] != value) {
+                if (dirtyCount >= maxDirty) {
+                    return false;
+                }
+                
+                mask[index] = value;
+                
+                if (dirtyCount >= dirty.length) {
+                    int[] copy = new int[Math.min(2 * dirty.length, maxDirty)];
+                    System.arraycopy(dirty, 0, copy, 0, dirtyCount);
+                    dirty = copy;
+                }
+                
+                dirty[dirtyCount++] = index;
+            }
+        }
+        
+        return true;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2010 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.sunclock;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock and allocation free histogram of latencies in nanoseconds 
+ * with one bucket per power of two.
+ */
+class LatencyHistogram {
+    
+    private static final int BUCKETS = 64;
+    
+    private static final int SUM = 64;
+    
+    private static final int MAX = 65;
+    
+    /**
+     * The buckets followed by the sum and the max. The count is 
+     * the sum of the buckets.
+     */
+    private final AtomicLongArray values = new AtomicLongArray(66);
+    
+    public void record(long nanos) {
+        if (nanos < 0L) {
+            nanos = 0L;
+        }
+        
+        values.incrementAndGet(64 - Long.numberOfLeadingZeros(nanos));
+        values.addAndGet(SUM, nanos);
+        
+        long max;
+        while ((max = values.get(MAX)) < nanos) {
+            if (values.compareAndSet(MAX, max, nanos)) {
+                break;
+            }
+        }
+    }
+    
+    public void reset() {
+        for (int i = 0; i < values.length(); i++) {
+            values.set(i, 0L);
+        }
+    }
+    
+    public LatencySnapshot getSnapshot() {
+        long[] buckets = new long[BUCKETS];
+        long count = 0L;
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = values.get(i);
+            count += buckets[i];
+        }
+        
+        long sum = values.get(SUM);
+        long max = values.get(MAX);
+        
+        return new LatencySnapshot(count, 
+                (count != 0L) ? sum / count : 0L, 
+                percentile(buckets, count, max, 0.50), 
+                percentile(buckets, count, max, 0.90), 
+                percentile(buckets, count, max, 0.99), 
+                max);
+    }
+    
+    /**
+     * Returns the upper bound of the bucket that contains the 
+     * given percentile.
+     */
+    private static long percentile(long[] buckets, 
+            long count, long max, double percentile) {
+        
+        long threshold = (long)Math.ceil(count * percentile);
+        long total = 0L;
+        
+        for (int i = 0; i < buckets.length; i++) {
+            total += buckets[i];
+            if (total >= threshold && total > 0L) {
+                long upper = (i < 63) ? (1L << i) - 1L : Long.MAX_VALUE;
+                return Math.min(upper, max);
+            }
+        }
+        
+        return max;
+    }
+}
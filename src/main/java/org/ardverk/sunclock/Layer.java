@@ -0,0 +1,95 @@
+/*
+ * Copyright 2010 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.sunclock;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * A {@link Layer} of a {@link Compositor}. A layer keeps its output 
+ * at the size it was last rendered at and renders it again only when 
+ * the size or its version changes.
+ * 
+ * Layers are not thread-safe and are meant to be rendered on the 
+ * event dispatch thread.
+ */
+abstract class Layer {
+    
+    private BufferedImage image = null;
+    
+    private long version = 0L;
+    
+    /**
+     * The number of times the layer was rendered.
+     */
+    private long serial = 0L;
+    
+    /**
+     * Returns the natural width of the layer.
+     */
+    public abstract int getWidth();
+    
+    /**
+     * Returns the natural height of the layer.
+     */
+    public abstract int getHeight();
+    
+    /**
+     * Returns a value that changes whenever the output of 
+     * the layer changes.
+     */
+    protected abstract long getVersion();
+    
+    /**
+     * Renders the layer into the given {@link BufferedImage#TYPE_INT_ARGB} 
+     * pixels. The pixels contain the previous output of the layer unless 
+     * the size has changed.
+     */
+    protected abstract void render(int width, int height, int[] pixels);
+    
+    /**
+     * Returns a value that changes whenever {@link #getImage(int, int)} 
+     * renders the layer. Unlike the version it only changes when the 
+     * output does, so it can't change between a render and the check 
+     * whether the output changed.
+     */
+    public long getSerial() {
+        return serial;
+    }
+    
+    /**
+     * Returns the output of the layer at the given size.
+     */
+    public BufferedImage getImage(int width, int height) {
+        long version = getVersion();
+        
+        boolean resized = (image == null || image.getWidth() != width 
+                || image.getHeight() != height);
+        
+        if (resized) {
+            image = new BufferedImage(width, height, 
+                    BufferedImage.TYPE_INT_ARGB);
+        }
+        
+        if (resized || this.version != version) {
+            render(width, height, ImageUtils.getPixels(image));
+            this.version = version;
+            serial++;
+        }
+        
+        return image;
+    }
+}
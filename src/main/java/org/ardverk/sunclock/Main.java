@@ -16,7 +16,9 @@
 
 package org.ardverk.sunclock;
 
+import java.awt.EventQueue;
 import java.awt.Image;
+import java.io.File;
 import java.io.IOException;
 import java.net.URL;
 import java.util.Calendar;
@@ -24,52 +26,110 @@ import java.util.GregorianCalendar;
 import java.util.Locale;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
 
+import javax.swing.Icon;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
+import javax.swing.SwingUtilities;
 
 public class Main {
     
     public static void main(String[] args) throws IOException {
         URL dayUrl = Main.class.getResource("world.jpg");
         URL nightUrl = Main.class.getResource("world_night.jpg");
-        //URL cloudsUrl = new URL("http://xplanet.sourceforge.net/clouds/clouds_2048.jpg");
         
-        Image dayImage = ImageUtils.load(dayUrl);
-        Image nightImage = ImageUtils.load(nightUrl);
-        //Image cloudsImage = ImageUtils.load(cloudsUrl);
+        // For example http://xplanet.sourceforge.net/clouds/clouds_2048.jpg
+        String clouds = System.getProperty(Clouds.PROPERTY);
         
-        final World world = new World(dayImage, nightImage);
-        //final Clouds clouds = new Clouds(cloudsImage, 0.4f);
+        TextureCache textures = null;
+        String cache = System.getProperty(TextureCache.PROPERTY);
+        if (cache != null) {
+            textures = new TextureCache(new File(cache));
+        }
+        
+        Image dayImage = load(textures, dayUrl);
+        Image nightImage = load(textures, nightUrl);
+        
+        RenderMetrics.register();
         
-        //final CompositeIcon composite 
-        //    = new CompositeIcon(world, clouds);
+        final World world = new World(dayImage, nightImage, 
+                System.currentTimeMillis(), 
+                Boolean.getBoolean(World.COMPACT_PROPERTY));
+        
+        // The layers are rendered on the event dispatch thread, 
+        // so only the map alone is rendered in the background
+        final Icon icon;
+        if (clouds != null) {
+            // Cloud maps change every few hours and aren't cached
+            Image cloudsImage = ImageUtils.load(new URL(clouds));
+            icon = new Compositor(new WorldLayer(world), 
+                    new Clouds(cloudsImage, 0.4f));
+        } else {
+            world.setAsynchronous(true);
+            icon = world;
+        }
         
+        // Swing components are only created and touched 
+        // on the event dispatch thread
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                show(world, icon);
+            }
+        });
+    }
+    
+    /**
+     * Shows the map in a window and starts repainting it.
+     */
+    private static void show(final World world, Icon icon) {
         final JFrame frame = new JFrame();
-        frame.getContentPane().add(new JLabel(world));
-        //frame.getContentPane().add(new JLabel(composite));
+        frame.getContentPane().add(new JLabel(icon));
         frame.setBounds(20, 30, 1000, 500);
         frame.setVisible(true);
         
         Runnable task = new Runnable() {
-            
-            private final Calendar calendar 
-                = GregorianCalendar.getInstance(Locale.US);
-            
             @Override
             public void run() {
-                world.setTime(calendar.getTimeInMillis());
-                frame.setTitle(toTimeString(calendar));
-                calendar.add(Calendar.MONTH, 1);
-                
+                world.setTime(System.currentTimeMillis());
                 frame.repaint();
             }
         };
         
+        // The title shows the minutes and has its own tick
+        Runnable title = new Runnable() {
+            @Override
+            public void run() {
+                Calendar calendar = GregorianCalendar.getInstance(Locale.US);
+                final String time = toTimeString(calendar);
+                
+                EventQueue.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        frame.setTitle(time);
+                    }
+                });
+            }
+        };
+        
+        // Repaint whenever the terminator moved by a pixel and 
+        // update the title at every full minute, but only while visible
         ScheduledExecutorService executor 
             = Executors.newSingleThreadScheduledExecutor();
-        executor.scheduleWithFixedDelay(task, 0, 3, TimeUnit.SECONDS);
+        new RepaintScheduler(frame.getContentPane(), 360.0, 
+                task, executor).start();
+        RepaintScheduler.fixedRate(frame.getContentPane(), 60L * 1000L, 
+                title, executor).start();
+    }
+    
+    /**
+     * Loads the image through the {@link TextureCache} if there is one.
+     */
+    private static Image load(TextureCache textures, URL url) throws IOException {
+        if (textures != null) {
+            return textures.load(url);
+        }
+        return ImageUtils.load(url);
     }
     
     private static String toTimeString(Calendar cal) {
@@ -78,14 +138,12 @@ public class Main {
         
         int hour = cal.get(Calendar.HOUR_OF_DAY);
         int minute = cal.get(Calendar.MINUTE);
-        int second = cal.get(Calendar.SECOND);
         
         StringBuilder buffer = new StringBuilder();
         
         buffer.append(month).append(" @ ");
         append(buffer, hour).append(":");
-        append(buffer, minute).append(":");
-        append(buffer, second);
+        append(buffer, minute);
         
         return buffer.toString();
     }
@@ -96,42 +154,4 @@ public class Main {
         }
         return buffer.append(value);
     }
-    
-    /*private static class CompositeIcon implements Icon {
-
-        private final Icon[] icons;
-        
-        public CompositeIcon(Icon... icons) {
-            if (icons == null) {
-                throw new NullPointerException("icons");
-            }
-            
-            this.icons = icons;
-        }
-        
-        @Override
-        public int getIconHeight() {
-            int height = 0;
-            for (Icon icon : icons) {
-                height = Math.max(icon.getIconHeight(), height);
-            }
-            return height;
-        }
-
-        @Override
-        public int getIconWidth() {
-            int width = 0;
-            for (Icon icon : icons) {
-                width = Math.max(icon.getIconWidth(), width);
-            }
-            return width;
-        }
-
-        @Override
-        public void paintIcon(Component c, Graphics g, int x, int y) {
-            for (Icon icon : icons) {
-                icon.paintIcon(c, g, x, y);
-            }
-        }
-    }*/
 }
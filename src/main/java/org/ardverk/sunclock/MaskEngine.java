@@ -0,0 +1,41 @@
+/*
+ * Copyright 2010 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.sunclock;
+
+/**
+ * A {@link MaskEngine} computes the day and night mask of the world.
+ * 
+ * Each pixel of the mask is either 0x00 (day), 0x80 (below the 
+ * horizon) or 0xFF (below the twilight horizon) unless the engine
+ * produces a gradient.
+ */
+interface MaskEngine {
+
+    /**
+     * Returns true if the mask is a gradient rather than the three 
+     * levels of the sunrise and sunset equations.
+     */
+    public boolean isGradient();
+    
+    /**
+     * Computes the rows {@code from} (inclusive) to {@code to} 
+     * (exclusive) of a {@code w*h} mask of the given {@link Region}. 
+     * The pixel (x, y) is written to {@code mask[offset + y*scanline + x]}.
+     */
+    public void createMask(SolarPosition position, Region region, int w, int h, 
+            byte[] mask, int offset, int scanline, int from, int to);
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2010 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.sunclock;
+
+/**
+ * A small pool of reusable mask buffers of a fixed size.
+ */
+class MaskPool {
+
+    private final int size;
+    
+    private final byte[][] masks;
+    
+    private int count = 0;
+    
+    public MaskPool(int size, int capacity) {
+        if (size < 0) {
+            throw new IllegalArgumentException("size=" + size);
+        }
+        
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity=" + capacity);
+        }
+        
+        this.size = size;
+        this.masks = new byte[capacity][];
+    }
+    
+    public int getSize() {
+        return size;
+    }
+    
+    /**
+     * Returns the memory of the buffers in the pool in bytes. 
+     * Buffers that are acquired aren't counted.
+     */
+    public synchronized long getPooledSize() {
+        return (long)count * size;
+    }
+    
+    /**
+     * Returns a pooled mask buffer or creates a new one if the
+     * pool is empty. The content of the buffer is undefined.
+     */
+    public synchronized byte[] acquire() {
+        if (count > 0) {
+            byte[] mask = masks[--count];
+            masks[count] = null;
+            return mask;
+        }
+        
+        return new byte[size];
+    }
+    
+    /**
+     * Returns the given mask buffer to the pool.
+     */
+    public synchronized void release(byte[] mask) {
+        if (mask == null) {
+            throw new NullPointerException("mask");
+        }
+        
+        if (mask.length != size) {
+            throw new IllegalArgumentException("length=" + mask.length);
+        }
+        
+        if (count < masks.length) {
+            masks[count++] = mask;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2010 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.sunclock;
+
+/**
+ * The measurements of the render pipeline.
+ * 
+ * @see RenderMetrics
+ */
+public enum Metric {
+    
+    /**
+     * Nanoseconds spent computing a day and night mask.
+     */
+    MASK(true),
+    
+    /**
+     * Nanoseconds spent blending the day and night textures.
+     */
+    BLEND(true),
+    
+    /**
+     * Nanoseconds spent scaling textures or composite images.
+     */
+    SCALE(true),
+    
+    /**
+     * Nanoseconds spent painting the {@link World}.
+     */
+    PAINT(true),
+    
+    /**
+     * Scaled day and night textures were found in the cache 
+     * of a {@link World}.
+     */
+    TEXTURE_CACHE_HIT(false),
+    
+    /**
+     * The day and night textures had to be scaled.
+     */
+    TEXTURE_CACHE_MISS(false),
+    
+    /**
+     * A scaled copy of a composite image was reused.
+     */
+    SCALED_IMAGE_CACHE_HIT(false),
+    
+    /**
+     * A scaled copy of a composite image had to be created.
+     */
+    SCALED_IMAGE_CACHE_MISS(false),
+    
+    /**
+     * A {@link ProjectionTable} was found in the cache 
+     * of a {@link Projection}.
+     */
+    PROJECTION_CACHE_HIT(false),
+    
+    /**
+     * A {@link ProjectionTable} had to be computed.
+     */
+    PROJECTION_CACHE_MISS(false),
+    
+    /**
+     * A composite image was found in the cache of 
+     * a {@link RenderService}.
+     */
+    COMPOSITE_CACHE_HIT(false),
+    
+    /**
+     * A {@link RenderService} had to render a composite image.
+     */
+    COMPOSITE_CACHE_MISS(false),
+    
+    /**
+     * A frame was requested or rendered but never painted.
+     */
+    DROPPED_FRAME(false);
+    
+    private final boolean latency;
+    
+    private Metric(boolean latency) {
+        this.latency = latency;
+    }
+    
+    /**
+     * Returns true if the values are latencies in nanoseconds and 
+     * false if they're counts.
+     */
+    public boolean isLatency() {
+        return latency;
+    }
+}
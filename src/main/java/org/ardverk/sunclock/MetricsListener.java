@@ -0,0 +1,32 @@
+/*
+ * Copyright 2010 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.sunclock;
+
+/**
+ * A {@link MetricsListener} is notified about every measurement 
+ * while the {@link RenderMetrics} are enabled. It's called on the 
+ * rendering and painting threads and should return quickly.
+ */
+public interface MetricsListener {
+    
+    /**
+     * Called with a latency in nanoseconds or a count.
+     * 
+     * @see Metric#isLatency()
+     */
+    public void record(Metric metric, long value);
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2010 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.sunclock;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A {@link MaskEngine} that splits the rows of the mask into bands 
+ * and computes them in parallel with another {@link MaskEngine}.
+ */
+class ParallelMaskEngine implements MaskEngine {
+
+    /**
+     * The default number of pixels below which the mask is 
+     * computed on the calling thread.
+     */
+    public static final int DEFAULT_THRESHOLD = 256 * 256;
+    
+    private final MaskEngine engine;
+    
+    private final ExecutorService executor;
+    
+    private final int parallelism;
+    
+    private final int threshold;
+    
+    public ParallelMaskEngine(MaskEngine engine) {
+        this(engine, ForkJoinPool.commonPool(), 
+                Runtime.getRuntime().availableProcessors(), 
+                DEFAULT_THRESHOLD);
+    }
+    
+    public ParallelMaskEngine(MaskEngine engine, 
+            ExecutorService executor, int parallelism, int threshold) {
+        
+        if (engine == null) {
+            throw new NullPointerException("engine");
+        }
+        
+        if (executor == null) {
+            throw new NullPointerException("executor");
+        }
+        
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism=" + parallelism);
+        }
+        
+        if (threshold < 0) {
+            throw new IllegalArgumentException("threshold=" + threshold);
+        }
+        
+        this.engine = engine;
+        this.executor = executor;
+        this.parallelism = parallelism;
+        this.threshold = threshold;
+    }
+    
+    public int getParallelism() {
+        return parallelism;
+    }
+    
+    public int getThreshold() {
+        return threshold;
+    }
+    
+    @Override
+    public boolean isGradient() {
+        return engine.isGradient();
+    }
+    
+    @Override
+    public void createMask(final SolarPosition position, final Region region, 
+            final int w, final int h, final byte[] mask, 
+            final int offset, final int scanline, int from, int to) {
+        
+        int rows = to - from;
+        int bands = Math.min(parallelism, rows);
+        
+        if (bands <= 1 || (long)w * rows < threshold) {
+            engine.createMask(position, region, w, h, 
+                    mask, offset, scanline, from, to);
+            return;
+        }
+        
+        ParallelUtils.forEachBand(executor, bands, from, to, 
+                new ParallelUtils.Band() {
+            @Override
+            public void run(int from, int to) {
+                engine.createMask(position, region, w, h, 
+                        mask, offset, scanline, from, to);
+            }
+        });
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2010 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.sunclock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Splits a range of rows or elements into bands that are processed 
+ * in parallel.
+ */
+class ParallelUtils {
+    
+    /**
+     * The work of a band.
+     */
+    public static interface Band {
+        
+        /**
+         * Processes the elements from (inclusive) to (exclusive).
+         */
+        public void run(int from, int to);
+    }
+    
+    private ParallelUtils() {}
+    
+    /**
+     * Splits the given range into the given number of bands of about 
+     * the same length and runs them with the given {@link ExecutorService}. 
+     * The first band runs on the calling thread, which returns once all 
+     * bands are done. An exception of a band is rethrown and the bands 
+     * that haven't started yet are cancelled.
+     */
+    public static void forEachBand(ExecutorService executor, 
+            int bands, int from, int to, final Band band) {
+        
+        int length = to - from;
+        bands = Math.min(bands, length);
+        
+        if (bands <= 1) {
+            band.run(from, to);
+            return;
+        }
+        
+        List<Future<?>> futures = new ArrayList<Future<?>>(bands-1);
+        
+        try {
+            for (int i = 1; i < bands; i++) {
+                final int start = from + (int)((long)length * i / bands);
+                final int end = from + (int)((long)length * (i+1) / bands);
+                
+                futures.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        band.run(start, end);
+                    }
+                }));
+            }
+            
+            band.run(from, from + length / bands);
+            
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            
+        } catch (InterruptedException err) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted", err);
+            
+        } catch (ExecutionException err) {
+            Throwable cause = err.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            } else if (cause instanceof Error) {
+                throw (Error)cause;
+            }
+            throw new IllegalStateException(cause);
+            
+        } finally {
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+}
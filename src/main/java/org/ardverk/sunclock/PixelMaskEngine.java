@@ -0,0 +1,109 @@
+/*
+ * Copyright 2010 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.sunclock;
+
+import static java.lang.Math.acos;
+import static java.lang.Math.cos;
+import static java.lang.Math.sin;
+import static java.lang.Math.toDegrees;
+import static java.lang.Math.toRadians;
+
+import java.util.Arrays;
+
+/**
+ * A {@link MaskEngine} that solves the sunrise and sunset equations
+ * for every single pixel of the mask.
+ */
+class PixelMaskEngine implements MaskEngine {
+
+    @Override
+    public boolean isGradient() {
+        return false;
+    }
+    
+    @Override
+    public void createMask(SolarPosition position, Region region, int w, int h, 
+            byte[] mask, int offset, int scanline, int from, int to) {
+        
+        double alpha = position.alpha;
+        double delta = position.delta;
+        double theta = position.theta;
+        double ftime = position.ftime;
+        
+        int i, j, k;
+        double latitude, longitude, cosH0, H0, m0, m1, m2;
+        double h0[] = { ClockUtils.HORIZON_SEA_LEVEL, ClockUtils.HORIZON_TWILIGHT };
+        
+        for (i = from; i < to; i++) {
+            latitude = region.latitude(i, h);
+            
+            int row = offset + i * scanline;
+            Arrays.fill(mask, row, row + w, (byte)0x00);
+            
+            for (j = 0; j < w; j++) {
+                
+                int x = j;
+                int y = i;
+                
+                for (k = 0; k < h0.length; k++) {
+                    cosH0 = (sin(toRadians(h0[k]))-sin(toRadians(latitude)) *
+                            sin(delta)) / (cos(toRadians(latitude))*cos(delta));
+                    
+                    if (cosH0 > 1.0) { // pixel is always below horizon so it's night
+                        if (k == 0) {
+                            ClockUtils.bitBelow(mask, offset, x, y, scanline);
+                        } else {
+                            ClockUtils.bitAbove(mask, offset, x, y, scanline);
+                        }
+                    } else if (cosH0 >= -1) {
+                        H0 = toDegrees(acos(cosH0));
+                        // the longitude is intervered since the shadow was going
+                        // the wrong way on the map :))
+                        
+                        longitude = region.longitude(j, w);
+                        m0 = (alpha + longitude - theta) / 360.0; // transit
+                        while (m0 > 1.0) m0 -= 1.0;
+                        while (m0 < 0.0) m0 += 1.0;
+                        m1 = m0 - H0/360.0; // sunrise
+                        
+                        while (m1 > 1.0) m1 -= 1.0;
+                        while (m1 < 0.0) m1 += 1.0;
+                        m2 = m0 + H0/360.0; // sunset
+                        
+                        while (m2 > 1.0) m2 -= 1.0;
+                        while (m2 < 0.0) m2 += 1.0;
+                        
+                        if (m1 < m2 && (ftime < m1 || ftime > m2)) {
+                            if (k == 0) {
+                                ClockUtils.bitBelow(mask, offset, x, y, scanline);
+                            } else {
+                                ClockUtils.bitAbove(mask, offset, x, y, scanline);
+                            }
+                            
+                        } else if (m1 > m2 && ftime > m2 && ftime < m1) {
+                            if (k == 0) {
+                                ClockUtils.bitBelow(mask, offset, x, y, scanline);
+                            } else {
+                                ClockUtils.bitAbove(mask, offset, x, y, scanline);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,342 @@
+/*
+ * Copyright 2010 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.sunclock;
+
+import static java.lang.Math.asin;
+import static java.lang.Math.atan;
+import static java.lang.Math.atan2;
+import static java.lang.Math.cos;
+import static java.lang.Math.log;
+import static java.lang.Math.sin;
+import static java.lang.Math.sinh;
+import static java.lang.Math.sqrt;
+import static java.lang.Math.tan;
+import static java.lang.Math.toDegrees;
+import static java.lang.Math.toRadians;
+
+/**
+ * A map projection of the whole world. The extent of a projection is 
+ * stretched over the width and the height of an image, so an image 
+ * with the {@link #getAspectRatio()} of the projection is undistorted.
+ * 
+ * The inverse projection of every pixel is computed once per size into 
+ * a {@link ProjectionTable} and a few of them are kept per instance, so 
+ * a {@link Projection} should be reused from frame to frame.
+ */
+public abstract class Projection {
+    
+    /**
+     * The plate carr&eacute;e of the day and night images.
+     */
+    public static final Projection EQUIRECTANGULAR = new Equirectangular();
+    
+    /**
+     * The Mercator projection from 85.05 degrees north to 85.05 
+     * degrees south.
+     */
+    public static final Projection MERCATOR = new Mercator();
+    
+    /**
+     * The Robinson projection.
+     */
+    public static final Projection ROBINSON = new Robinson();
+    
+    /**
+     * Returns an orthographic projection of the hemisphere that is 
+     * centered at the given latitude and longitude.
+     */
+    public static Projection orthographic(double latitude, double longitude) {
+        if (!(latitude >= -90.0 && latitude <= 90.0)) {
+            throw new IllegalArgumentException("latitude=" + latitude);
+        }
+        
+        if (!(longitude >= -180.0 && longitude <= 180.0)) {
+            throw new IllegalArgumentException("longitude=" + longitude);
+        }
+        
+        return new Orthographic(latitude, longitude);
+    }
+    
+    /**
+     * The most recently used tables.
+     */
+    private final RecentlyUsed<ProjectionTable> tables 
+        = new RecentlyUsed<ProjectionTable>(4);
+    
+    Projection() {}
+    
+    /**
+     * Returns the ratio of the width and the height of the projection.
+     */
+    public abstract double getAspectRatio();
+    
+    /**
+     * Returns true if the projection is the one of the day and night 
+     * images and the mask.
+     */
+    boolean isEquirectangular() {
+        return false;
+    }
+    
+    /**
+     * Computes the latitude and the longitude (in degrees) of the point 
+     * (u, v) of the projection. Both run from -1 to 1 over the extent of 
+     * the projection, u to the east and v to the north. Returns false if 
+     * the point isn't on the map.
+     */
+    abstract boolean inverse(double u, double v, double[] latLon);
+    
+    /**
+     * Computes the point (u, v) of the given latitude and longitude (in 
+     * degrees). It's the inverse of {@link #inverse(double, double, 
+     * double[])}. Returns false if the point isn't on the map.
+     */
+    abstract boolean forward(double latitude, double longitude, double[] uv);
+    
+    /**
+     * Returns the {@link ProjectionTable} of this projection at the 
+     * given size.
+     */
+    ProjectionTable getTable(final int width, final int height) {
+        ProjectionTable table = tables.get(new RecentlyUsed.Matcher<ProjectionTable>() {
+            @Override
+            public boolean matches(ProjectionTable value) {
+                return value.isSize(width, height);
+            }
+        });
+        
+        if (table != null) {
+            RenderMetrics.increment(Metric.PROJECTION_CACHE_HIT);
+            return table;
+        }
+        
+        RenderMetrics.increment(Metric.PROJECTION_CACHE_MISS);
+        table = new ProjectionTable(this, width, height);
+        tables.add(table);
+        return table;
+    }
+    
+    private static class Equirectangular extends Projection {
+        
+        @Override
+        public double getAspectRatio() {
+            return 2.0;
+        }
+        
+        @Override
+        boolean isEquirectangular() {
+            return true;
+        }
+        
+        @Override
+        boolean inverse(double u, double v, double[] latLon) {
+            latLon[0] = 90.0 * v;
+            latLon[1] = 180.0 * u;
+            return true;
+        }
+        
+        @Override
+        boolean forward(double latitude, double longitude, double[] uv) {
+            uv[0] = longitude / 180.0;
+            uv[1] = latitude / 90.0;
+            return true;
+        }
+        
+        @Override
+        public String toString() {
+            return "Equirectangular";
+        }
+    }
+    
+    private static class Mercator extends Projection {
+        
+        @Override
+        public double getAspectRatio() {
+            return 1.0;
+        }
+        
+        @Override
+        boolean inverse(double u, double v, double[] latLon) {
+            latLon[0] = toDegrees(atan(sinh(Math.PI * v)));
+            latLon[1] = 180.0 * u;
+            return true;
+        }
+        
+        @Override
+        boolean forward(double latitude, double longitude, double[] uv) {
+            double v = log(tan(Math.PI / 4.0 + toRadians(latitude) / 2.0)) / Math.PI;
+            if (!(v >= -1.0 && v <= 1.0)) {
+                return false;
+            }
+            
+            uv[0] = longitude / 180.0;
+            uv[1] = v;
+            return true;
+        }
+        
+        @Override
+        public String toString() {
+            return "Mercator";
+        }
+    }
+    
+    /**
+     * The Robinson projection is defined by a table of the length of 
+     * the parallels and their distance from the equator every five 
+     * degrees. The table is interpolated linearly.
+     */
+    private static class Robinson extends Projection {
+        
+        private static final double[] X = {
+            1.0000, 0.9986, 0.9954, 0.9900, 0.9822, 0.9730, 0.9600,
+            0.9427, 0.9216, 0.8962, 0.8679, 0.8350, 0.7986, 0.7597,
+            0.7186, 0.6732, 0.6213, 0.5722, 0.5322
+        };
+        
+        private static final double[] Y = {
+            0.0000, 0.0620, 0.1240, 0.1860, 0.2480, 0.3100, 0.3720,
+            0.4340, 0.4958, 0.5571, 0.6176, 0.6769, 0.7346, 0.7903,
+            0.8435, 0.8936, 0.9394, 0.9761, 1.0000
+        };
+        
+        private static final double WIDTH = 0.8487 * Math.PI;
+        
+        private static final double HEIGHT = 1.3523;
+        
+        @Override
+        public double getAspectRatio() {
+            return WIDTH / HEIGHT;
+        }
+        
+        @Override
+        boolean inverse(double u, double v, double[] latLon) {
+            double y = Math.abs(v);
+            
+            int i = 0;
+            while (i < Y.length-2 && Y[i+1] < y) {
+                i++;
+            }
+            
+            double f = (y - Y[i]) / (Y[i+1] - Y[i]);
+            double x = X[i] + f * (X[i+1] - X[i]);
+            
+            double longitude = 180.0 * u / x;
+            if (longitude < -180.0 || longitude > 180.0) {
+                return false;
+            }
+            
+            double latitude = 5.0 * (i + f);
+            latLon[0] = (v < 0.0) ? -latitude : latitude;
+            latLon[1] = longitude;
+            return true;
+        }
+        
+        @Override
+        boolean forward(double latitude, double longitude, double[] uv) {
+            double a = Math.abs(latitude) / 5.0;
+            int i = Math.min((int)a, X.length-2);
+            double f = a - i;
+            
+            double x = X[i] + f * (X[i+1] - X[i]);
+            double y = Y[i] + f * (Y[i+1] - Y[i]);
+            
+            uv[0] = x * longitude / 180.0;
+            uv[1] = (latitude < 0.0) ? -y : y;
+            return true;
+        }
+        
+        @Override
+        public String toString() {
+            return "Robinson";
+        }
+    }
+    
+    private static class Orthographic extends Projection {
+        
+        private final double latitude;
+        
+        private final double longitude;
+        
+        private final double sinLatitude;
+        
+        private final double cosLatitude;
+        
+        public Orthographic(double latitude, double longitude) {
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.sinLatitude = sin(toRadians(latitude));
+            this.cosLatitude = cos(toRadians(latitude));
+        }
+        
+        @Override
+        public double getAspectRatio() {
+            return 1.0;
+        }
+        
+        @Override
+        boolean inverse(double u, double v, double[] latLon) {
+            double rho = sqrt(u*u + v*v);
+            if (rho > 1.0) {
+                return false;
+            }
+            
+            if (rho == 0.0) {
+                latLon[0] = latitude;
+                latLon[1] = longitude;
+                return true;
+            }
+            
+            double c = asin(rho);
+            double sinC = sin(c);
+            double cosC = cos(c);
+            
+            latLon[0] = toDegrees(asin(cosC * sinLatitude 
+                    + v * sinC * cosLatitude / rho));
+            
+            double lon = longitude + toDegrees(atan2(u * sinC, 
+                    rho * cosC * cosLatitude - v * sinC * sinLatitude));
+            
+            while (lon >= 180.0) lon -= 360.0;
+            while (lon < -180.0) lon += 360.0;
+            latLon[1] = lon;
+            return true;
+        }
+        
+        @Override
+        boolean forward(double latitude, double longitude, double[] uv) {
+            double phi = toRadians(latitude);
+            double lambda = toRadians(longitude - this.longitude);
+            
+            double cosC = sinLatitude * sin(phi) 
+                    + cosLatitude * cos(phi) * cos(lambda);
+            if (cosC < 0.0) {
+                return false;
+            }
+            
+            uv[0] = cos(phi) * sin(lambda);
+            uv[1] = cosLatitude * sin(phi) 
+                    - sinLatitude * cos(phi) * cos(lambda);
+            return true;
+        }
+        
+        @Override
+        public String toString() {
+            return "Orthographic[latitude=" + latitude 
+                    + ", longitude=" + longitude + "]";
+        }
+    }
+}
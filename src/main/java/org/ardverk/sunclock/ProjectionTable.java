@@ -0,0 +1,254 @@
+/*
+ * Copyright 2010 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.sunclock;
+
+/**
+ * The inverse of a {@link Projection} at a certain size. Every pixel of 
+ * the projected image is mapped to a pixel of an equirectangular grid, 
+ * so the mask and the day and night textures are computed at the size 
+ * of the grid and sampled through the table. The index of a pixel is 
+ * its latitude and longitude quantized to the grid (or -1 if the pixel 
+ * isn't on the map).
+ * 
+ * The grid only covers the {@link Region} that is visible in the 
+ * projected image (rounded out to whole degrees, and across the 180th 
+ * meridian if that's smaller) and has about as many pixels as the 
+ * image has on the map. A hemisphere of an orthographic 
+ * projection is therefore computed on a grid of half the world and not 
+ * of all of it. The grid has the same resolution everywhere, so 
+ * projections that stretch the poles (like the Mercator projection) 
+ * are blocky at high latitudes. A grid sized for the largest scale of 
+ * the projection would be many times bigger for little visible gain.
+ */
+class ProjectionTable {
+    
+    private final int width;
+    
+    private final int height;
+    
+    private final Region region;
+    
+    private final int gridWidth;
+    
+    private final int gridHeight;
+    
+    private final int[] index;
+    
+    private final MaskPool masks;
+    
+    public ProjectionTable(Projection projection, int width, int height) {
+        if (width <= 0) {
+            throw new IllegalArgumentException("width=" + width);
+        }
+        
+        if (height <= 0) {
+            throw new IllegalArgumentException("height=" + height);
+        }
+        
+        this.width = width;
+        this.height = height;
+        
+        // The extent of the pixels that are on the map and 
+        // the degrees of longitude that they cover
+        double north = -90.0;
+        double south = 90.0;
+        boolean[] degrees = new boolean[360];
+        long visible = 0L;
+        
+        double[] latLon = new double[2];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if (inverse(projection, x, y, latLon)) {
+                    north = Math.max(north, latLon[0]);
+                    south = Math.min(south, latLon[0]);
+                    degrees[Math.min(359, (int)(latLon[1] + 180.0))] = true;
+                    visible++;
+                }
+            }
+        }
+        
+        if (visible == 0L) {
+            this.region = Region.WORLD;
+            this.gridWidth = 1;
+            this.gridHeight = 1;
+        } else {
+            this.region = new Region(
+                    Math.min(90.0, Math.floor(north) + 1.0), 
+                    Math.max(-90.0, Math.ceil(south) - 1.0), 
+                    getWest(degrees), getEast(degrees));
+            
+            // Square cells in degrees and about one cell per 
+            // pixel on the map
+            double aspectRatio = region.getLongitudes() 
+                    / (region.getNorth() - region.getSouth());
+            this.gridHeight = (int)Math.max(1L, 
+                    Math.round(Math.sqrt(visible / aspectRatio)));
+            this.gridWidth = (int)Math.max(1L, 
+                    Math.round(gridHeight * aspectRatio));
+        }
+        
+        this.index = new int[width * height];
+        this.masks = new MaskPool(gridWidth * gridHeight, 2);
+        
+        double north0 = region.getNorth();
+        double west0 = region.getWest();
+        double latitudes = north0 - region.getSouth();
+        double longitudes = region.getLongitudes();
+        
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int value = -1;
+                if (inverse(projection, x, y, latLon)) {
+                    // Longitudes past the 180th meridian continue east
+                    double longitude = latLon[1] - west0;
+                    if (longitude < 0.0) {
+                        longitude += 360.0;
+                    }
+                    
+                    int gx = (int)(longitude / longitudes * gridWidth);
+                    int gy = (int)((north0 - latLon[0]) / latitudes * gridHeight);
+                    
+                    gx = Math.max(0, Math.min(gridWidth-1, gx));
+                    gy = Math.max(0, Math.min(gridHeight-1, gy));
+                    value = gy * gridWidth + gx;
+                }
+                
+                index[y * width + x] = value;
+            }
+        }
+    }
+    
+    /**
+     * Returns the west edge of the smallest range of longitudes that 
+     * covers the given degrees, which is the first degree after the 
+     * largest gap.
+     */
+    private static double getWest(boolean[] degrees) {
+        int gap = getGap(degrees);
+        if (gap == -1) {
+            return -180.0;
+        }
+        
+        int length = getGapLength(degrees, gap);
+        return (gap + length) % 360 - 180.0;
+    }
+    
+    /**
+     * Returns the east edge of the smallest range of longitudes that 
+     * covers the given degrees, which is the start of the largest gap.
+     */
+    private static double getEast(boolean[] degrees) {
+        int gap = getGap(degrees);
+        if (gap == -1 || gap == 0) {
+            return 180.0;
+        }
+        return gap - 180.0;
+    }
+    
+    /**
+     * Returns the first degree of the longest run of degrees that 
+     * aren't covered (which may wrap around) or -1 if all are.
+     */
+    private static int getGap(boolean[] degrees) {
+        int gap = -1;
+        int longest = 0;
+        
+        for (int i = 0; i < degrees.length; i++) {
+            // Only at the start of a run
+            if (!degrees[i] && degrees[(i + degrees.length - 1) % degrees.length]) {
+                int length = getGapLength(degrees, i);
+                if (length > longest) {
+                    gap = i;
+                    longest = length;
+                }
+            }
+        }
+        return gap;
+    }
+    
+    private static int getGapLength(boolean[] degrees, int start) {
+        int length = 0;
+        while (length < degrees.length 
+                && !degrees[(start + length) % degrees.length]) {
+            length++;
+        }
+        return length;
+    }
+    
+    /**
+     * Computes the latitude and the longitude of the center of 
+     * the pixel (x, y).
+     */
+    private boolean inverse(Projection projection, 
+            int x, int y, double[] latLon) {
+        double u = 2.0 * (x + 0.5) / width - 1.0;
+        double v = 1.0 - 2.0 * (y + 0.5) / height;
+        return projection.inverse(u, v, latLon);
+    }
+    
+    public int getWidth() {
+        return width;
+    }
+    
+    public int getHeight() {
+        return height;
+    }
+    
+    /**
+     * Returns the {@link Region} that is covered by the grid.
+     */
+    public Region getRegion() {
+        return region;
+    }
+    
+    public int getGridWidth() {
+        return gridWidth;
+    }
+    
+    public int getGridHeight() {
+        return gridHeight;
+    }
+    
+    public boolean isSize(int width, int height) {
+        return this.width == width && this.height == height;
+    }
+    
+    /**
+     * Returns the pool of the masks of the grid.
+     */
+    public MaskPool getMasks() {
+        return masks;
+    }
+    
+    /**
+     * Returns the index of every pixel in the grid or -1.
+     */
+    public int[] getIndex() {
+        return index;
+    }
+    
+    /**
+     * Samples the given mask of the grid into the given mask of the 
+     * projected image. Pixels that aren't on the map are set to 0x00.
+     */
+    public void sample(byte[] src, byte[] dst) {
+        for (int i = 0; i < index.length; i++) {
+            int k = index[i];
+            dst[i] = (k != -1) ? src[k] : 0x00;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2010 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.sunclock;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.imageio.ImageReader;
+import javax.imageio.spi.IIORegistry;
+import javax.imageio.spi.ImageReaderSpi;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * A pool of {@link ImageReader}s that are reused across loads 
+ * instead of creating a new reader for every image.
+ */
+class ReaderPool {
+    
+    private final Map<ImageReaderSpi, List<ImageReader>> readers 
+        = new HashMap<ImageReaderSpi, List<ImageReader>>();
+    
+    private final int capacity;
+    
+    public ReaderPool(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity=" + capacity);
+        }
+        
+        this.capacity = capacity;
+    }
+    
+    /**
+     * Returns a pooled or new {@link ImageReader} that can decode 
+     * the given input or null if there is none.
+     */
+    public ImageReader acquire(ImageInputStream in) throws IOException {
+        Iterator<ImageReaderSpi> it = IIORegistry.getDefaultInstance()
+                .getServiceProviders(ImageReaderSpi.class, true);
+        
+        while (it.hasNext()) {
+            ImageReaderSpi spi = it.next();
+            if (!spi.canDecodeInput(in)) {
+                continue;
+            }
+            
+            synchronized (readers) {
+                List<ImageReader> list = readers.get(spi);
+                if (list != null && !list.isEmpty()) {
+                    return list.remove(list.size() - 1);
+                }
+            }
+            
+            return spi.createReaderInstance();
+        }
+        
+        return null;
+    }
+    
+    /**
+     * Resets the given {@link ImageReader} and returns it to the pool.
+     */
+    public void release(ImageReader reader) {
+        if (reader == null) {
+            throw new NullPointerException("reader");
+        }
+        
+        reader.reset();
+        
+        ImageReaderSpi spi = reader.getOriginatingProvider();
+        if (spi == null) {
+            reader.dispose();
+            return;
+        }
+        
+        synchronized (readers) {
+            List<ImageReader> list = readers.get(spi);
+            if (list == null) {
+                list = new ArrayList<ImageReader>();
+                readers.put(spi, list);
+            }
+            
+            if (list.size() < capacity) {
+                list.add(reader);
+                return;
+            }
+        }
+        
+        reader.dispose();
+    }
+}
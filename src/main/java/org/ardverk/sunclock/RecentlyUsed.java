@@ -0,0 +1,112 @@
+/*
+ * Copyright 2010 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.sunclock;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A small thread-safe list of the most recently used values. The 
+ * values are searched linearly, so the capacity should be small.
+ */
+class RecentlyUsed<V> {
+    
+    /**
+     * Selects the value that is looked up.
+     */
+    public static interface Matcher<V> {
+        
+        /**
+         * Returns true if the given value is the one that is looked up.
+         */
+        public boolean matches(V value);
+    }
+    
+    private final int capacity;
+    
+    /**
+     * The values, most recent first.
+     */
+    private final List<V> values;
+    
+    public RecentlyUsed(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity=" + capacity);
+        }
+        
+        this.capacity = capacity;
+        this.values = new ArrayList<V>(capacity);
+    }
+    
+    public int getCapacity() {
+        return capacity;
+    }
+    
+    /**
+     * Returns the first value that matches and moves it to the 
+     * front or returns null.
+     */
+    public synchronized V get(Matcher<? super V> matcher) {
+        for (int i = 0; i < values.size(); i++) {
+            V value = values.get(i);
+            if (matcher.matches(value)) {
+                if (i > 0) {
+                    values.remove(i);
+                    values.add(0, value);
+                }
+                return value;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Adds the given value to the front and returns the least 
+     * recently used value if it was evicted or null.
+     */
+    public synchronized V add(V value) {
+        if (value == null) {
+            throw new NullPointerException("value");
+        }
+        
+        V evicted = null;
+        if (values.size() >= capacity) {
+            evicted = values.remove(values.size()-1);
+        }
+        
+        values.add(0, value);
+        return evicted;
+    }
+    
+    /**
+     * Removes the given value.
+     */
+    public synchronized boolean remove(V value) {
+        return values.remove(value);
+    }
+    
+    /**
+     * Returns a copy of the values, most recent first.
+     */
+    public synchronized List<V> values() {
+        return new ArrayList<V>(values);
+    }
+    
+    public synchronized void clear() {
+        values.clear();
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2010 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.sunclock;
+
+/**
+ * A geographic bounding box of a map in degrees. North and east are 
+ * positive and the box is mapped linearly onto the image: the west edge 
+ * to the left and the north edge to the top.
+ * 
+ * A box whose west edge is east of its east edge crosses the 180th 
+ * meridian, like the Pacific from 120 to -60 degrees. Its longitudes 
+ * continue past 180 degrees to the east edge.
+ * 
+ * The sunrise and sunset equations count longitudes positive to the 
+ * west, so the computation works with the negated longitudes of the 
+ * image. {@link #latitude(double, int)} and {@link #longitude(double, int)} 
+ * return the terms of the equations for the rows and the columns.
+ */
+public final class Region {
+    
+    /**
+     * The whole world from 90 to -90 degrees latitude 
+     * and from -180 to 180 degrees longitude.
+     */
+    public static final Region WORLD = new Region(90.0, -90.0, -180.0, 180.0);
+    
+    private final double north;
+    
+    private final double south;
+    
+    private final double west;
+    
+    private final double east;
+    
+    public Region(double north, double south, double west, double east) {
+        if (!(north <= 90.0 && south >= -90.0 && south < north)) {
+            throw new IllegalArgumentException(
+                    "north=" + north + ", south=" + south);
+        }
+        
+        // From 180 to -180 degrees would be empty
+        if (!(west >= -180.0 && west <= 180.0 && east >= -180.0 
+                && east <= 180.0 && west != east 
+                && (west < east || east - west + 360.0 > 0.0))) {
+            throw new IllegalArgumentException(
+                    "west=" + west + ", east=" + east);
+        }
+        
+        this.north = north;
+        this.south = south;
+        this.west = west;
+        this.east = east;
+    }
+    
+    public double getNorth() {
+        return north;
+    }
+    
+    public double getSouth() {
+        return south;
+    }
+    
+    public double getWest() {
+        return west;
+    }
+    
+    public double getEast() {
+        return east;
+    }
+    
+    /**
+     * Returns true if the box crosses the 180th meridian.
+     */
+    public boolean isWrapped() {
+        return west > east;
+    }
+    
+    /**
+     * Returns the width of the box in degrees of longitude.
+     */
+    public double getLongitudes() {
+        return isWrapped() ? east - west + 360.0 : east - west;
+    }
+    
+    /**
+     * Returns true if this is the whole world.
+     */
+    public boolean isWorld() {
+        return equals(WORLD);
+    }
+    
+    /**
+     * Returns the latitude of row i (counted from the top of the 
+     * image) of a mask with the given height.
+     */
+    double latitude(double i, int h) {
+        return north - i * (north - south) / (double)h;
+    }
+    
+    /**
+     * Returns the longitude of column j of a mask with the given 
+     * width as it's used by the sunrise and sunset equations.
+     */
+    double longitude(double j, int w) {
+        return -west - j * getLongitudes() / (double)w;
+    }
+    
+    @Override
+    public int hashCode() {
+        long bits = Double.doubleToLongBits(north);
+        bits = 31L * bits + Double.doubleToLongBits(south);
+        bits = 31L * bits + Double.doubleToLongBits(west);
+        bits = 31L * bits + Double.doubleToLongBits(east);
+        return (int)(bits ^ (bits >>> 32));
+    }
+    
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        } else if (!(o instanceof Region)) {
+            return false;
+        }
+        
+        Region other = (Region)o;
+        return north == other.north && south == other.south 
+                && west == other.west && east == other.east;
+    }
+    
+    @Override
+    public String toString() {
+        return "north=" + north + ", south=" + south 
+                + ", west=" + west + ", east=" + east;
+    }
+}
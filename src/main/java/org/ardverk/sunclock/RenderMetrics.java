@@ -0,0 +1,263 @@
+/*
+ * Copyright 2010 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.sunclock;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Latency histograms and counters of the render pipeline.
+ * 
+ * The metrics are disabled by default unless the system property 
+ * {@value #PROPERTY} is true. While disabled {@link #start()} and 
+ * {@link #stop(Metric, long)} do nothing but read a volatile field. 
+ * Recording a value never allocates any memory.
+ * 
+ * <pre>
+ * long start = RenderMetrics.start();
+ * ...
+ * RenderMetrics.stop(Metric.MASK, start);
+ * </pre>
+ */
+public final class RenderMetrics implements RenderMetricsMXBean {
+    
+    /**
+     * The system property that enables the metrics on startup.
+     */
+    public static final String PROPERTY = "org.ardverk.sunclock.metrics";
+    
+    /**
+     * The {@link ObjectName} of the MBean.
+     */
+    public static final String NAME = "org.ardverk.sunclock:type=RenderMetrics";
+    
+    private static final MetricsListener[] EMPTY = new MetricsListener[0];
+    
+    private static final RenderMetrics INSTANCE = new RenderMetrics();
+    
+    private static volatile boolean enabled = Boolean.getBoolean(PROPERTY);
+    
+    private static volatile MetricsListener[] listeners = EMPTY;
+    
+    public static RenderMetrics getInstance() {
+        return INSTANCE;
+    }
+    
+    /**
+     * Registers the {@link RenderMetrics} with the platform 
+     * {@link MBeanServer} unless they're registered already.
+     */
+    public static void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(INSTANCE, new ObjectName(NAME));
+        } catch (InstanceAlreadyExistsException ignore) {
+        } catch (JMException err) {
+            throw new IllegalStateException(err);
+        }
+    }
+    
+    public static synchronized void addListener(MetricsListener listener) {
+        if (listener == null) {
+            throw new NullPointerException("listener");
+        }
+        
+        MetricsListener[] copy = new MetricsListener[listeners.length + 1];
+        System.arraycopy(listeners, 0, copy, 0, listeners.length);
+        copy[listeners.length] = listener;
+        listeners = copy;
+    }
+    
+    public static synchronized void removeListener(MetricsListener listener) {
+        for (int i = 0; i < listeners.length; i++) {
+            if (listeners[i] == listener) {
+                MetricsListener[] copy = new MetricsListener[listeners.length - 1];
+                System.arraycopy(listeners, 0, copy, 0, i);
+                System.arraycopy(listeners, i+1, copy, i, copy.length - i);
+                listeners = copy;
+                return;
+            }
+        }
+    }
+    
+    /**
+     * Returns the current time in nanoseconds or zero if the 
+     * metrics are disabled.
+     */
+    static long start() {
+        return enabled ? System.nanoTime() : 0L;
+    }
+    
+    /**
+     * Records the time since the given {@link #start()} unless 
+     * the metrics were disabled at the start.
+     */
+    static void stop(Metric metric, long start) {
+        if (start != 0L) {
+            INSTANCE.record(metric, System.nanoTime() - start);
+        }
+    }
+    
+    /**
+     * Increments the given counter.
+     */
+    static void increment(Metric metric) {
+        if (enabled) {
+            INSTANCE.record(metric, 1L);
+        }
+    }
+    
+    private final LatencyHistogram[] histograms 
+        = new LatencyHistogram[Metric.values().length];
+    
+    private final AtomicLongArray counters 
+        = new AtomicLongArray(Metric.values().length);
+    
+    private RenderMetrics() {
+        for (Metric metric : Metric.values()) {
+            if (metric.isLatency()) {
+                histograms[metric.ordinal()] = new LatencyHistogram();
+            }
+        }
+    }
+    
+    private void record(Metric metric, long value) {
+        if (metric.isLatency()) {
+            histograms[metric.ordinal()].record(value);
+        } else {
+            counters.addAndGet(metric.ordinal(), value);
+        }
+        
+        MetricsListener[] listeners = RenderMetrics.listeners;
+        for (int i = 0; i < listeners.length; i++) {
+            listeners[i].record(metric, value);
+        }
+    }
+    
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+    
+    @Override
+    public void setEnabled(boolean enabled) {
+        RenderMetrics.enabled = enabled;
+    }
+    
+    /**
+     * Returns a snapshot of the given latency histogram.
+     */
+    public LatencySnapshot getLatency(Metric metric) {
+        if (!metric.isLatency()) {
+            throw new IllegalArgumentException("metric=" + metric);
+        }
+        return histograms[metric.ordinal()].getSnapshot();
+    }
+    
+    /**
+     * Returns the value of the given counter.
+     */
+    public long getCount(Metric metric) {
+        if (metric.isLatency()) {
+            throw new IllegalArgumentException("metric=" + metric);
+        }
+        return counters.get(metric.ordinal());
+    }
+    
+    @Override
+    public LatencySnapshot getMask() {
+        return getLatency(Metric.MASK);
+    }
+    
+    @Override
+    public LatencySnapshot getBlend() {
+        return getLatency(Metric.BLEND);
+    }
+    
+    @Override
+    public LatencySnapshot getScale() {
+        return getLatency(Metric.SCALE);
+    }
+    
+    @Override
+    public LatencySnapshot getPaint() {
+        return getLatency(Metric.PAINT);
+    }
+    
+    @Override
+    public long getTextureCacheHits() {
+        return getCount(Metric.TEXTURE_CACHE_HIT);
+    }
+    
+    @Override
+    public long getTextureCacheMisses() {
+        return getCount(Metric.TEXTURE_CACHE_MISS);
+    }
+    
+    @Override
+    public long getScaledImageCacheHits() {
+        return getCount(Metric.SCALED_IMAGE_CACHE_HIT);
+    }
+    
+    @Override
+    public long getScaledImageCacheMisses() {
+        return getCount(Metric.SCALED_IMAGE_CACHE_MISS);
+    }
+    
+    @Override
+    public long getProjectionCacheHits() {
+        return getCount(Metric.PROJECTION_CACHE_HIT);
+    }
+    
+    @Override
+    public long getProjectionCacheMisses() {
+        return getCount(Metric.PROJECTION_CACHE_MISS);
+    }
+    
+    @Override
+    public long getCompositeCacheHits() {
+        return getCount(Metric.COMPOSITE_CACHE_HIT);
+    }
+    
+    @Override
+    public long getCompositeCacheMisses() {
+        return getCount(Metric.COMPOSITE_CACHE_MISS);
+    }
+    
+    @Override
+    public long getDroppedFrames() {
+        return getCount(Metric.DROPPED_FRAME);
+    }
+    
+    @Override
+    public void reset() {
+        for (LatencyHistogram histogram : histograms) {
+            if (histogram != null) {
+                histogram.reset();
+            }
+        }
+        
+        for (int i = 0; i < counters.length(); i++) {
+            counters.set(i, 0L);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2010 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.sunclock;
+
+/**
+ * The management interface of the {@link RenderMetrics}.
+ */
+public interface RenderMetricsMXBean {
+    
+    public boolean isEnabled();
+    
+    public void setEnabled(boolean enabled);
+    
+    public LatencySnapshot getMask();
+    
+    public LatencySnapshot getBlend();
+    
+    public LatencySnapshot getScale();
+    
+    public LatencySnapshot getPaint();
+    
+    public long getTextureCacheHits();
+    
+    public long getTextureCacheMisses();
+    
+    public long getScaledImageCacheHits();
+    
+    public long getScaledImageCacheMisses();
+    
+    public long getProjectionCacheHits();
+    
+    public long getProjectionCacheMisses();
+    
+    public long getCompositeCacheHits();
+    
+    public long getCompositeCacheMisses();
+    
+    public long getDroppedFrames();
+    
+    public void reset();
+}
@@ -0,0 +1,441 @@
+/*
+ * Copyright 2010 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.sunclock;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.imageio.ImageIO;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A headless HTTP server that renders Sun Clock images.
+ * 
+ * <pre>GET /?time=&lt;millis&gt;&amp;w=&lt;width&gt;&amp;h=&lt;height&gt;&amp;format=png|jpeg</pre>
+ * 
+ * The time is truncated to a bucket and the encoded images are kept 
+ * in an LRU cache of a bounded number of bytes keyed by the bucket, 
+ * the size and the format. Concurrent requests for the same key wait 
+ * for a single render, the composite images are rendered by a 
+ * {@link RenderService} and only a few of them are rendered at a time.
+ */
+public class RenderServer implements HttpHandler {
+    
+    private static final Logger LOG 
+        = Logger.getLogger(RenderServer.class.getName());
+    
+    /**
+     * The default length of a time bucket in milliseconds.
+     */
+    public static final long DEFAULT_BUCKET = 60L * 1000L;
+    
+    /**
+     * The default memory of the encoded images in the cache in bytes.
+     */
+    public static final long DEFAULT_CACHE_CAPACITY = 32L * 1024L * 1024L;
+    
+    /**
+     * The default number of images that are rendered at the same time.
+     */
+    public static final int DEFAULT_RENDERS 
+        = Runtime.getRuntime().availableProcessors();
+    
+    /**
+     * The largest width or height that will be rendered.
+     */
+    private static final int MAX_SIZE = 4096;
+    
+    /**
+     * The largest number of pixels that will be rendered. 
+     */
+    private static final long MAX_PIXELS = 4096L * 2048L;
+    
+    /**
+     * The largest distance of a time from the epoch (about 10,000 
+     * years) that will be rendered.
+     */
+    private static final long MAX_TIME = 10000L * 366L * ClockUtils.MILLIS_PER_DAY;
+    
+    public static void main(String[] args) throws IOException {
+        System.setProperty("java.awt.headless", "true");
+        
+        int port = (args.length > 0) ? Integer.parseInt(args[0]) : 8080;
+        
+        World world = new World(
+                ImageUtils.load(Main.class.getResource("world.jpg")), 
+                ImageUtils.load(Main.class.getResource("world_night.jpg")));
+        
+        ExecutorService executor = Executors.newFixedThreadPool(
+                4 * Runtime.getRuntime().availableProcessors());
+        
+        RenderMetrics.register();
+        
+        RenderServer server = new RenderServer(world);
+        server.start(new InetSocketAddress(port), executor);
+    }
+    
+    private final World world;
+    
+    private final RenderService service;
+    
+    private final long bucket;
+    
+    private final Map<Key, Entry> cache 
+        = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+    
+    private final long cacheCapacity;
+    
+    /**
+     * The memory of the encoded images in the cache in bytes.
+     */
+    private long cacheSize = 0L;
+    
+    private final Semaphore renders;
+    
+    public RenderServer(World world) {
+        this(world, DEFAULT_BUCKET, DEFAULT_CACHE_CAPACITY, DEFAULT_RENDERS);
+    }
+    
+    public RenderServer(World world, long bucket, 
+            long cacheCapacity, int renders) {
+        if (world == null) {
+            throw new NullPointerException("world");
+        }
+        
+        if (bucket <= 0L) {
+            throw new IllegalArgumentException("bucket=" + bucket);
+        }
+        
+        if (cacheCapacity < 0L) {
+            throw new IllegalArgumentException("cacheCapacity=" + cacheCapacity);
+        }
+        
+        if (renders <= 0) {
+            throw new IllegalArgumentException("renders=" + renders);
+        }
+        
+        this.world = world;
+        this.service = new RenderService(world, bucket, 
+                RenderService.DEFAULT_CAPACITY);
+        this.bucket = bucket;
+        this.cacheCapacity = cacheCapacity;
+        this.renders = new Semaphore(renders);
+    }
+    
+    /**
+     * Starts an {@link HttpServer} on the given address that handles
+     * its requests with the given {@link Executor}.
+     */
+    public HttpServer start(InetSocketAddress address, 
+            Executor executor) throws IOException {
+        
+        HttpServer server = HttpServer.create(address, 0);
+        server.createContext("/", this);
+        server.setExecutor(executor);
+        server.start();
+        return server;
+    }
+    
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1L);
+                return;
+            }
+            
+            Key key;
+            try {
+                key = parse(exchange.getRequestURI());
+            } catch (IllegalArgumentException err) {
+                send(exchange, 400, "text/plain", 
+                        String.valueOf(err.getMessage()).getBytes("UTF-8"));
+                return;
+            }
+            
+            byte[] data;
+            try {
+                data = getImage(key);
+            } catch (Exception err) {
+                // The details of the failure stay on the server
+                LOG.log(Level.SEVERE, "Failed to render: " 
+                        + exchange.getRequestURI(), err);
+                send(exchange, 500, "text/plain", 
+                        "Internal Server Error".getBytes("UTF-8"));
+                return;
+            }
+            
+            long expires = (key.time + bucket - System.currentTimeMillis()) / 1000L;
+            exchange.getResponseHeaders().set("Cache-Control", 
+                    "max-age=" + Math.max(0L, expires));
+            
+            send(exchange, 200, key.format.contentType, data);
+        } finally {
+            exchange.close();
+        }
+    }
+    
+    /**
+     * Returns the encoded image for the given {@link Key} from the 
+     * cache or renders it.
+     */
+    private byte[] getImage(final Key key) 
+            throws InterruptedException, ExecutionException {
+        
+        Entry entry;
+        boolean created = false;
+        
+        synchronized (cache) {
+            entry = cache.get(key);
+            if (entry == null) {
+                entry = new Entry(new Callable<byte[]>() {
+                    @Override
+                    public byte[] call() throws IOException, InterruptedException {
+                        return render(key);
+                    }
+                });
+                
+                cache.put(key, entry);
+                created = true;
+            }
+        }
+        
+        if (created) {
+            entry.run();
+            
+            synchronized (cache) {
+                if (cache.get(key) == entry && entry.setSize()) {
+                    cacheSize += entry.size;
+                    evict();
+                }
+            }
+        }
+        
+        try {
+            return entry.get();
+        } catch (ExecutionException err) {
+            // Don't cache failures
+            synchronized (cache) {
+                if (cache.get(key) == entry) {
+                    cache.remove(key);
+                }
+            }
+            throw err;
+        }
+    }
+    
+    /**
+     * Evicts the least recently used images until the cache fits into 
+     * its capacity. Images that are still being rendered don't count.
+     */
+    private void evict() {
+        Iterator<Entry> it = cache.values().iterator();
+        while (cacheSize > cacheCapacity && it.hasNext()) {
+            Entry entry = it.next();
+            if (entry.size > 0L) {
+                cacheSize -= entry.size;
+                it.remove();
+            }
+        }
+    }
+    
+    private byte[] render(Key key) throws IOException, InterruptedException {
+        // Limit the memory of the composite images that are rendered
+        renders.acquire();
+        try {
+            // The formats of a bucket and size share one composite image
+            BufferedImage image = service.getCompositeImage(
+                    key.time, key.width, key.height);
+            
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            if (!ImageIO.write(image, key.format.name, out)) {
+                throw new IOException("No writer: " + key.format.name);
+            }
+            return out.toByteArray();
+        } finally {
+            renders.release();
+        }
+    }
+    
+    private Key parse(URI uri) {
+        long time = System.currentTimeMillis();
+        int width = world.getIconWidth();
+        int height = world.getIconHeight();
+        Format format = Format.PNG;
+        
+        String query = uri.getRawQuery();
+        if (query != null) {
+            for (String param : query.split("&")) {
+                int index = param.indexOf('=');
+                if (index == -1) {
+                    continue;
+                }
+                
+                String name = param.substring(0, index);
+                String value = param.substring(index + 1);
+                
+                try {
+                    if (name.equals("time")) {
+                        time = Long.parseLong(value);
+                    } else if (name.equals("w")) {
+                        width = Integer.parseInt(value);
+                    } else if (name.equals("h")) {
+                        height = Integer.parseInt(value);
+                    } else if (name.equals("format")) {
+                        format = Format.valueOf(value.toUpperCase(Locale.US));
+                    }
+                } catch (IllegalArgumentException err) {
+                    throw new IllegalArgumentException(name + "=" + value);
+                }
+            }
+        }
+        
+        if (time < -MAX_TIME || time > MAX_TIME) {
+            throw new IllegalArgumentException("time=" + time);
+        }
+        
+        if (width <= 0 || width > MAX_SIZE) {
+            throw new IllegalArgumentException("w=" + width);
+        }
+        
+        if (height <= 0 || height > MAX_SIZE) {
+            throw new IllegalArgumentException("h=" + height);
+        }
+        
+        if ((long)width * height > MAX_PIXELS) {
+            throw new IllegalArgumentException("w=" + width + ", h=" + height);
+        }
+        
+        return new Key(Math.floorDiv(time, bucket) * bucket, 
+                width, height, format);
+    }
+    
+    private static void send(HttpExchange exchange, int code, 
+            String contentType, byte[] data) throws IOException {
+        
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(code, data.length);
+        
+        OutputStream out = exchange.getResponseBody();
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+    
+    private static enum Format {
+        PNG("png", "image/png"),
+        JPEG("jpeg", "image/jpeg"),
+        JPG("jpeg", "image/jpeg");
+        
+        private final String name;
+        
+        private final String contentType;
+        
+        private Format(String name, String contentType) {
+            this.name = name;
+            this.contentType = contentType;
+        }
+    }
+    
+    /**
+     * An encoded image that is rendered once.
+     */
+    private static class Entry extends FutureTask<byte[]> {
+        
+        /**
+         * The length of the encoded image once it's in the cache.
+         */
+        private long size = 0L;
+        
+        public Entry(Callable<byte[]> callable) {
+            super(callable);
+        }
+        
+        /**
+         * Sets the size of a successfully rendered image and 
+         * returns true.
+         */
+        private boolean setSize() {
+            try {
+                size = get().length;
+                return true;
+            } catch (Exception err) {
+                return false;
+            }
+        }
+    }
+    
+    private static class Key {
+        
+        private final long time;
+        
+        private final int width;
+        
+        private final int height;
+        
+        private final Format format;
+        
+        public Key(long time, int width, int height, Format format) {
+            this.time = time;
+            this.width = width;
+            this.height = height;
+            this.format = format;
+        }
+        
+        @Override
+        public int hashCode() {
+            return 31 * (31 * (31 * (int)(time ^ (time >>> 32)) 
+                    + width) + height) + format.name.hashCode();
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+            if (o == this) {
+                return true;
+            } else if (!(o instanceof Key)) {
+                return false;
+            }
+            
+            Key other = (Key)o;
+            return time == other.time && width == other.width 
+                    && height == other.height 
+                    && format.name.equals(other.format.name);
+        }
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright 2010 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.sunclock;
+
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Renders the composite images of a {@link World} for any number of 
+ * threads. The time is truncated to a bucket and concurrent requests 
+ * for the same bucket, size and {@link MaskEngine} of the {@link World} 
+ * wait for a single render. The images are kept in an LRU cache that 
+ * is bounded by the memory of the pixels.
+ * 
+ * The returned images are shared and must not be modified.
+ */
+class RenderService {
+    
+    /**
+     * The default memory of the cached images in bytes.
+     */
+    public static final long DEFAULT_CAPACITY = 64L * 1024L * 1024L;
+    
+    private final World world;
+    
+    private final long bucket;
+    
+    private long capacity;
+    
+    private final Map<Key, Future<BufferedImage>> cache
+        = new LinkedHashMap<Key, Future<BufferedImage>>(16, 0.75f, true);
+    
+    /**
+     * The memory of the images in the cache (and being rendered).
+     */
+    private long size = 0L;
+    
+    public RenderService(World world, long bucket, long capacity) {
+        if (world == null) {
+            throw new NullPointerException("world");
+        }
+        
+        if (bucket <= 0L) {
+            throw new IllegalArgumentException("bucket=" + bucket);
+        }
+        
+        if (capacity < 0L) {
+            throw new IllegalArgumentException("capacity=" + capacity);
+        }
+        
+        this.world = world;
+        this.bucket = bucket;
+        this.capacity = capacity;
+    }
+    
+    /**
+     * Returns the start of the bucket of the given time.
+     */
+    public long getBucket(long time) {
+        return Math.floorDiv(time, bucket) * bucket;
+    }
+    
+    /**
+     * Returns the capacity of the cache in bytes.
+     */
+    public long getCapacity() {
+        synchronized (cache) {
+            return capacity;
+        }
+    }
+    
+    /**
+     * Sets the capacity of the cache in bytes and evicts the least 
+     * recently used images until the cache fits into it.
+     */
+    public void setCapacity(long capacity) {
+        if (capacity < 0L) {
+            throw new IllegalArgumentException("capacity=" + capacity);
+        }
+        
+        synchronized (cache) {
+            this.capacity = capacity;
+            evict(null);
+        }
+    }
+    
+    /**
+     * Returns the memory of the cached images in bytes.
+     */
+    public long getSize() {
+        synchronized (cache) {
+            return size;
+        }
+    }
+    
+    /**
+     * Returns the {@link BufferedImage#TYPE_INT_RGB} composite image 
+     * of the bucket of the given time at the given size from the cache 
+     * or renders it. Waits for the render if another thread is already 
+     * rendering it.
+     */
+    public BufferedImage getCompositeImage(long time, 
+            final int width, final int height) {
+        
+        if (width <= 0) {
+            throw new IllegalArgumentException("width=" + width);
+        }
+        
+        if (height <= 0) {
+            throw new IllegalArgumentException("height=" + height);
+        }
+        
+        final Key key = new Key(getBucket(time), 
+                world.getMaskEngine(), width, height);
+        
+        Future<BufferedImage> future;
+        FutureTask<BufferedImage> task = null;
+        
+        synchronized (cache) {
+            future = cache.get(key);
+            if (future == null) {
+                task = new FutureTask<BufferedImage>(new Callable<BufferedImage>() {
+                    @Override
+                    public BufferedImage call() {
+                        return render(key);
+                    }
+                });
+                
+                cache.put(key, task);
+                size += key.getSize();
+                evict(key);
+                
+                future = task;
+            }
+        }
+        
+        RenderMetrics.increment(task == null 
+                ? Metric.COMPOSITE_CACHE_HIT : Metric.COMPOSITE_CACHE_MISS);
+        
+        if (task != null) {
+            task.run();
+        }
+        
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return future.get();
+                } catch (InterruptedException err) {
+                    // The render is running on another thread and 
+                    // will finish, so keep waiting for it.
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException err) {
+            // Don't cache failures
+            remove(key, future);
+            
+            Throwable cause = err.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            } else if (cause instanceof Error) {
+                throw (Error)cause;
+            }
+            throw new IllegalStateException(cause);
+            
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+    
+    /**
+     * Removes all images from the cache.
+     */
+    public void clear() {
+        synchronized (cache) {
+            cache.clear();
+            size = 0L;
+        }
+    }
+    
+    private BufferedImage render(Key key) {
+        BufferedImage image = new BufferedImage(
+                key.width, key.height, BufferedImage.TYPE_INT_RGB);
+        
+        world.createCompositeImage(ClockUtils.solarPosition(key.time), 
+                Region.WORLD, key.width, key.height, 
+                ImageUtils.getPixels(image), key.engine);
+        return image;
+    }
+    
+    /**
+     * Evicts the least recently used images other than the given 
+     * one until the cache fits into its capacity. Requests that 
+     * are waiting for an evicted render still get its result.
+     */
+    private void evict(Key keep) {
+        Iterator<Map.Entry<Key, Future<BufferedImage>>> it 
+            = cache.entrySet().iterator();
+        
+        while (size > capacity && it.hasNext()) {
+            Key key = it.next().getKey();
+            if (keep == null || !key.equals(keep)) {
+                it.remove();
+                size -= key.getSize();
+            }
+        }
+    }
+    
+    private void remove(Key key, Future<BufferedImage> future) {
+        synchronized (cache) {
+            if (cache.get(key) == future) {
+                cache.remove(key);
+                size -= key.getSize();
+            }
+        }
+    }
+    
+    private static class Key {
+        
+        private final long time;
+        
+        private final MaskEngine engine;
+        
+        private final int width;
+        
+        private final int height;
+        
+        public Key(long time, MaskEngine engine, int width, int height) {
+            this.time = time;
+            this.engine = engine;
+            this.width = width;
+            this.height = height;
+        }
+        
+        /**
+         * Returns the memory of the image in bytes.
+         */
+        public long getSize() {
+            return 4L * width * height;
+        }
+        
+        @Override
+        public int hashCode() {
+            return 31 * (31 * (31 * (int)(time ^ (time >>> 32)) 
+                    + engine.hashCode()) + width) + height;
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+            if (o == this) {
+                return true;
+            } else if (!(o instanceof Key)) {
+                return false;
+            }
+            
+            Key other = (Key)o;
+            return time == other.time && engine == other.engine 
+                    && width == other.width && height == other.height;
+        }
+    }
+}
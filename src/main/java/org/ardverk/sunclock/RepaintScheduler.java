@@ -0,0 +1,371 @@
+/*
+ * Copyright 2010 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.sunclock;
+
+import java.awt.Component;
+import java.awt.EventQueue;
+import java.awt.Frame;
+import java.awt.Window;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.event.HierarchyEvent;
+import java.awt.event.HierarchyListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * Runs a task whenever the terminator on a {@link Component} has moved 
+ * by a pixel instead of at a fixed rate.
+ * 
+ * The terminator sweeps the 360 degrees of longitude once a day (the 
+ * change of the declination is much slower than that), so it moves by 
+ * a pixel every {@code MILLIS_PER_DAY * span / 360 / width} milliseconds 
+ * where the span is the longitude that is covered by the width of the 
+ * {@link Component}. A scheduler can also run its task at a fixed 
+ * period instead, for example to show the minutes of a clock. The task 
+ * isn't run while the {@link Component} is hidden or its window is 
+ * minimized.
+ * 
+ * The visibility and the width of the {@link Component} are only read 
+ * on the event dispatch thread, from its listeners, and kept for the 
+ * thread of the {@link ScheduledExecutorService}. A resize only runs 
+ * the task once the width has settled, so dragging the edge of the 
+ * window doesn't run it for every intermediate width.
+ */
+class RepaintScheduler {
+    
+    /**
+     * The mask is computed from the time in whole seconds.
+     */
+    private static final long MIN_DELAY = 1000L;
+    
+    /**
+     * The delay if the {@link Component} has no width yet.
+     */
+    private static final long DEFAULT_DELAY = 60L * 1000L;
+    
+    /**
+     * The time in milliseconds that the width must stay the 
+     * same before a resize runs the task.
+     */
+    private static final long RESIZE_DELAY = 250L;
+    
+    private final Component component;
+    
+    private final double span;
+    
+    /**
+     * The fixed period of the ticks in milliseconds or 0 if they 
+     * follow the terminator.
+     */
+    private final long period;
+    
+    private final Runnable task;
+    
+    private final ScheduledExecutorService executor;
+    
+    private final Listener listener = new Listener();
+    
+    private final ComponentAdapter resizeListener = new ComponentAdapter() {
+        @Override
+        public void componentResized(ComponentEvent e) {
+            synchronized (RepaintScheduler.this) {
+                componentWidth = component.getWidth();
+                
+                // A wider map needs an earlier tick, but only 
+                // the last one of a series of resizes runs
+                if (period == 0L && componentWidth != width) {
+                    reschedule(RESIZE_DELAY);
+                }
+            }
+        }
+    };
+    
+    /**
+     * Reads the state of the {@link Component} and reschedules the 
+     * ticks. Runs on the event dispatch thread while started.
+     */
+    private final Runnable refresh = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (RepaintScheduler.this) {
+                if (started) {
+                    update();
+                    reschedule();
+                }
+            }
+        }
+    };
+    
+    /**
+     * The window whose state is observed.
+     */
+    private Window window = null;
+    
+    /**
+     * Incremented every time the schedule changes so that 
+     * outdated ticks don't schedule another one.
+     */
+    private long generation = 0L;
+    
+    private boolean started = false;
+    
+    /**
+     * The width of the {@link Component} when the next tick 
+     * was scheduled.
+     */
+    private int width = -1;
+    
+    /**
+     * True if the {@link Component} was showing and its window 
+     * wasn't minimized when it was last read.
+     */
+    private boolean visible = false;
+    
+    /**
+     * The width of the {@link Component} when it was last read.
+     */
+    private int componentWidth = -1;
+    
+    public RepaintScheduler(Component component, double span, 
+            Runnable task, ScheduledExecutorService executor) {
+        this(component, span, 0L, task, executor);
+    }
+    
+    private RepaintScheduler(Component component, double span, long period, 
+            Runnable task, ScheduledExecutorService executor) {
+        
+        if (component == null) {
+            throw new NullPointerException("component");
+        }
+        
+        if (!(span > 0.0 && span <= 360.0)) {
+            throw new IllegalArgumentException("span=" + span);
+        }
+        
+        if (task == null) {
+            throw new NullPointerException("task");
+        }
+        
+        if (executor == null) {
+            throw new NullPointerException("executor");
+        }
+        
+        this.component = component;
+        this.span = span;
+        this.period = period;
+        this.task = task;
+        this.executor = executor;
+    }
+    
+    /**
+     * Creates a scheduler that runs the task every {@code period} 
+     * milliseconds, aligned to the full periods of the clock.
+     */
+    public static RepaintScheduler fixedRate(Component component, long period, 
+            Runnable task, ScheduledExecutorService executor) {
+        
+        if (period <= 0L) {
+            throw new IllegalArgumentException("period=" + period);
+        }
+        
+        return new RepaintScheduler(component, 360.0, period, task, executor);
+    }
+    
+    /**
+     * Returns the time in milliseconds in which the terminator 
+     * moves by one pixel on a map with the given width that covers 
+     * the given span of longitudes in degrees.
+     */
+    public static long getDelay(int width, double span) {
+        if (width <= 0) {
+            return DEFAULT_DELAY;
+        }
+        
+        long delay = (long)Math.ceil(
+                ClockUtils.MILLIS_PER_DAY * span / 360.0 / width);
+        return Math.max(MIN_DELAY, delay);
+    }
+    
+    /**
+     * Runs the task as soon as the {@link Component} is visible and 
+     * whenever the terminator moved by a pixel afterwards.
+     */
+    public synchronized void start() {
+        if (!started) {
+            started = true;
+            component.addHierarchyListener(listener);
+            component.addComponentListener(resizeListener);
+            EventQueue.invokeLater(refresh);
+        }
+    }
+    
+    /**
+     * Stops running the task.
+     */
+    public synchronized void stop() {
+        if (started) {
+            started = false;
+            component.removeHierarchyListener(listener);
+            component.removeComponentListener(resizeListener);
+            detach();
+            generation++;
+        }
+    }
+    
+    /**
+     * Reads the visibility and the width of the {@link Component} and 
+     * observes its window. Must be called on the event dispatch thread.
+     */
+    private void update() {
+        attach();
+        visible = isShowing();
+        componentWidth = component.getWidth();
+    }
+    
+    /**
+     * Returns true if the {@link Component} is showing on the 
+     * screen and its window isn't minimized.
+     */
+    private boolean isShowing() {
+        if (!component.isShowing()) {
+            return false;
+        }
+        
+        Window window = this.window;
+        if (window instanceof Frame) {
+            return (((Frame)window).getExtendedState() & Frame.ICONIFIED) == 0;
+        }
+        return true;
+    }
+    
+    /**
+     * Observes the window of the {@link Component} if it changed.
+     */
+    private void attach() {
+        Window ancestor = SwingUtilities.getWindowAncestor(component);
+        if (ancestor != window) {
+            detach();
+            window = ancestor;
+            if (window != null) {
+                window.addWindowListener(listener);
+            }
+        }
+    }
+    
+    private void detach() {
+        if (window != null) {
+            window.removeWindowListener(listener);
+            window = null;
+        }
+    }
+    
+    /**
+     * Runs the task right away if the {@link Component} is visible 
+     * and cancels the ticks that are currently scheduled.
+     */
+    private synchronized void reschedule() {
+        reschedule(0L);
+    }
+    
+    /**
+     * Runs the task after the given delay in milliseconds if the 
+     * {@link Component} is visible and cancels the ticks that are 
+     * currently scheduled, including an earlier call of this method.
+     */
+    private synchronized void reschedule(long delay) {
+        generation++;
+        if (started && visible) {
+            executor.schedule(new Tick(generation), 
+                    delay, TimeUnit.MILLISECONDS);
+        }
+    }
+    
+    /**
+     * Returns the delay until the next tick in milliseconds.
+     */
+    private long nextDelay() {
+        if (period > 0L) {
+            return period - System.currentTimeMillis() % period;
+        }
+        return getDelay(width, span);
+    }
+    
+    private class Tick implements Runnable {
+        
+        private final long generation;
+        
+        public Tick(long generation) {
+            this.generation = generation;
+        }
+        
+        @Override
+        public void run() {
+            synchronized (RepaintScheduler.this) {
+                if (generation != RepaintScheduler.this.generation) {
+                    return;
+                }
+            }
+            
+            try {
+                task.run();
+            } catch (RuntimeException err) {
+                // Report the failure but keep ticking
+                Thread thread = Thread.currentThread();
+                thread.getUncaughtExceptionHandler().uncaughtException(thread, err);
+            } finally {
+                synchronized (RepaintScheduler.this) {
+                    if (generation == RepaintScheduler.this.generation 
+                            && started && visible) {
+                        width = componentWidth;
+                        executor.schedule(this, nextDelay(), 
+                                TimeUnit.MILLISECONDS);
+                    }
+                }
+            }
+        }
+    }
+    
+    private class Listener extends WindowAdapter 
+            implements HierarchyListener {
+        
+        @Override
+        public void hierarchyChanged(HierarchyEvent e) {
+            long flags = HierarchyEvent.SHOWING_CHANGED 
+                    | HierarchyEvent.PARENT_CHANGED;
+            
+            if ((e.getChangeFlags() & flags) != 0L) {
+                refresh.run();
+            }
+        }
+        
+        @Override
+        public void windowIconified(WindowEvent e) {
+            refresh.run();
+        }
+        
+        @Override
+        public void windowDeiconified(WindowEvent e) {
+            refresh.run();
+        }
+
+    }
+}
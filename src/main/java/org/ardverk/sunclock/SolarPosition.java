@@ -0,0 +1,111 @@
+/*
+ * Copyright 2010 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.sunclock;
+
+/**
+ * The position of the sun at a given point in time. 
+ * 
+ * {@link SolarPosition}s are immutable and may be shared freely
+ * between threads.
+ * 
+ * @see SolarPositionCache
+ */
+public final class SolarPosition {
+
+    /**
+     * Computes the {@link SolarPosition} at the given time in 
+     * milliseconds since the epoch.
+     */
+    public static SolarPosition valueOf(long time) {
+        return ClockUtils.computeSolarPosition(time);
+    }
+    
+    /**
+     * The time in milliseconds since the epoch.
+     */
+    final long time;
+    
+    /**
+     * The apparent right ascension in degrees.
+     */
+    final double alpha;
+    
+    /**
+     * The apparent declination in radians.
+     */
+    final double delta;
+    
+    /**
+     * The mean Greenwich sideral time at 0h UT in degrees.
+     */
+    final double theta;
+    
+    /**
+     * The fraction of the day that has passed.
+     */
+    final double ftime;
+    
+    SolarPosition(long time, double alpha, 
+            double delta, double theta, double ftime) {
+        this.time = time;
+        this.alpha = alpha;
+        this.delta = delta;
+        this.theta = theta;
+        this.ftime = ftime;
+    }
+    
+    /**
+     * Returns the time in milliseconds since the epoch.
+     */
+    public long getTime() {
+        return time;
+    }
+    
+    /**
+     * Returns the apparent right ascension in degrees.
+     */
+    public double getRightAscension() {
+        return alpha;
+    }
+    
+    /**
+     * Returns the apparent declination in radians.
+     */
+    public double getDeclination() {
+        return delta;
+    }
+    
+    /**
+     * Returns the mean Greenwich sideral time at 0h UT in degrees.
+     */
+    public double getSideralTime() {
+        return theta;
+    }
+    
+    /**
+     * Returns the fraction of the (UTC) day that has passed.
+     */
+    public double getFractionalDay() {
+        return ftime;
+    }
+    
+    @Override
+    public String toString() {
+        return "time=" + time + ", alpha=" + alpha + ", delta=" + delta 
+                + ", theta=" + theta + ", ftime=" + ftime;
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2010 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.sunclock;
+
+/**
+ * A small bounded cache of {@link SolarPosition}s. 
+ * 
+ * The time is truncated to a multiple of the quantum and all lookups 
+ * within the same quantum share a single {@link SolarPosition}. A cache 
+ * hit doesn't allocate anything.
+ */
+public final class SolarPositionCache {
+
+    private final long quantum;
+    
+    private final SolarPosition[] positions;
+    
+    /**
+     * Creates a {@link SolarPositionCache} for the given quantum in 
+     * milliseconds that holds up to {@code capacity} positions.
+     */
+    public SolarPositionCache(long quantum, int capacity) {
+        if (quantum <= 0L) {
+            throw new IllegalArgumentException("quantum=" + quantum);
+        }
+        
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity=" + capacity);
+        }
+        
+        this.quantum = quantum;
+        this.positions = new SolarPosition[capacity];
+    }
+    
+    public long getQuantum() {
+        return quantum;
+    }
+    
+    public int getCapacity() {
+        return positions.length;
+    }
+    
+    /**
+     * Returns the {@link SolarPosition} at the given time truncated to 
+     * a multiple of the quantum.
+     */
+    public SolarPosition get(long time) {
+        long bucket = Math.floorDiv(time, quantum);
+        long key = bucket * quantum;
+        int index = (int)Math.floorMod(bucket, (long)positions.length);
+        
+        // SolarPositions are immutable. A racing thread may at worst 
+        // compute the same position twice.
+        SolarPosition position = positions[index];
+        if (position == null || position.time != key) {
+            position = SolarPosition.valueOf(key);
+            positions[index] = position;
+        }
+        
+        return position;
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2010 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.sunclock;
+
+import static java.lang.Math.acos;
+import static java.lang.Math.asin;
+import static java.lang.Math.cos;
+import static java.lang.Math.sin;
+import static java.lang.Math.toDegrees;
+import static java.lang.Math.toRadians;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Answers day and night queries for many places at once with the same 
+ * sunrise and sunset equations that are used for the masks.
+ * 
+ * The places are given as arrays of latitudes (degrees north) and 
+ * longitudes (degrees east) and the results are written into arrays 
+ * without allocating any memory per place. 
+ * 
+ * The results agree with the rendered maps, which are computed with 
+ * the true latitude of every row.
+ */
+public final class SolarQuery {
+    
+    /**
+     * The sun is above the horizon.
+     */
+    public static final byte DAY = 0;
+    
+    /**
+     * The sun is below the horizon but above the twilight horizon.
+     */
+    public static final byte TWILIGHT = 1;
+    
+    /**
+     * The sun is below the twilight horizon.
+     */
+    public static final byte NIGHT = 2;
+    
+    /**
+     * The number of places per band when a query is answered 
+     * on multiple cores.
+     */
+    private static final int PARALLEL_THRESHOLD = 16 * 1024;
+    
+    private SolarQuery() {}
+    
+    /**
+     * Computes the state of the sun, the sunrise, the sunset and the 
+     * altitude of the sun at the given time for every place. 
+     * 
+     * <ul>
+     * <li>{@code states[i]} is one of {@link #DAY}, {@link #TWILIGHT} 
+     *     and {@link #NIGHT}, exactly as in the mask at the place.
+     * <li>{@code sunrises[i]} and {@code sunsets[i]} are the times of 
+     *     sunrise and sunset on the UTC day of the given time in 
+     *     milliseconds, or NaN if the sun doesn't rise or set that day.
+     * <li>{@code altitudes[i]} is the altitude of the sun in degrees.
+     * </ul>
+     * 
+     * Any of the results may be null if they're not needed. Large 
+     * queries are split into bands that are answered on all cores.
+     */
+    public static void query(long time, 
+            double[] latitudes, double[] longitudes, byte[] states, 
+            double[] sunrises, double[] sunsets, double[] altitudes) {
+        query(ClockUtils.solarPosition(time), latitudes, longitudes, 
+                states, sunrises, sunsets, altitudes);
+    }
+    
+    /**
+     * Answers the query for the given {@link SolarPosition}. Jobs that 
+     * query many times can look the positions up in an 
+     * {@link EphemerisTable}.
+     * 
+     * @see #query(long, double[], double[], byte[], double[], double[], double[])
+     */
+    public static void query(final SolarPosition position, 
+            final double[] latitudes, final double[] longitudes, 
+            final byte[] states, final double[] sunrises, 
+            final double[] sunsets, final double[] altitudes) {
+        
+        if (position == null) {
+            throw new NullPointerException("position");
+        }
+        
+        if (latitudes == null) {
+            throw new NullPointerException("latitudes");
+        }
+        
+        if (longitudes == null) {
+            throw new NullPointerException("longitudes");
+        }
+        
+        final int length = latitudes.length;
+        
+        if (longitudes.length != length) {
+            throw new IllegalArgumentException("length=" + longitudes.length);
+        }
+        
+        checkLength(states == null ? length : states.length, length);
+        checkLength(sunrises == null ? length : sunrises.length, length);
+        checkLength(sunsets == null ? length : sunsets.length, length);
+        checkLength(altitudes == null ? length : altitudes.length, length);
+        
+        final long midnight = Math.floorDiv(position.time, ClockUtils.MILLIS_PER_DAY) 
+                * ClockUtils.MILLIS_PER_DAY;
+        
+        int bands = Math.min(Runtime.getRuntime().availableProcessors(), 
+                length / PARALLEL_THRESHOLD);
+        
+        ParallelUtils.forEachBand(ForkJoinPool.commonPool(), 
+                bands, 0, length, new ParallelUtils.Band() {
+            @Override
+            public void run(int from, int to) {
+                query(position, midnight, latitudes, longitudes, 
+                        states, sunrises, sunsets, altitudes, from, to);
+            }
+        });
+    }
+    
+    private static void query(SolarPosition position, long midnight, 
+            double[] latitudes, double[] longitudes, byte[] states, 
+            double[] sunrises, double[] sunsets, double[] altitudes, 
+            int from, int to) {
+        
+        double delta = position.delta;
+        double sinDelta = sin(delta);
+        double cosDelta = cos(delta);
+        double ftime = position.ftime;
+        
+        double sinSeaLevel = sin(toRadians(ClockUtils.HORIZON_SEA_LEVEL));
+        double sinTwilight = sin(toRadians(ClockUtils.HORIZON_TWILIGHT));
+        
+        for (int i = from; i < to; i++) {
+            // The equations count longitudes positive to the west
+            double latitude = latitudes[i];
+            double longitude = -longitudes[i];
+            
+            double m0 = ClockUtils.fractionOfDay(
+                    (position.alpha + longitude - position.theta) / 360.0);
+            
+            double sinLatitude = sin(toRadians(latitude));
+            double cosLatitude = cos(toRadians(latitude));
+            
+            double cosH0 = (sinSeaLevel - sinLatitude * sinDelta) 
+                    / (cosLatitude * cosDelta);
+            double H0 = (cosH0 <= 1.0 && cosH0 >= -1) 
+                    ? toDegrees(acos(cosH0)) : 0.0;
+            
+            if (states != null) {
+                double cosT0 = (sinTwilight - sinLatitude * sinDelta) 
+                        / (cosLatitude * cosDelta);
+                double T0 = (cosT0 <= 1.0 && cosT0 >= -1) 
+                        ? toDegrees(acos(cosT0)) : 0.0;
+                
+                if (ClockUtils.isBelowHorizon(cosT0, T0, m0, ftime)) {
+                    states[i] = NIGHT;
+                } else if (ClockUtils.isBelowHorizon(cosH0, H0, m0, ftime)) {
+                    states[i] = TWILIGHT;
+                } else {
+                    states[i] = DAY;
+                }
+            }
+            
+            boolean rises = (cosH0 <= 1.0 && cosH0 >= -1);
+            
+            if (sunrises != null) {
+                sunrises[i] = rises ? midnight + ClockUtils.fractionOfDay(
+                        m0 - H0/360.0) * ClockUtils.MILLIS_PER_DAY : Double.NaN;
+            }
+            
+            if (sunsets != null) {
+                sunsets[i] = rises ? midnight + ClockUtils.fractionOfDay(
+                        m0 + H0/360.0) * ClockUtils.MILLIS_PER_DAY : Double.NaN;
+            }
+            
+            if (altitudes != null) {
+                double cosH = cos(2.0 * Math.PI * (ftime - m0));
+                double value = sinLatitude * sinDelta + cosLatitude * cosDelta * cosH;
+                altitudes[i] = toDegrees(asin(Math.max(-1.0, Math.min(1.0, value))));
+            }
+        }
+    }
+    
+    private static void checkLength(int length, int expected) {
+        if (length < expected) {
+            throw new IllegalArgumentException("length=" + length);
+        }
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2010 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.sunclock;
+
+import static java.lang.Math.acos;
+import static java.lang.Math.atan2;
+import static java.lang.Math.ceil;
+import static java.lang.Math.cos;
+import static java.lang.Math.floor;
+import static java.lang.Math.sin;
+import static java.lang.Math.sqrt;
+import static java.lang.Math.toDegrees;
+import static java.lang.Math.toRadians;
+
+/**
+ * The boundary between day and night for a single horizon.
+ * 
+ * The night side of every longitude column is a single run of 
+ * rows (or the complement of it). The latitudes of that run are 
+ * solved analytically once per column and its ends are snapped 
+ * to the exact per-pixel sunrise and sunset test, so the result 
+ * is identical to {@link PixelMaskEngine}.
+ */
+class Terminator {
+    
+    private static final double HALF_PI = Math.PI / 2.0;
+    
+    private final int w;
+    
+    private final int h;
+    
+    private final double top;
+    
+    private final double span;
+    
+    private final double ftime;
+    
+    private final double[] cosH0;
+    
+    private final double[] H0;
+    
+    private final double[] m0;
+    
+    private final int[] start;
+    
+    private final int[] end;
+    
+    private final boolean[] inside;
+    
+    public Terminator(SolarPosition position, double horizon, 
+            Region region, int w, int h) {
+        this.w = w;
+        this.h = h;
+        this.top = region.latitude(0, h);
+        this.span = region.getNorth() - region.getSouth();
+        this.ftime = position.ftime;
+        
+        double delta = position.delta;
+        
+        cosH0 = new double[h];
+        H0 = new double[h];
+        
+        for (int i = 0; i < h; i++) {
+            double latitude = region.latitude(i, h);
+            cosH0[i] = (sin(toRadians(horizon))-sin(toRadians(latitude)) *
+                    sin(delta)) / (cos(toRadians(latitude))*cos(delta));
+            
+            if (cosH0[i] <= 1.0 && cosH0[i] >= -1) {
+                H0[i] = toDegrees(acos(cosH0[i]));
+            }
+        }
+        
+        m0 = new double[w];
+        start = new int[w];
+        end = new int[w];
+        inside = new boolean[w];
+        
+        double sinHorizon = sin(toRadians(horizon));
+        double sinDelta = sin(delta);
+        double cosDelta = cos(delta);
+        
+        for (int j = 0; j < w; j++) {
+            double longitude = region.longitude(j, w);
+            double transit = (position.alpha + longitude - position.theta) / 360.0;
+            while (transit > 1.0) transit -= 1.0;
+            while (transit < 0.0) transit += 1.0;
+            m0[j] = transit;
+            
+            // The hour angle of the sun
+            double d = ftime - transit;
+            d -= floor(d + 0.5);
+            double cosH = cos(2.0 * Math.PI * d);
+            
+            // sin(altitude) = r * cos(latitude - center)
+            double b = cosDelta * cosH;
+            double r = sqrt(sinDelta*sinDelta + b*b);
+            double center = atan2(sinDelta, b);
+            
+            double c = sinHorizon / r;
+            double width = acos(c > 1.0 ? 1.0 : (c < -1.0 ? -1.0 : c));
+            
+            // Use whichever of the day and night arcs is no larger 
+            // than a half circle. Its intersection with the meridian
+            // is a single run of latitudes.
+            boolean night = false;
+            if (width > HALF_PI) {
+                center = (center > 0.0) ? center - Math.PI : center + Math.PI;
+                width = Math.PI - width;
+                night = true;
+            }
+            
+            solve(j, center, width, night);
+        }
+    }
+    
+    private void solve(int j, double center, double width, boolean night) {
+        double lo = center - width;
+        double hi = center + width;
+        
+        if (center > HALF_PI) {
+            hi = HALF_PI;
+        } else if (center < -HALF_PI) {
+            lo = -HALF_PI;
+        } else {
+            lo = Math.max(lo, -HALF_PI);
+            hi = Math.min(hi, HALF_PI);
+        }
+        
+        int s, e;
+        if (lo <= hi) {
+            s = (int)ceil((top - toDegrees(hi)) * h / span);
+            e = (int)floor((top - toDegrees(lo)) * h / span) + 1;
+            s = clamp(s, 0, h);
+            e = clamp(e, s, h);
+        } else {
+            double nearest = Math.max(-HALF_PI, Math.min(HALF_PI, center));
+            s = (int)Math.round((top - toDegrees(nearest)) * h / span);
+            s = clamp(s, 0, h-1);
+            e = s;
+        }
+        
+        // Snap both ends of the run to the exact per-pixel result
+        while (s > 0 && isNight(s-1, j) == night) s--;
+        while (s < e && isNight(s, j) != night) s++;
+        while (e < h && isNight(e, j) == night) e++;
+        while (e > s && isNight(e-1, j) != night) e--;
+        
+        start[j] = s;
+        end[j] = e;
+        inside[j] = night;
+    }
+    
+    /**
+     * Returns the first row of the run in column j.
+     */
+    public int getStart(int j) {
+        return start[j];
+    }
+    
+    /**
+     * Returns the end (exclusive) of the run in column j.
+     */
+    public int getEnd(int j) {
+        return end[j];
+    }
+    
+    /**
+     * Returns true if the run in column j is the night side.
+     */
+    public boolean isInside(int j) {
+        return inside[j];
+    }
+    
+    /**
+     * Returns true if the pixel in row i (counted from the north pole) 
+     * and column j is on the night side of this {@link Terminator}.
+     */
+    public boolean contains(int i, int j) {
+        return (i >= start[j] && i < end[j]) == inside[j];
+    }
+    
+    /**
+     * The exact sunrise and sunset test of {@link PixelMaskEngine}.
+     */
+    private boolean isNight(int i, int j) {
+        return ClockUtils.isBelowHorizon(cosH0[i], H0[i], m0[j], ftime);
+    }
+    
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
@@ -0,0 +1,301 @@
+/*
+ * Copyright 2010 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.sunclock;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import javax.imageio.ImageIO;
+
+/**
+ * A cache of decoded {@link BufferedImage#TYPE_INT_ARGB} textures on 
+ * disk. The files are keyed by a hash of the encoded resource and its 
+ * size and hold the raw pixels in the native byte order, so a cached 
+ * texture is read through a memory-mapped {@link FileChannel} without 
+ * decoding the image.
+ * 
+ * The files are bounded by a number of bytes. The modification time of 
+ * a file is its last use and the least recently used files are deleted 
+ * whenever a new one is written. Images that change often (like cloud 
+ * maps) get a new file with every change and shouldn't be cached.
+ */
+class TextureCache {
+    
+    /**
+     * The system property with the directory of the cache.
+     */
+    public static final String PROPERTY = "org.ardverk.sunclock.cache";
+    
+    private static final int MAGIC = 0x53435458;
+    
+    /**
+     * The magic number, the width and the height.
+     */
+    private static final int HEADER_SIZE = 3 * 4;
+    
+    private static final int BUFFER_SIZE = 64 * 1024;
+    
+    /**
+     * The default size of the files in the cache in bytes.
+     */
+    public static final long DEFAULT_CAPACITY = 256L * 1024L * 1024L;
+    
+    private static final String SUFFIX = ".argb";
+    
+    private final File directory;
+    
+    private final long capacity;
+    
+    public TextureCache(File directory) {
+        this(directory, DEFAULT_CAPACITY);
+    }
+    
+    public TextureCache(File directory, long capacity) {
+        if (directory == null) {
+            throw new NullPointerException("directory");
+        }
+        
+        if (capacity < 0L) {
+            throw new IllegalArgumentException("capacity=" + capacity);
+        }
+        
+        this.directory = directory;
+        this.capacity = capacity;
+    }
+    
+    public long getCapacity() {
+        return capacity;
+    }
+    
+    /**
+     * Loads an image from the given {@link URL} like 
+     * {@link ImageUtils#load(URL)} and returns it as a 
+     * {@link BufferedImage#TYPE_INT_ARGB} image.
+     */
+    public BufferedImage load(URL url) throws IOException {
+        byte[] data = read(url);
+        File file = new File(directory, key(data) + SUFFIX);
+        
+        BufferedImage image = null;
+        if (file.isFile()) {
+            try {
+                image = read(file);
+            } catch (IOException err) {
+                // A corrupt or truncated entry is decoded again
+                image = null;
+            }
+            
+            if (image == null) {
+                file.delete();
+            } else {
+                file.setLastModified(System.currentTimeMillis());
+            }
+        }
+        
+        if (image == null) {
+            image = ImageIO.read(new ByteArrayInputStream(data));
+            if (image == null) {
+                throw new IOException("Unsupported image: " + url);
+            }
+            
+            image = ImageUtils.toIntARGB(ImageUtils.createWithAlpha(image));
+            
+            try {
+                write(image, file);
+                evict(file);
+            } catch (IOException ignore) {
+                // The cache is best effort
+            }
+        }
+        
+        return image;
+    }
+    
+    /**
+     * Reads a cached image or returns null if the file is invalid.
+     */
+    private static BufferedImage read(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            long size = channel.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+                return null;
+            }
+            
+            MappedByteBuffer buffer = channel.map(
+                    FileChannel.MapMode.READ_ONLY, 0L, size);
+            buffer.order(ByteOrder.nativeOrder());
+            
+            int magic = buffer.getInt();
+            int width = buffer.getInt();
+            int height = buffer.getInt();
+            
+            if (magic != MAGIC || width <= 0 || height <= 0 
+                    || size != HEADER_SIZE + 4L * width * height) {
+                return null;
+            }
+            
+            BufferedImage image = new BufferedImage(
+                    width, height, BufferedImage.TYPE_INT_ARGB);
+            buffer.asIntBuffer().get(ImageUtils.getPixels(image));
+            return image;
+        } finally {
+            in.close();
+        }
+    }
+    
+    /**
+     * Writes the image into a temporary file and moves it in place.
+     */
+    private void write(BufferedImage image, File file) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create: " + directory);
+        }
+        
+        int[] pixels = ImageUtils.getPixels(image);
+        
+        File tmp = File.createTempFile("texture", ".tmp", directory);
+        try {
+            FileOutputStream out = new FileOutputStream(tmp);
+            try {
+                FileChannel channel = out.getChannel();
+                
+                ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE)
+                        .order(ByteOrder.nativeOrder());
+                buffer.putInt(MAGIC)
+                    .putInt(image.getWidth())
+                    .putInt(image.getHeight());
+                
+                for (int i = 0; i < pixels.length; ) {
+                    int length = Math.min(buffer.remaining() / 4, pixels.length - i);
+                    
+                    IntBuffer ints = buffer.asIntBuffer();
+                    ints.put(pixels, i, length);
+                    buffer.position(buffer.position() + 4 * length);
+                    i += length;
+                    
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    buffer.clear();
+                }
+            } finally {
+                out.close();
+            }
+            
+            Files.move(tmp.toPath(), file.toPath(), 
+                    StandardCopyOption.REPLACE_EXISTING, 
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            tmp.delete();
+        }
+    }
+    
+    /**
+     * Deletes the least recently used files until the cache fits into 
+     * its capacity. The given file was just written and is kept.
+     */
+    private void evict(File current) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        
+        final long[] lastModified = new long[files.length];
+        Integer[] order = new Integer[files.length];
+        for (int i = 0; i < files.length; i++) {
+            lastModified[i] = files[i].lastModified();
+            order[i] = i;
+        }
+        
+        // Most recently used first
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return Long.compare(lastModified[o2], lastModified[o1]);
+            }
+        });
+        
+        long size = current.length();
+        for (Integer i : order) {
+            File file = files[i];
+            if (!file.getName().endsWith(SUFFIX) || file.equals(current)) {
+                continue;
+            }
+            
+            long length = file.length();
+            size += length;
+            if (size > capacity && file.delete()) {
+                size -= length;
+            }
+        }
+    }
+    
+    private static byte[] read(URL url) throws IOException {
+        InputStream in = url.openStream();
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int length;
+            while ((length = in.read(buffer)) != -1) {
+                out.write(buffer, 0, length);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+    
+    /**
+     * Returns the hex SHA-256 of the data followed by its length.
+     */
+    private static String key(byte[] data) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException err) {
+            throw new IllegalStateException(err);
+        }
+        
+        StringBuilder buffer = new StringBuilder();
+        for (byte value : digest.digest(data)) {
+            buffer.append(Character.forDigit((value >> 4) & 0xF, 16))
+                .append(Character.forDigit(value & 0xF, 16));
+        }
+        return buffer.append('-').append(data.length).toString();
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright 2010 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.sunclock;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Renders a series of Sun Clock frames in parallel and writes them 
+ * in order to a {@link FrameSink}.
+ * 
+ * <pre>TimeLapse &lt;start&gt; &lt;end&gt; &lt;step&gt; &lt;width&gt;x&lt;height&gt; &lt;output&gt; [delay]</pre>
+ * 
+ * The start and end are milliseconds or ISO-8601 instants, the step 
+ * is milliseconds or an ISO-8601 duration. An output that ends with 
+ * {@code .gif} is written as an animated GIF, all others are file name 
+ * patterns such as {@code frames/frame-%05d.png}.
+ */
+public class TimeLapse {
+    
+    public static void main(String[] args) 
+            throws IOException, InterruptedException {
+        
+        if (args.length < 5) {
+            System.err.println("Usage: TimeLapse <start> <end> <step> " 
+                    + "<width>x<height> <output> [delay]");
+            System.exit(1);
+            return;
+        }
+        
+        System.setProperty("java.awt.headless", "true");
+        
+        long start = parseTime(args[0]);
+        long end = parseTime(args[1]);
+        long step = parseStep(args[2]);
+        
+        int index = args[3].toLowerCase(Locale.US).indexOf('x');
+        if (index == -1) {
+            throw new IllegalArgumentException("size=" + args[3]);
+        }
+        
+        int width = Integer.parseInt(args[3].substring(0, index));
+        int height = Integer.parseInt(args[3].substring(index + 1));
+        
+        String output = args[4];
+        int delay = (args.length > 5) ? Integer.parseInt(args[5]) : 100;
+        
+        World world = new World(
+                ImageUtils.load(Main.class.getResource("world.jpg")), 
+                ImageUtils.load(Main.class.getResource("world_night.jpg")));
+        
+        // The frames are rendered in parallel already
+        world.setMaskEngine(ClockUtils.PER_COLUMN);
+        
+        FrameSink sink;
+        if (output.toLowerCase(Locale.US).endsWith(".gif")) {
+            sink = new GifSink(new File(output), delay);
+        } else {
+            sink = new ImageSequenceSink(output);
+        }
+        
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            TimeLapse timeLapse = new TimeLapse(world, width, height, 
+                    executor, 2 * threads);
+            
+            int count = timeLapse.render(start, end, step, sink);
+            System.out.println(count + " frames written to " + output);
+        } finally {
+            executor.shutdownNow();
+            sink.close();
+        }
+    }
+    
+    private static long parseTime(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException err) {
+            return Instant.parse(value).toEpochMilli();
+        }
+    }
+    
+    private static long parseStep(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException err) {
+            return Duration.parse(value).toMillis();
+        }
+    }
+    
+    private final World world;
+    
+    private final int width;
+    
+    private final int height;
+    
+    private final ExecutorService executor;
+    
+    private final int maxInFlight;
+    
+    /**
+     * Creates a {@link TimeLapse} that renders frames of the given size 
+     * on the given {@link ExecutorService}. At most {@code maxInFlight} 
+     * frames are rendered or waiting to be written at any time and 
+     * their buffers are reused for the following frames.
+     */
+    public TimeLapse(World world, int width, int height, 
+            ExecutorService executor, int maxInFlight) {
+        
+        if (world == null) {
+            throw new NullPointerException("world");
+        }
+        
+        if (executor == null) {
+            throw new NullPointerException("executor");
+        }
+        
+        if (width <= 0) {
+            throw new IllegalArgumentException("width=" + width);
+        }
+        
+        if (height <= 0) {
+            throw new IllegalArgumentException("height=" + height);
+        }
+        
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("maxInFlight=" + maxInFlight);
+        }
+        
+        this.world = world;
+        this.width = width;
+        this.height = height;
+        this.executor = executor;
+        this.maxInFlight = maxInFlight;
+    }
+    
+    /**
+     * Renders the frames from {@code start} to {@code end} (inclusive) 
+     * in steps of {@code step} milliseconds and returns the number of 
+     * frames that were written to the {@link FrameSink}.
+     */
+    public int render(long start, long end, long step, FrameSink sink) 
+            throws IOException, InterruptedException {
+        
+        if (sink == null) {
+            throw new NullPointerException("sink");
+        }
+        
+        if (step <= 0L) {
+            throw new IllegalArgumentException("step=" + step);
+        }
+        
+        if (end < start) {
+            throw new IllegalArgumentException("start=" + start + ", end=" + end);
+        }
+        
+        long count = (end - start) / step + 1L;
+        if (count > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("count=" + count);
+        }
+        
+        // Look the position of the sun up per day instead of evaluating 
+        // the series for every frame if there are more frames than days
+        EphemerisTable ephemeris = null;
+        if ((end - start) / ClockUtils.MILLIS_PER_DAY < count) {
+            ephemeris = EphemerisTable.createForTimes(start, end, 1);
+        }
+        
+        ArrayDeque<BufferedImage> images = new ArrayDeque<BufferedImage>();
+        ArrayDeque<Future<BufferedImage>> pending 
+            = new ArrayDeque<Future<BufferedImage>>();
+        
+        int submitted = 0;
+        int written = 0;
+        
+        try {
+            while (written < count) {
+                while (submitted < count && pending.size() < maxInFlight) {
+                    BufferedImage image = images.poll();
+                    if (image == null) {
+                        image = new BufferedImage(width, height, 
+                                BufferedImage.TYPE_INT_RGB);
+                    }
+                    
+                    long time = start + submitted * step;
+                    pending.add(submit(ephemeris != null ? ephemeris.get(time) 
+                            : ClockUtils.solarPosition(time), image));
+                    submitted++;
+                }
+                
+                BufferedImage image = get(pending.poll());
+                sink.write(written, start + written * step, image);
+                images.add(image);
+                written++;
+            }
+        } finally {
+            for (Future<BufferedImage> future : pending) {
+                future.cancel(true);
+            }
+        }
+        
+        return written;
+    }
+    
+    private Future<BufferedImage> submit(final SolarPosition position, 
+            final BufferedImage image) {
+        return executor.submit(new Callable<BufferedImage>() {
+            @Override
+            public BufferedImage call() {
+                world.createCompositeImage(position, Region.WORLD, 
+                        width, height, ImageUtils.getPixels(image));
+                return image;
+            }
+        });
+    }
+    
+    private static BufferedImage get(Future<BufferedImage> future) 
+            throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException err) {
+            Throwable cause = err.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            } else if (cause instanceof Error) {
+                throw (Error)cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+}
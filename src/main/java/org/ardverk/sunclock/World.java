@@ -18,36 +18,96 @@ package org.ardverk.sunclock;
 
 import java.awt.Component;
 import java.awt.Graphics;
-import java.awt.Graphics2D;
 import java.awt.Image;
+import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
-import java.awt.image.WritableRaster;
+import java.lang.ref.SoftReference;
 
 import javax.swing.Icon;
 
 class World implements Icon {
 
+    /**
+     * The system property that turns the compact mode of the 
+     * {@link World} of {@link Main} on.
+     */
+    public static final String COMPACT_PROPERTY = "org.ardverk.sunclock.compact";
+    
     private final BufferedImage day;
     
     private final BufferedImage night;
     
-    private volatile CompositeRef compositeRef;
+    private final boolean compact;
+    
+    private final Textures original;
+    
+    /**
+     * The most recently used scaled textures.
+     */
+    private final RecentlyUsed<Textures> textures 
+        = new RecentlyUsed<Textures>(4);
+    
+    /**
+     * Held while textures are scaled.
+     */
+    private final Object scaling = new Object();
+    
+    /**
+     * The most recent composite image of each of the last few sizes 
+     * that were painted. In incremental mode every size also keeps 
+     * its own {@link IncrementalMask}.
+     */
+    private final RecentlyUsed<CompositeRef> composites 
+        = new RecentlyUsed<CompositeRef>(4);
+    
+    /**
+     * The memory of all buffers of this {@link World} in bytes.
+     */
+    private volatile long memoryLimit = Long.MAX_VALUE;
     
     private volatile long time;
+    
+    private volatile MaskEngine engine = ClockUtils.PARALLEL;
+    
+    private volatile boolean incremental = true;
+    
+    private volatile boolean resolutionAware = true;
+    
+    private volatile AsyncRenderer renderer = null;
+    
+    /**
+     * The number of times a setting that changes the composite 
+     * images was changed.
+     */
+    private volatile long version = 0L;
 
     public World(Image day, Image night) {
         this(day, night, System.currentTimeMillis());
     }
     
     public World(Image day, Image night, long time) {
-        this.day = ImageUtils.createWithAlpha(day);
-        this.night = ImageUtils.createWithAlpha(night);
+        this(day, night, time, false);
+    }
+    
+    /**
+     * Creates a {@link World}. In compact mode the day and night 
+     * textures are kept as {@link BufferedImage#TYPE_3BYTE_BGR} images, 
+     * which takes three quarters of the memory of the default 
+     * {@link BufferedImage#TYPE_INT_ARGB} images but takes about twice 
+     * as long to blend.
+     */
+    public World(Image day, Image night, long time, boolean compact) {
+        this.compact = compact;
+        this.day = compact ? ImageUtils.toBGR(day) : ImageUtils.toIntARGB(day);
+        this.night = compact ? ImageUtils.toBGR(night) : ImageUtils.toIntARGB(night);
         this.time = time;
         
         if (this.day.getWidth() != this.night.getWidth() 
                 || this.day.getHeight() != this.night.getHeight()) {
             throw new IllegalArgumentException();
         }
+        
+        this.original = new Textures(Region.WORLD, this.day, this.night);
     }
     
     @Override
@@ -66,6 +126,152 @@ class World implements Icon {
     
     public void setTime(long time) {
         this.time = time;
+        
+        AsyncRenderer renderer = this.renderer;
+        if (renderer != null) {
+            renderer.request(time);
+        }
+    }
+    
+    public boolean isCompact() {
+        return compact;
+    }
+    
+    public long getMemoryLimit() {
+        return memoryLimit;
+    }
+    
+    /**
+     * Limits the memory of all buffers of this {@link World}. The 
+     * original textures and the buffers of the asynchronous mode are 
+     * in use and count first. The textures that are scaled to other 
+     * sizes and the composite images and incremental masks that are 
+     * kept for painting share the rest and the least recently used 
+     * are evicted first. The textures and the composite image of the 
+     * current frame are always kept, even if they don't fit.
+     */
+    public void setMemoryLimit(long memoryLimit) {
+        if (memoryLimit < 0L) {
+            throw new IllegalArgumentException("memoryLimit=" + memoryLimit);
+        }
+        
+        this.memoryLimit = memoryLimit;
+        
+        synchronized (textures) {
+            evict(-1, -1);
+        }
+    }
+    
+    /**
+     * Returns the memory of all buffers of this {@link World} in 
+     * bytes: the original and the scaled textures, the composite 
+     * images and incremental masks that are kept for painting and 
+     * the buffers of the asynchronous mode.
+     */
+    public long getMemoryUsage() {
+        long size = getBufferSize();
+        for (Textures value : textures.values()) {
+            size += value.getSize();
+        }
+        for (CompositeRef value : composites.values()) {
+            size += value.getSize();
+        }
+        return size;
+    }
+    
+    /**
+     * Returns the memory of the buffers that can't be evicted.
+     */
+    private long getBufferSize() {
+        long size = original.getSize();
+        
+        AsyncRenderer renderer = this.renderer;
+        if (renderer != null) {
+            size += renderer.getSize();
+        }
+        return size;
+    }
+    
+    /**
+     * Returns a value that changes whenever a setting that changes 
+     * the composite images changes. The time isn't included.
+     */
+    public long getVersion() {
+        return version;
+    }
+    
+    public MaskEngine getMaskEngine() {
+        return engine;
+    }
+    
+    /**
+     * Sets the {@link MaskEngine} that is used to compute the 
+     * day and night mask.
+     */
+    public void setMaskEngine(MaskEngine engine) {
+        if (engine == null) {
+            throw new NullPointerException("engine");
+        }
+        
+        this.engine = engine;
+        version++;
+        
+        AsyncRenderer renderer = this.renderer;
+        if (renderer != null) {
+            renderer.request(time);
+        }
+    }
+    
+    public boolean isIncremental() {
+        return incremental;
+    }
+    
+    /**
+     * Turns the incremental mode on or off. In incremental mode only 
+     * the pixels between the old and the new day, twilight and night 
+     * boundaries are recomputed when the time changes.
+     */
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+        version++;
+    }
+    
+    public boolean isResolutionAware() {
+        return resolutionAware;
+    }
+    
+    /**
+     * Turns the resolution aware mode on or off. In resolution aware
+     * mode the mask and the composite image are rendered at the size 
+     * of the component from textures that are scaled once per size. 
+     * Otherwise they're rendered at the size of the textures and 
+     * scaled to the size of the component afterwards.
+     */
+    public void setResolutionAware(boolean resolutionAware) {
+        this.resolutionAware = resolutionAware;
+    }
+    
+    public boolean isAsynchronous() {
+        return renderer != null;
+    }
+    
+    /**
+     * Turns the asynchronous mode on or off. In asynchronous mode the 
+     * composite images are rendered on a background thread and 
+     * {@link #paintIcon(Component, Graphics, int, int)} only draws the 
+     * latest finished frame.
+     */
+    public synchronized void setAsynchronous(boolean asynchronous) {
+        AsyncRenderer renderer = this.renderer;
+        
+        if (asynchronous && renderer == null) {
+            renderer = new AsyncRenderer(this);
+            this.renderer = renderer;
+            
+        } else if (!asynchronous && renderer != null) {
+            renderer.shutdown();
+            this.renderer = null;
+        }
     }
 
     @Override
@@ -73,59 +279,579 @@ class World implements Icon {
         int width = c.getWidth();
         int height = c.getHeight();
         
-        CompositeRef compositeRef = this.compositeRef;
+        if (width <= 0 || height <= 0) {
+            return;
+        }
         
-        if (compositeRef == null || compositeRef.time != time) {
-            BufferedImage composite = createCompositeImage(time);
-            compositeRef = new CompositeRef(composite, time);
-            
-            this.compositeRef = compositeRef;
+        long start = RenderMetrics.start();
+        try {
+            paintComposite(c, g, width, height);
+        } finally {
+            RenderMetrics.stop(Metric.PAINT, start);
         }
+    }
+    
+    private void paintComposite(Component c, Graphics g, int width, int height) {
+        int renderWidth = resolutionAware ? width : getIconWidth();
+        int renderHeight = resolutionAware ? height : getIconHeight();
+        
+        AsyncRenderer renderer = this.renderer;
+        if (renderer != null) {
+            renderer.paint(c, g, width, height, 
+                    time, renderWidth, renderHeight);
+            return;
+        }
+        
+        long time = this.time;
+        MaskEngine engine = this.engine;
+        
+        // Components of different sizes keep their own composite
+        CompositeRef compositeRef = getCompositeRef(time, engine, 
+                renderWidth, renderHeight);
         
         Image image = compositeRef.getScaledInstance(width, height);
+        
+        long start = (image != compositeRef.composite) ? RenderMetrics.start() : 0L;
         g.drawImage(image, 0, 0, null);
+        RenderMetrics.stop(Metric.SCALE, start);
+    }
+    
+    /**
+     * Returns the composite image of the given size for the given time 
+     * and {@link MaskEngine}. Only the latest composite of a size is 
+     * kept and its buffer is reused for the next time. In incremental 
+     * mode every size keeps its own {@link IncrementalMask} and only 
+     * the pixels that changed since its last time are blended again.
+     */
+    private CompositeRef getCompositeRef(long time, MaskEngine engine, 
+            final int width, final int height) {
+        
+        CompositeRef compositeRef = composites.get(
+                new RecentlyUsed.Matcher<CompositeRef>() {
+            @Override
+            public boolean matches(CompositeRef value) {
+                return value.isSize(width, height);
+            }
+        });
+        
+        if (compositeRef != null && compositeRef.matches(
+                time, engine, width, height)) {
+            return compositeRef;
+        }
+        
+        boolean cached = (compositeRef != null);
+        if (!cached) {
+            compositeRef = new CompositeRef(new BufferedImage(
+                    width, height, BufferedImage.TYPE_INT_ARGB));
+        }
+        
+        int[] pixels = ImageUtils.getPixels(compositeRef.composite);
+        
+        if (incremental) {
+            // The mask of another engine can't be updated
+            if (compositeRef.incrementalMask == null 
+                    || compositeRef.engine != engine) {
+                compositeRef.incrementalMask = new IncrementalMask(width, height);
+            }
+            
+            updateCompositeImage(compositeRef.incrementalMask, 
+                    time, pixels, engine);
+        } else {
+            compositeRef.incrementalMask = null;
+            createCompositeImage(ClockUtils.solarPosition(time), Region.WORLD, 
+                    width, height, pixels, engine);
+        }
+        
+        compositeRef.update(time, engine);
+        
+        synchronized (textures) {
+            if (!cached) {
+                composites.add(compositeRef);
+            }
+            evict(width, height);
+        }
+        return compositeRef;
+    }
+    
+    /**
+     * Renders the composite image for the given time at the size of the
+     * textures into the given {@link BufferedImage#TYPE_INT_ARGB} pixels.
+     * 
+     * @see #createCompositeImage(long, int, int, int[])
+     */
+    void createCompositeImage(long time, int[] dst) {
+        createCompositeImage(time, getIconWidth(), getIconHeight(), dst);
+    }
+    
+    /**
+     * Renders the composite image for the given time and size into the 
+     * given {@link BufferedImage#TYPE_INT_ARGB} pixels. Neither the day 
+     * nor the night image are modified and it's safe to call this method 
+     * from multiple threads with different destinations.
+     */
+    void createCompositeImage(long time, int width, int height, int[] dst) {
+        createCompositeImage(time, Region.WORLD, width, height, dst);
+    }
+    
+    /**
+     * Renders the composite image of the given {@link Region} for the 
+     * given time and size. Only the window of the {@link Region} is 
+     * sampled from the day and night images.
+     * 
+     * @see #createCompositeImage(long, int, int, int[])
+     */
+    void createCompositeImage(long time, Region region, 
+            int width, int height, int[] dst) {
+        createCompositeImage(ClockUtils.solarPosition(time), 
+                region, width, height, dst);
+    }
+    
+    /**
+     * Renders the composite image of the given {@link Region} for the 
+     * given {@link SolarPosition}.
+     * 
+     * @see #createCompositeImage(long, Region, int, int, int[])
+     */
+    void createCompositeImage(SolarPosition position, Region region, 
+            int width, int height, int[] dst) {
+        createCompositeImage(position, region, width, height, dst, engine);
+    }
+    
+    /**
+     * Renders the composite image of the given {@link Region} for the 
+     * given {@link SolarPosition} with the given {@link MaskEngine}.
+     * 
+     * @see #createCompositeImage(SolarPosition, Region, int, int, int[])
+     */
+    void createCompositeImage(SolarPosition position, Region region, 
+            int width, int height, int[] dst, MaskEngine engine) {
+        
+        if (dst.length != width * height) {
+            throw new IllegalArgumentException("length=" + dst.length);
+        }
+        
+        Textures textures = getTextures(region, width, height);
+        
+        byte[] mask = textures.masks.acquire();
+        try {
+            long start = RenderMetrics.start();
+            ClockUtils.createMask(position, region, width, height, 
+                    mask, 0, width, engine);
+            RenderMetrics.stop(Metric.MASK, start);
+            
+            start = RenderMetrics.start();
+            textures.blend(mask, dst, 0, dst.length);
+            RenderMetrics.stop(Metric.BLEND, start);
+        } finally {
+            textures.masks.release(mask);
+        }
+    }
+    
+    /**
+     * Renders the composite image in the given {@link Projection} for 
+     * the given time and size. The mask and the textures are computed on 
+     * the equirectangular grid of the projection and sampled through its 
+     * {@link ProjectionTable}, so the cost per frame is about the same as 
+     * for the equirectangular map. Pixels that aren't on the map are 0.
+     * 
+     * @see #createCompositeImage(long, int, int, int[])
+     */
+    void createCompositeImage(long time, Projection projection, 
+            int width, int height, int[] dst) {
+        createCompositeImage(ClockUtils.solarPosition(time), 
+                projection, width, height, dst);
+    }
+    
+    /**
+     * Renders the composite image in the given {@link Projection} for 
+     * the given {@link SolarPosition}.
+     * 
+     * @see #createCompositeImage(long, Projection, int, int, int[])
+     */
+    void createCompositeImage(SolarPosition position, Projection projection, 
+            int width, int height, int[] dst) {
+        
+        if (projection.isEquirectangular()) {
+            createCompositeImage(position, Region.WORLD, width, height, dst);
+            return;
+        }
+        
+        if (dst.length != width * height) {
+            throw new IllegalArgumentException("length=" + dst.length);
+        }
+        
+        ProjectionTable table = projection.getTable(width, height);
+        int gridWidth = table.getGridWidth();
+        int gridHeight = table.getGridHeight();
+        
+        Region region = table.getRegion();
+        
+        Textures textures = getTextures(region, gridWidth, gridHeight);
+        
+        byte[] mask = textures.masks.acquire();
+        try {
+            long start = RenderMetrics.start();
+            ClockUtils.createMask(position, region, gridWidth, gridHeight, 
+                    mask, 0, gridWidth, engine);
+            RenderMetrics.stop(Metric.MASK, start);
+            
+            start = RenderMetrics.start();
+            textures.blend(mask, table.getIndex(), dst, 0, dst.length);
+            RenderMetrics.stop(Metric.BLEND, start);
+        } finally {
+            textures.masks.release(mask);
+        }
+    }
+    
+    /**
+     * Updates the composite image in place and re-blends only the 
+     * pixels whose mask value changed since the last update of the
+     * given {@link IncrementalMask}.
+     */
+    void updateCompositeImage(IncrementalMask incrementalMask, 
+            long time, int[] pixels) {
+        updateCompositeImage(incrementalMask, time, pixels, engine);
+    }
+    
+    /**
+     * Updates the composite image in place with the given 
+     * {@link MaskEngine}.
+     * 
+     * @see #updateCompositeImage(IncrementalMask, long, int[])
+     */
+    void updateCompositeImage(IncrementalMask incrementalMask, 
+            long time, int[] pixels, MaskEngine engine) {
+        
+        Textures textures = getTextures(
+                incrementalMask.getWidth(), 
+                incrementalMask.getHeight());
+        
+        byte[] mask = incrementalMask.getMask();
+        
+        long start = RenderMetrics.start();
+        boolean updated = incrementalMask.update(time, engine);
+        RenderMetrics.stop(Metric.MASK, start);
+        
+        start = RenderMetrics.start();
+        if (updated) {
+            int[] dirty = incrementalMask.getDirty();
+            int count = incrementalMask.getDirtyCount();
+            
+            for (int i = 0; i < count; i++) {
+                int index = dirty[i];
+                pixels[index] = textures.blend(mask, index);
+            }
+        } else {
+            textures.blend(mask, pixels, 0, pixels.length);
+        }
+        RenderMetrics.stop(Metric.BLEND, start);
+    }
+    
+    /**
+     * Returns the day and night textures at the given size. The 
+     * textures are scaled once and the last few sizes are kept.
+     */
+    private Textures getTextures(int width, int height) {
+        return getTextures(Region.WORLD, width, height);
+    }
+    
+    /**
+     * Returns the window of the day and night textures that is covered 
+     * by the given {@link Region} at the given size. Threads that miss 
+     * the same textures at the same time (like the workers of a 
+     * {@link TimeLapse}) wait for a single scale.
+     */
+    private Textures getTextures(final Region region, 
+            final int width, final int height) {
+        
+        if (original.matches(region, width, height)) {
+            return original;
+        }
+        
+        RecentlyUsed.Matcher<Textures> matcher = new RecentlyUsed.Matcher<Textures>() {
+            @Override
+            public boolean matches(Textures value) {
+                return value.matches(region, width, height);
+            }
+        };
+        
+        Textures value = textures.get(matcher);
+        if (value != null) {
+            RenderMetrics.increment(Metric.TEXTURE_CACHE_HIT);
+            return value;
+        }
+        
+        synchronized (scaling) {
+            value = textures.get(matcher);
+            if (value != null) {
+                RenderMetrics.increment(Metric.TEXTURE_CACHE_HIT);
+                return value;
+            }
+            
+            return createTextures(region, width, height);
+        }
+    }
+    
+    /**
+     * Scales the day and night textures to the given {@link Region} 
+     * and size and adds them to the recently used textures.
+     */
+    private Textures createTextures(Region region, int width, int height) {
+        RenderMetrics.increment(Metric.TEXTURE_CACHE_MISS);
+        
+        long start = RenderMetrics.start();
+        Textures scaled;
+        if (region.isWorld()) {
+            scaled = new Textures(region, 
+                    scale(ImageUtils.resample(day, width, height)), 
+                    scale(ImageUtils.resample(night, width, height)));
+        } else {
+            Rectangle2D window = getWindow(region);
+            BufferedImage day = this.day;
+            BufferedImage night = this.night;
+            
+            if (region.isWrapped()) {
+                // Rolls the images so the window doesn't cross their edge
+                int shift = (int)window.getX();
+                day = ImageUtils.roll(day, shift);
+                night = ImageUtils.roll(night, shift);
+                window = new Rectangle2D.Double(window.getX() - shift, 
+                        window.getY(), window.getWidth(), window.getHeight());
+            }
+            
+            scaled = new Textures(region, 
+                    scale(ImageUtils.resample(day, window, width, height)), 
+                    scale(ImageUtils.resample(night, window, width, height)));
+        }
+        RenderMetrics.stop(Metric.SCALE, start);
+        
+        synchronized (textures) {
+            textures.add(scaled);
+            evict(width, height);
+        }
+        return scaled;
+    }
+    
+    /**
+     * Converts a resampled texture into the storage of this {@link World}.
+     */
+    private BufferedImage scale(BufferedImage image) {
+        return compact ? ImageUtils.toBGR(image) : image;
+    }
+    
+    /**
+     * Evicts the least recently used textures and composite images 
+     * until all buffers fit into the memory limit. The textures are 
+     * more expensive to recreate and are kept first. The textures 
+     * and the composite image of the given size are in use and 
+     * aren't evicted.
+     */
+    private void evict(int width, int height) {
+        long size = getBufferSize();
+        
+        for (Textures value : textures.values()) {
+            size += value.getSize();
+            if (size > memoryLimit && !value.isSize(width, height)) {
+                size -= value.getSize();
+                textures.remove(value);
+            }
+        }
+        
+        for (CompositeRef value : composites.values()) {
+            size += value.getSize();
+            if (size > memoryLimit && !value.isSize(width, height)) {
+                size -= value.getSize();
+                composites.remove(value);
+            }
+        }
+    }
+    
+    /**
+     * Returns the window of the day and night images in pixels 
+     * that is covered by the given {@link Region}. The window of a 
+     * {@link Region} that crosses the 180th meridian extends past 
+     * the right edge of the images.
+     */
+    private Rectangle2D getWindow(Region region) {
+        double width = getIconWidth();
+        double height = getIconHeight();
+        
+        // A west edge at 180 degrees is the left edge of the images
+        double x0 = (region.getWest() + 180.0) / 360.0 * width % width;
+        double x1 = x0 + region.getLongitudes() / 360.0 * width;
+        double y0 = (90.0 - region.getNorth()) / 180.0 * height;
+        double y1 = (90.0 - region.getSouth()) / 180.0 * height;
+        
+        return new Rectangle2D.Double(x0, y0, x1 - x0, y1 - y0);
     }
     
-    private BufferedImage createCompositeImage(long time) {
-        int imageWidth = day.getWidth();
-        int imageHeight = day.getHeight();
+    /**
+     * The pixels of the day and night textures of a {@link Region} 
+     * at a certain size.
+     */
+    private static class Textures {
+        
+        private final Region region;
+        
+        private final int width;
+        
+        private final int height;
+        
+        /**
+         * The pixels of {@link BufferedImage#TYPE_INT_ARGB} textures 
+         * or null.
+         */
+        private final int[] day;
+        
+        private final int[] night;
+        
+        /**
+         * The pixels of {@link BufferedImage#TYPE_3BYTE_BGR} textures 
+         * or null.
+         */
+        private final byte[] dayBytes;
+        
+        private final byte[] nightBytes;
+        
+        private final MaskPool masks;
+        
+        public Textures(Region region, BufferedImage day, BufferedImage night) {
+            this.region = region;
+            this.width = day.getWidth();
+            this.height = day.getHeight();
+            
+            if (day.getType() == BufferedImage.TYPE_3BYTE_BGR) {
+                this.day = null;
+                this.night = null;
+                this.dayBytes = ImageUtils.getBytes(day);
+                this.nightBytes = ImageUtils.getBytes(night);
+            } else {
+                this.day = ImageUtils.getPixels(day);
+                this.night = ImageUtils.getPixels(night);
+                this.dayBytes = null;
+                this.nightBytes = null;
+            }
+            
+            this.masks = new MaskPool(width * height, 2);
+        }
         
-        int[] mask = ClockUtils.createMask(time, imageWidth, imageHeight);
+        public boolean matches(Region region, int width, int height) {
+            return isSize(width, height) && this.region.equals(region);
+        }
         
-        WritableRaster alphaMask = night.getAlphaRaster();
-        alphaMask.setPixels(0, 0, imageWidth, imageHeight, mask);
+        public boolean isSize(int width, int height) {
+            return this.width == width && this.height == height;
+        }
         
-        BufferedImage composite = new BufferedImage(
-                imageWidth, imageHeight, 
-                BufferedImage.TYPE_INT_ARGB);
+        /**
+         * Returns the memory of the textures and the masks in 
+         * their pool in bytes.
+         */
+        public long getSize() {
+            long size;
+            if (day != null) {
+                size = 4L * day.length + 4L * night.length;
+            } else {
+                size = (long)dayBytes.length + nightBytes.length;
+            }
+            return size + masks.getPooledSize();
+        }
         
-        Graphics2D gfx = composite.createGraphics();
-        gfx.drawImage(day, 0, 0, null);
-        gfx.drawImage(night, 0, 0, null);
+        public void blend(byte[] mask, int[] dst, int from, int to) {
+            if (day != null) {
+                Blender.blend(day, night, mask, dst, from, to);
+            } else {
+                Blender.blend(dayBytes, nightBytes, mask, dst, from, to);
+            }
+        }
         
-        gfx.dispose();
+        public void blend(byte[] mask, int[] index, int[] dst, int from, int to) {
+            if (day != null) {
+                Blender.blend(day, night, mask, index, dst, from, to);
+            } else {
+                Blender.blend(dayBytes, nightBytes, mask, index, dst, from, to);
+            }
+        }
         
-        return composite;
+        public int blend(byte[] mask, int index) {
+            int alpha = mask[index] & 0xFF;
+            if (day != null) {
+                return Blender.blend(day[index], night[index], alpha);
+            }
+            return Blender.blend(Blender.rgb(dayBytes, index), 
+                    Blender.rgb(nightBytes, index), alpha);
+        }
     }
     
     private static class CompositeRef {
         
         private final BufferedImage composite;
         
-        private final long time;
+        private IncrementalMask incrementalMask = null;
+        
+        private long time;
+        
+        private MaskEngine engine = null;
         
-        private Image image = null;
+        /**
+         * The scaled copy can be recreated so the garbage 
+         * collector may clear it.
+         */
+        private SoftReference<Image> image = null;
         
-        public CompositeRef(BufferedImage composite, long time) {
+        public CompositeRef(BufferedImage composite) {
             this.composite = composite;
+        }
+        
+        /**
+         * Marks the composite image as rendered for the given time 
+         * and {@link MaskEngine}.
+         */
+        public void update(long time, MaskEngine engine) {
             this.time = time;
+            this.engine = engine;
+            this.image = null;
+        }
+        
+        public boolean matches(long time, MaskEngine engine, 
+                int width, int height) {
+            return this.time == time && this.engine == engine 
+                    && isSize(width, height);
+        }
+        
+        /**
+         * Returns the memory of the composite image and its 
+         * incremental mask in bytes.
+         */
+        public long getSize() {
+            long size = 4L * composite.getWidth() * composite.getHeight();
+            
+            IncrementalMask incrementalMask = this.incrementalMask;
+            if (incrementalMask != null) {
+                size += incrementalMask.getSize();
+            }
+            return size;
+        }
+        
+        public boolean isSize(int width, int height) {
+            return composite.getWidth() == width 
+                    && composite.getHeight() == height;
         }
         
         public Image getScaledInstance(int width, int height) {
+            if (isSize(width, height)) {
+                return composite;
+            }
+            
+            Image image = (this.image != null) ? this.image.get() : null;
             if (image == null || image.getWidth(null) != width
                     || image.getHeight(null) != height) {
+                RenderMetrics.increment(Metric.SCALED_IMAGE_CACHE_MISS);
                 image = composite.getScaledInstance(
                     width, height, BufferedImage.SCALE_DEFAULT);
+                this.image = new SoftReference<Image>(image);
+            } else {
+                RenderMetrics.increment(Metric.SCALED_IMAGE_CACHE_HIT);
             }
             
             return image;
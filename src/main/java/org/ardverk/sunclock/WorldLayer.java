@@ -0,0 +1,95 @@
+/*
+ * Copyright 2010 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.sunclock;
+
+/**
+ * A {@link Layer} with the day and night image of a {@link World}. The
+ * layer is rendered again whenever the time or the settings of the 
+ * {@link World} change.
+ */
+class WorldLayer extends Layer {
+    
+    private final World world;
+    
+    private IncrementalMask incrementalMask = null;
+    
+    private MaskEngine engine = null;
+    
+    private long time;
+    
+    private long settings;
+    
+    private long version = 0L;
+    
+    public WorldLayer(World world) {
+        if (world == null) {
+            throw new NullPointerException("world");
+        }
+        
+        this.world = world;
+    }
+    
+    public World getWorld() {
+        return world;
+    }
+    
+    @Override
+    public int getWidth() {
+        return world.getIconWidth();
+    }
+    
+    @Override
+    public int getHeight() {
+        return world.getIconHeight();
+    }
+    
+    @Override
+    protected long getVersion() {
+        long time = world.getTime();
+        long settings = world.getVersion();
+        
+        if (time != this.time || settings != this.settings) {
+            this.time = time;
+            this.settings = settings;
+            version++;
+        }
+        return version;
+    }
+    
+    @Override
+    protected void render(int width, int height, int[] pixels) {
+        long time = world.getTime();
+        MaskEngine engine = world.getMaskEngine();
+        
+        if (!world.isIncremental()) {
+            incrementalMask = null;
+            world.createCompositeImage(ClockUtils.solarPosition(time), 
+                    Region.WORLD, width, height, pixels, engine);
+            return;
+        }
+        
+        // The mask of another engine can't be updated
+        if (incrementalMask == null || this.engine != engine
+                || incrementalMask.getWidth() != width 
+                || incrementalMask.getHeight() != height) {
+            incrementalMask = new IncrementalMask(width, height);
+            this.engine = engine;
+        }
+        
+        world.updateCompositeImage(incrementalMask, time, pixels, engine);
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2010 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.sunclock;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * The bands of an {@link AntialiasedMaskEngine} keep their own 
+ * buffers. Rendering them in parallel must give the same mask and 
+ * composite as rendering the whole mask on one thread.
+ */
+public class AntialiasedMaskEngineTest {
+    
+    private static final int[][] SIZES = { { 360, 180 }, { 1000, 333 } };
+    
+    private static final int[] BANDS = { 3, 6, 16 };
+    
+    private static ExecutorService executor;
+    
+    private static World world;
+    
+    @BeforeClass
+    public static void setUp() throws IOException {
+        executor = Executors.newFixedThreadPool(8);
+        world = new World(
+                ImageUtils.load(Main.class.getResource("world.jpg")), 
+                ImageUtils.load(Main.class.getResource("world_night.jpg")));
+    }
+    
+    @AfterClass
+    public static void tearDown() {
+        executor.shutdownNow();
+    }
+    
+    /**
+     * Updates the composite through the incremental path of the 
+     * {@link World} with a parallel engine for several hours and 
+     * compares every step with a serial rebuild.
+     */
+    @Test
+    public void parallelIncrementalMatchesSerialRebuild() {
+        long start = TestUtils.time(TestUtils.DATES[1]);
+        
+        for (int bands : BANDS) {
+            world.setMaskEngine(new ParallelMaskEngine(
+                    ClockUtils.ANTIALIASED, executor, bands, 0));
+            
+            for (int[] size : SIZES) {
+                int w = size[0];
+                int h = size[1];
+                long step = RepaintScheduler.getDelay(w, 360.0);
+                
+                IncrementalMask mask = new IncrementalMask(w, h);
+                int[] pixels = new int[w * h];
+                int[] expected = new int[w * h];
+                
+                for (int i = 0; i < 24; i++) {
+                    long time = start + i * 15L * step;
+                    world.updateCompositeImage(mask, time, pixels);
+                    
+                    String name = "bands=" + bands;
+                    TestUtils.assertEquals(TestUtils.describe(name + ", mask", time, w, h), 
+                            w, TestUtils.createMask(time, w, h, ClockUtils.ANTIALIASED), 
+                            mask.getMask());
+                    
+                    world.createCompositeImage(ClockUtils.solarPosition(time), 
+                            Region.WORLD, w, h, expected, ClockUtils.ANTIALIASED);
+                    TestUtils.assertEquals(TestUtils.describe(name + ", composite", time, w, h), 
+                            w, expected, pixels);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2010 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.sunclock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class BlenderTest {
+    
+    /**
+     * The integer blend must stay within 1 per channel of drawing the 
+     * night image with the mask as its alpha channel over the day image 
+     * with {@link Graphics2D}, which is how the composite image used to 
+     * be rendered. Every alpha is blended with random pixels.
+     */
+    @Test
+    public void matchesGraphics2D() {
+        Random random = new Random(0L);
+        
+        int w = 256;
+        int h = 64;
+        
+        int[] day = new int[w * h];
+        int[] night = new int[w * h];
+        byte[] mask = new byte[w * h];
+        
+        for (int i = 0; i < day.length; i++) {
+            day[i] = 0xFF000000 | random.nextInt();
+            night[i] = random.nextInt() & 0x00FFFFFF;
+            mask[i] = (byte)(i % 256);
+        }
+        
+        BufferedImage dayImage = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+        dayImage.setRGB(0, 0, w, h, day, 0, w);
+        
+        BufferedImage nightImage = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+        int[] pixels = ImageUtils.getPixels(nightImage);
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = (mask[i] << 24) | night[i];
+        }
+        
+        BufferedImage composite = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D gfx = composite.createGraphics();
+        gfx.drawImage(dayImage, 0, 0, null);
+        gfx.drawImage(nightImage, 0, 0, null);
+        gfx.dispose();
+        
+        int[] expected = ImageUtils.getPixels(composite);
+        int[] actual = new int[w * h];
+        Blender.blend(day, night, mask, actual, 0, actual.length);
+        
+        for (int i = 0; i < expected.length; i++) {
+            String message = "alpha=" + (mask[i] & 0xFF) 
+                    + ", day=" + Integer.toHexString(day[i]) 
+                    + ", night=" + Integer.toHexString(night[i]) 
+                    + ", expected=" + Integer.toHexString(expected[i]) 
+                    + ", actual=" + Integer.toHexString(actual[i]);
+            
+            assertEquals(message, 0xFF, actual[i] >>> 24);
+            for (int shift = 0; shift < 24; shift += 8) {
+                int e = (expected[i] >>> shift) & 0xFF;
+                int a = (actual[i] >>> shift) & 0xFF;
+                assertTrue(message, Math.abs(e - a) <= 1);
+            }
+        }
+    }
+    
+    /**
+     * Masks that are 0x00 or 0xFF give the day and the night pixel.
+     */
+    @Test
+    public void opaqueAndTransparent() {
+        assertEquals(0xFF123456, Blender.blend(0x00123456, 0x00ABCDEF, 0x00));
+        assertEquals(0xFFABCDEF, Blender.blend(0x00123456, 0x00ABCDEF, 0xFF));
+    }
+    
+    /**
+     * {@link java.awt.image.BufferedImage#TYPE_3BYTE_BGR} textures must 
+     * blend exactly like {@link BufferedImage#TYPE_INT_ARGB} textures.
+     */
+    @Test
+    public void bytesMatchInts() {
+        Random random = new Random(1L);
+        
+        int length = 4096;
+        int[] day = new int[length];
+        int[] night = new int[length];
+        byte[] dayBytes = new byte[3 * length];
+        byte[] nightBytes = new byte[3 * length];
+        byte[] mask = new byte[length];
+        
+        for (int i = 0; i < length; i++) {
+            day[i] = random.nextInt() & 0x00FFFFFF;
+            night[i] = random.nextInt() & 0x00FFFFFF;
+            mask[i] = (byte)random.nextInt(256);
+            
+            toBGR(day[i], dayBytes, i);
+            toBGR(night[i], nightBytes, i);
+        }
+        
+        int[] expected = new int[length];
+        int[] actual = new int[length];
+        Blender.blend(day, night, mask, expected, 0, length);
+        Blender.blend(dayBytes, nightBytes, mask, actual, 0, length);
+        
+        TestUtils.assertEquals("bytes", length, expected, actual);
+    }
+    
+    private static void toBGR(int rgb, byte[] dst, int index) {
+        dst[3 * index] = (byte)rgb;
+        dst[3 * index + 1] = (byte)(rgb >>> 8);
+        dst[3 * index + 2] = (byte)(rgb >>> 16);
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2010 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.sunclock;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ClockUtilsTest {
+    
+    /**
+     * The {@code int[]} masks widen the byte masks of the same engine. 
+     * The pooled byte buffers are replaced by masks of other sizes and 
+     * reused by masks of another time.
+     */
+    @Test
+    public void intMaskMatchesByteMask() {
+        MaskEngine[] engines = { ClockUtils.PER_PIXEL, ClockUtils.PER_COLUMN, 
+                ClockUtils.GRADIENT, ClockUtils.ANTIALIASED };
+        int[][] sizes = { { 400, 200 }, { 97, 61 }, { 360, 180 } };
+        
+        long[] times = TestUtils.times(new Random(0L), 2);
+        
+        for (MaskEngine engine : engines) {
+            for (int i = 0; i < times.length; i++) {
+                for (int[] size : sizes) {
+                    int w = size[0];
+                    int h = size[1];
+                    
+                    long time = times[(i + w) % times.length];
+                    byte[] expected = TestUtils.createMask(time, w, h, engine);
+                    int[] actual = ClockUtils.createMask(time, w, h, engine);
+                    
+                    assertEquals(expected.length, actual.length);
+                    for (int k = 0; k < expected.length; k++) {
+                        assertEquals(TestUtils.describe(engine.getClass().getSimpleName(), time, w, h) 
+                                + ", x=" + (k % w) + ", y=" + (k / w), 
+                                expected[k] & 0xFF, actual[k]);
+                    }
+                }
+            }
+        }
+    }
+}
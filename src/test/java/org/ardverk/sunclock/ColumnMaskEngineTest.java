@@ -0,0 +1,128 @@
+/*
+ * Copyright 2010 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.sunclock;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * {@link ClockUtils#PER_COLUMN} must match {@link ClockUtils#PER_PIXEL} 
+ * byte for byte.
+ */
+public class ColumnMaskEngineTest {
+    
+    private static final int[][] SIZES = { 
+        { 97, 61 }, { 360, 180 }, { 1000, 333 }, { 2048, 1024 } 
+    };
+    
+    private static final int[][] ODD_SIZES = { 
+        { 1, 1 }, { 3, 7 }, { 101, 1 }, { 1, 99 }, { 359, 179 }, { 999, 501 } 
+    };
+    
+    /**
+     * Boxes that don't cover the whole world, including ones that 
+     * touch a pole or the date line or cross it.
+     */
+    private static final Region[] REGIONS = { 
+        new Region(72.0, 34.0, -25.0, 45.0), 
+        new Region(90.0, 60.0, -180.0, 180.0), 
+        new Region(-40.0, -90.0, 100.0, 180.0), 
+        new Region(10.5, -10.25, -0.75, 0.75), 
+        new Region(30.0, -30.0, 150.0, -150.0) 
+    };
+    
+    private static final long JUNE_SOLSTICE 
+        = TestUtils.time("2010-06-21T11:28:00Z");
+    
+    private static final long DECEMBER_SOLSTICE 
+        = TestUtils.time("2010-12-21T23:38:00Z");
+    
+    @Test
+    public void matchesPixelEngine() {
+        for (long time : TestUtils.times(new Random(0L), 8)) {
+            for (int[] size : SIZES) {
+                assertMatches(time, Region.WORLD, size[0], size[1]);
+            }
+        }
+    }
+    
+    @Test
+    public void matchesPixelEngineAtOddSizes() {
+        for (long time : TestUtils.times(new Random(1L), 4)) {
+            for (int[] size : ODD_SIZES) {
+                assertMatches(time, Region.WORLD, size[0], size[1]);
+            }
+        }
+    }
+    
+    @Test
+    public void matchesPixelEngineInRegions() {
+        for (long time : TestUtils.times(new Random(2L), 4)) {
+            for (Region region : REGIONS) {
+                assertMatches(time, region, 333, 201);
+                assertMatches(time, region, 64, 17);
+            }
+        }
+    }
+    
+    /**
+     * Above the arctic circle the sun doesn't set around the June 
+     * solstice and the sun stays below the twilight horizon around 
+     * the December solstice. The antarctic is the other way round.
+     */
+    @Test
+    public void polarDayAndNight() {
+        Region arctic = new Region(90.0, 76.0, -180.0, 180.0);
+        Region antarctic = new Region(-76.0, -90.0, -180.0, 180.0);
+        
+        for (int hour = 0; hour < 24; hour += 3) {
+            long offset = hour * 60L * 60L * 1000L;
+            
+            assertFilled(JUNE_SOLSTICE + offset, arctic, 0x00);
+            assertFilled(JUNE_SOLSTICE + offset, antarctic, 0xFF);
+            assertFilled(DECEMBER_SOLSTICE + offset, arctic, 0xFF);
+            assertFilled(DECEMBER_SOLSTICE + offset, antarctic, 0x00);
+        }
+    }
+    
+    /**
+     * Checks that both engines fill the whole mask of the given 
+     * {@link Region} with the given value.
+     */
+    private static void assertFilled(long time, Region region, int value) {
+        int w = 181;
+        int h = 37;
+        
+        assertMatches(time, region, w, h);
+        
+        byte[] mask = TestUtils.createMask(time, region, w, h, ClockUtils.PER_COLUMN);
+        for (int i = 0; i < mask.length; i++) {
+            assertEquals(TestUtils.describe("polar " + region, time, w, h) 
+                    + ", x=" + (i % w) + ", y=" + (i / w), value, mask[i] & 0xFF);
+        }
+    }
+    
+    private static void assertMatches(long time, Region region, int w, int h) {
+        byte[] expected = TestUtils.createMask(time, region, w, h, ClockUtils.PER_PIXEL);
+        byte[] actual = TestUtils.createMask(time, region, w, h, ClockUtils.PER_COLUMN);
+        TestUtils.assertEquals(TestUtils.describe(
+                "column " + region, time, w, h), w, expected, actual);
+    }
+}
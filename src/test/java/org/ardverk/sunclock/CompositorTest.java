@@ -0,0 +1,155 @@
+/*
+ * Copyright 2010 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.sunclock;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class CompositorTest {
+    
+    /**
+     * A layer whose version changes while the {@link Compositor} 
+     * renders it must be blended into the composite once it's 
+     * rendered and not only after the next unrelated change.
+     */
+    @Test
+    public void versionChangesDuringRender() {
+        SolidLayer lower = new SolidLayer(0x000000);
+        SolidLayer upper = new SolidLayer(0x0000FF);
+        Compositor compositor = new Compositor(lower, upper);
+        
+        assertEquals(0xFF0000FF, compositor.getImage(8, 4).getRGB(3, 2));
+        
+        // The version changes right after the compositor 
+        // first reads it, like from another thread
+        upper.color = 0x00FF00;
+        upper.bump = true;
+        compositor.getImage(8, 4);
+        
+        BufferedImage image = compositor.getImage(8, 4);
+        assertEquals(2, upper.renders);
+        assertEquals(0xFF00FF00, image.getRGB(3, 2));
+    }
+    
+    /**
+     * Layers are only rendered when they change and a change of the 
+     * lowest layer blends all layers above it again.
+     */
+    @Test
+    public void rendersChangedLayers() {
+        SolidLayer lower = new SolidLayer(0x000000);
+        SolidLayer upper = new SolidLayer(0x00FF00);
+        upper.alpha = 0x00;
+        Compositor compositor = new Compositor(lower, upper);
+        
+        compositor.getImage(8, 4);
+        compositor.getImage(8, 4);
+        assertEquals(1, lower.renders);
+        assertEquals(1, upper.renders);
+        
+        lower.color = 0xFF0000;
+        lower.version++;
+        BufferedImage image = compositor.getImage(8, 4);
+        assertEquals(0xFFFF0000, image.getRGB(0, 0));
+        assertEquals(2, lower.renders);
+        assertEquals(1, upper.renders);
+        
+        image = compositor.getImage(16, 8);
+        assertEquals(0xFFFF0000, image.getRGB(15, 7));
+        assertEquals(3, lower.renders);
+        assertEquals(2, upper.renders);
+    }
+    
+    /**
+     * A {@link WorldLayer} is rendered again when the settings of 
+     * its {@link World} change and not only when the time does.
+     */
+    @Test
+    public void worldLayerSettings() {
+        long time = TestUtils.time(TestUtils.DATES[0]);
+        World world = new World(
+                new BufferedImage(64, 32, BufferedImage.TYPE_INT_RGB), 
+                new BufferedImage(64, 32, BufferedImage.TYPE_INT_RGB), 
+                time);
+        world.setMaskEngine(ClockUtils.PER_COLUMN);
+        
+        WorldLayer layer = new WorldLayer(world);
+        layer.getImage(64, 32);
+        layer.getImage(64, 32);
+        assertEquals(1L, layer.getSerial());
+        
+        world.setMaskEngine(ClockUtils.GRADIENT);
+        layer.getImage(64, 32);
+        assertEquals(2L, layer.getSerial());
+        
+        world.setIncremental(false);
+        layer.getImage(64, 32);
+        assertEquals(3L, layer.getSerial());
+        
+        world.setTime(time + 60L * 1000L);
+        layer.getImage(64, 32);
+        layer.getImage(64, 32);
+        assertEquals(4L, layer.getSerial());
+    }
+    
+    private static class SolidLayer extends Layer {
+        
+        private int color;
+        
+        private int alpha = 0xFF;
+        
+        private long version = 0L;
+        
+        private boolean bump = false;
+        
+        private int renders = 0;
+        
+        public SolidLayer(int color) {
+            this.color = color;
+        }
+        
+        @Override
+        public int getWidth() {
+            return 8;
+        }
+        
+        @Override
+        public int getHeight() {
+            return 4;
+        }
+        
+        @Override
+        protected long getVersion() {
+            long version = this.version;
+            if (bump) {
+                bump = false;
+                this.version++;
+            }
+            return version;
+        }
+        
+        @Override
+        protected void render(int width, int height, int[] pixels) {
+            Arrays.fill(pixels, (alpha << 24) | color);
+            renders++;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2010 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.ardverk.sunclock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class EphemerisTableTest {
+    
+    private static final long DAY = ClockUtils.MILLIS_PER_DAY;
+    
+    /**
+     * A table with an entry for every day returns the same 
+     * positions as the series.
+     */
+    @Test
+    public void dailyTableIsExact() {
+        EphemerisTable table = EphemerisTable.create(2010, 2010, 1);
+        assertEquals(0.0, table.getMaxError(), 0.0);
+        
+        Random random = new Random(0L);
+        for (long time = table.getStart(); time < table.getEnd(); time += DAY) {
+            long t = time + (long)(random.nextDouble() * DAY);
+            assertSame(SolarPosition.valueOf(t), table.get(t));
+        }
+    }
+    
+    /**
+     * A coarser table returns the values of the series at its 
+     * entries and stays within its error bound between them.
+     */
+    @Test
+    public void interpolation() {
+        int interval = 5;
+        EphemerisTable table = EphemerisTable.create(2010, 2010, interval);
+        
+        double maxError = table.getMaxError();
+        assertTrue(String.valueOf(maxError), maxError > 0.0 && maxError < 0.1);
+        
+        Random random = new Random(0L);
+        int day = 0;
+        for (long time = table.getStart(); time < table.getEnd(); time += DAY) {
+            long t = time + (long)(random.nextDouble() * DAY);
+            SolarPosition expected = SolarPosition.valueOf(t);
+            SolarPosition actual = table.get(t);
+            
+            if (day++ % interval == 0) {
+                assertSame(expected, actual);
+            } else {
+                String message = TestUtils.describe("error", t, 0, 0);
+                assertEquals(message, 0.0, angle(expected.alpha - actual.alpha), maxError);
+                assertEquals(message, 0.0, Math.toDegrees(expected.delta - actual.delta), maxError);
+                assertEquals(message, 0.0, angle(expected.theta - actual.theta), maxError);
+                assertEquals(message, expected.ftime, actual.ftime, 0.0);
+            }
+        }
+    }
+    
+    /**
+     * Times outside of the range of the table are computed 
+     * with the series.
+     */
+    @Test
+    public void outOfRange() {
+        EphemerisTable table = EphemerisTable.create(2010, 2010, 5);
+        
+        long before = table.getStart() - 1L;
+        assertSame(SolarPosition.valueOf(before), table.get(before));
+        assertSame(SolarPosition.valueOf(table.getEnd()), table.get(table.getEnd()));
+    }
+    
+    /**
+     * A table that is read back returns the same positions.
+     */
+    @Test
+    public void readWrite() throws IOException {
+        EphemerisTable table = EphemerisTable.create(2010, 2010, 7);
+        EphemerisTable copy = EphemerisTable.read(
+                new ByteArrayInputStream(toByteArray(table)));
+        
+        assertEquals(table.toString(), copy.toString());
+        assertEquals(table.getStart(), copy.getStart());
+        assertEquals(table.getEnd(), copy.getEnd());
+        assertEquals(table.getMaxError(), copy.getMaxError(), 0.0);
+        
+        for (long time = table.getStart(); time < table.getEnd(); time += DAY / 3L) {
+            assertSame(table.get(time), copy.get(time));
+        }
+    }
+    
+    /**
+     * Files with a wrong header or a header that doesn't match 
+     * the entries are rejected.
+     */
+    @Test
+    public void header() throws IOException {
+        byte[] data = toByteArray(EphemerisTable.create(2010, 2010, 7));
+        
+        // magic, version, firstDay, lastDay, firstJulianDay, 
+        // interval, count, maxError
+        assertRejected(putInt(data, 0, 0x12345678));
+        assertRejected(putInt(data, 4, 2));
+        assertRejected(putLong(data, 8, 0L));
+        assertRejected(putLong(data, 16, Long.MAX_VALUE));
+        assertRejected(putInt(data, 32, 0));
+        assertRejected(putInt(data, 36, 1000));
+        assertRejected(putDouble(data, 40, Double.NaN));
+        
+        byte[] truncated = new byte[data.length - 1];
+        System.arraycopy(data, 0, truncated, 0, truncated.length);
+        assertRejected(truncated);
+    }
+    
+    private static void assertRejected(byte[] data) {
+        try {
+            EphemerisTable.read(new ByteArrayInputStream(data));
+            fail("Should have failed");
+        } catch (IOException expected) {
+        }
+    }
+    
+    private static byte[] putInt(byte[] data, int offset, int value) {
+        byte[] copy = data.clone();
+        ByteBuffer.wrap(copy).putInt(offset, value);
+        return copy;
+    }
+    
+    private static byte[] putLong(byte[] data, int offset, long value) {
+        byte[] copy = data.clone();
+        ByteBuffer.wrap(copy).putLong(offset, value);
+        return copy;
+    }
+    
+    private static byte[] putDouble(byte[] data, int offset, double value) {
+        byte[] copy = data.clone();
+        ByteBuffer.wrap(copy).putDouble(offset, value);
+        return copy;
+    }
+    
+    private static byte[] toByteArray(EphemerisTable table) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        table.write(new DataOutputStream(out));
+        return out.toByteArray();
+    }
+    
+    private static void assertSame(SolarPosition expected, SolarPosition actual) {
+        String message = TestUtils.describe("position", expected.time, 0, 0);
+        assertEquals(message, expected.time, actual.time);
+        assertEquals(message, expected.alpha, actual.alpha, 0.0);
+        assertEquals(message, expected.delta, actual.delta, 0.0);
+        assertEquals(message, expected.theta, actual.theta, 0.0);
+        assertEquals(message, expected.ftime, actual.ftime, 0.0);
+    }
+    
+    /**
+     * Wraps the given difference of two angles into [-180, 180).
+     */
+    private static double angle(double degrees) {
+        return degrees - 360.0 * Math.floor((degrees + 180.0) / 360.0);
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2010 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.ardverk.sunclock;
+
+import static java.lang.Math.acos;
+import static java.lang.Math.asin;
+import static java.lang.Math.cos;
+import static java.lang.Math.sin;
+import static java.lang.Math.toDegrees;
+import static java.lang.Math.toRadians;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class GradientMaskEngineTest {
+    
+    private static final int WIDTH = 360;
+    
+    private static final int HEIGHT = 180;
+    
+    /**
+     * Pixels closer than this (in degrees) to a threshold 
+     * may round either way.
+     */
+    private static final double EPSILON = 0.05;
+    
+    private static final double SUNSET = ClockUtils.HORIZON_SEA_LEVEL;
+    
+    private static final double NIGHT = -18.0;
+    
+    /**
+     * The mask is clear above the sea level horizon and opaque 
+     * below the end of astronomical twilight.
+     */
+    @Test
+    public void ends() {
+        for (String date : TestUtils.DATES) {
+            long time = TestUtils.time(date);
+            SolarPosition position = ClockUtils.solarPosition(time);
+            byte[] mask = TestUtils.createMask(time, WIDTH, HEIGHT, ClockUtils.GRADIENT);
+            
+            for (int i = 0; i < HEIGHT; i++) {
+                for (int j = 0; j < WIDTH; j++) {
+                    double altitude = altitude(position, i, j);
+                    String message = message(time, i, j, altitude);
+                    
+                    if (altitude > SUNSET + EPSILON) {
+                        assertEquals(message, 0x00, mask[i * WIDTH + j] & 0xFF);
+                    } else if (altitude < NIGHT - EPSILON) {
+                        assertEquals(message, 0xFF, mask[i * WIDTH + j] & 0xFF);
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * The opacity of the mask grows as the sun sinks through 
+     * the twilight band.
+     */
+    @Test
+    public void monotonic() {
+        double step = 2.0 * EPSILON;
+        int bins = (int)Math.ceil((SUNSET - NIGHT) / step) + 1;
+        
+        for (String date : TestUtils.DATES) {
+            long time = TestUtils.time(date);
+            SolarPosition position = ClockUtils.solarPosition(time);
+            byte[] mask = TestUtils.createMask(time, WIDTH, HEIGHT, ClockUtils.GRADIENT);
+            
+            // The smallest and the largest opacity of every 
+            // bin of altitudes from the night up
+            int[] min = new int[bins];
+            int[] max = new int[bins];
+            Arrays.fill(min, Integer.MAX_VALUE);
+            Arrays.fill(max, -1);
+            
+            for (int i = 0; i < HEIGHT; i++) {
+                for (int j = 0; j < WIDTH; j++) {
+                    double altitude = altitude(position, i, j);
+                    if (altitude < NIGHT || altitude > SUNSET) {
+                        continue;
+                    }
+                    
+                    int bin = (int)((altitude - NIGHT) / step);
+                    int value = mask[i * WIDTH + j] & 0xFF;
+                    min[bin] = Math.min(min[bin], value);
+                    max[bin] = Math.max(max[bin], value);
+                }
+            }
+            
+            // Bins that aren't next to each other don't overlap
+            int lowest = Integer.MAX_VALUE;
+            int count = 0;
+            for (int bin = 2; bin < bins; bin++) {
+                if (max[bin-2] != -1) {
+                    lowest = Math.min(lowest, min[bin-2]);
+                }
+                
+                if (max[bin] != -1) {
+                    String message = TestUtils.describe("bin " + bin, time, WIDTH, HEIGHT);
+                    assertTrue(message + ", max=" + max[bin] + ", lowest=" + lowest, 
+                            max[bin] <= lowest);
+                    count++;
+                }
+            }
+            
+            assertTrue(String.valueOf(count), count > bins / 2);
+        }
+    }
+    
+    /**
+     * The pixels with any opacity are the ones that are below the 
+     * sea level horizon of {@link ClockUtils#isBelowHorizon(double, 
+     * double, double, double)}.
+     */
+    @Test
+    public void belowHorizon() {
+        double sinH0 = sin(toRadians(SUNSET));
+        
+        for (String date : TestUtils.DATES) {
+            long time = TestUtils.time(date);
+            SolarPosition position = ClockUtils.solarPosition(time);
+            byte[] mask = TestUtils.createMask(time, WIDTH, HEIGHT, ClockUtils.GRADIENT);
+            
+            for (int i = 0; i < HEIGHT; i++) {
+                double latitude = toRadians(Region.WORLD.latitude(i, HEIGHT));
+                double cosH0 = (sinH0 - sin(latitude) * sin(position.delta)) 
+                        / (cos(latitude) * cos(position.delta));
+                double H0 = (cosH0 >= -1.0 && cosH0 <= 1.0) ? toDegrees(acos(cosH0)) : 0.0;
+                
+                for (int j = 0; j < WIDTH; j++) {
+                    double altitude = altitude(position, i, j);
+                    if (Math.abs(altitude - SUNSET) < EPSILON) {
+                        continue;
+                    }
+                    
+                    double m0 = ClockUtils.fractionOfDay((position.alpha 
+                            + Region.WORLD.longitude(j, WIDTH) - position.theta) / 360.0);
+                    boolean below = ClockUtils.isBelowHorizon(cosH0, H0, m0, position.ftime);
+                    
+                    assertEquals(message(time, i, j, altitude), 
+                            below, mask[i * WIDTH + j] != 0x00);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Returns the altitude of the sun in degrees at the pixel (j, i) 
+     * of the world.
+     */
+    private static double altitude(SolarPosition position, int i, int j) {
+        double latitude = toRadians(Region.WORLD.latitude(i, HEIGHT));
+        double longitude = Region.WORLD.longitude(j, WIDTH);
+        
+        double m0 = (position.alpha + longitude - position.theta) / 360.0;
+        double cosH = cos(2.0 * Math.PI * (position.ftime - m0));
+        
+        return toDegrees(asin(sin(latitude) * sin(position.delta) 
+                + cos(latitude) * cos(position.delta) * cosH));
+    }
+    
+    private static String message(long time, int i, int j, double altitude) {
+        return TestUtils.describe("gradient", time, WIDTH, HEIGHT) 
+                + ", x=" + j + ", y=" + i + ", altitude=" + altitude;
+    }
+}
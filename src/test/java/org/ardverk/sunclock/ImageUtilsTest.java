@@ -0,0 +1,145 @@
+/*
+ * Copyright 2010 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.sunclock;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ImageUtilsTest {
+    
+    /**
+     * {@link ImageUtils#brightnessToAlpha(java.awt.Image, int, boolean)} 
+     * must match the original per-pixel {@link Color#RGBtoHSB} loop for 
+     * random pixels, packed and other image types and every alpha. The 
+     * larger image is split into bands.
+     */
+    @Test
+    public void brightnessToAlpha() {
+        Random random = new Random(2L);
+        
+        int[][] sizes = { { 97, 61 }, { 1024, 600 } };
+        int[] types = { BufferedImage.TYPE_INT_ARGB, 
+                BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_3BYTE_BGR };
+        
+        for (int[] size : sizes) {
+            int w = size[0];
+            int h = size[1];
+            
+            for (int type : types) {
+                BufferedImage image = new BufferedImage(w, h, type);
+                for (int y = 0; y < h; y++) {
+                    for (int x = 0; x < w; x++) {
+                        image.setRGB(x, y, random.nextInt());
+                    }
+                }
+                
+                int step = (w * h < 256 * 256) ? 1 : 51;
+                for (int alpha = 0; alpha <= 255; alpha += step) {
+                    String name = "brightnessToAlpha: type=" + type 
+                            + ", alpha=" + alpha + ", w=" + w + ", h=" + h;
+                    int[] expected = getRGB(brightnessToAlpha(image, alpha));
+                    
+                    TestUtils.assertEquals(name, w, expected, 
+                            getRGB(ImageUtils.brightnessToAlpha(image, alpha)));
+                    
+                    if (type == BufferedImage.TYPE_INT_ARGB) {
+                        BufferedImage copy = new BufferedImage(w, h, type);
+                        copy.setRGB(0, 0, w, h, getRGB(image), 0, w);
+                        
+                        TestUtils.assertEquals(name + ", inPlace", w, expected, 
+                                getRGB(ImageUtils.brightnessToAlpha(copy, alpha, true)));
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * {@link ImageUtils#roll(BufferedImage, int)} moves the column 
+     * {@code shift} to the left edge and the columns before it to 
+     * the right edge.
+     */
+    @Test
+    public void roll() {
+        Random random = new Random(3L);
+        
+        int w = 37;
+        int h = 5;
+        BufferedImage image = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                image.setRGB(x, y, random.nextInt() & 0xFFFFFF);
+            }
+        }
+        
+        for (int shift : new int[] { 0, 1, 20, w - 1 }) {
+            BufferedImage rolled = ImageUtils.roll(image, shift);
+            assertEquals(image.getType(), rolled.getType());
+            
+            for (int y = 0; y < h; y++) {
+                for (int x = 0; x < w; x++) {
+                    assertEquals("shift=" + shift + ", x=" + x + ", y=" + y, 
+                            image.getRGB((x + shift) % w, y), rolled.getRGB(x, y));
+                }
+            }
+        }
+    }
+    
+    /**
+     * The original implementation of {@link ImageUtils#brightnessToAlpha(
+     * java.awt.Image, int)}.
+     */
+    private static BufferedImage brightnessToAlpha(BufferedImage src, int alpha) {
+        int width = src.getWidth();
+        int height = src.getHeight();
+        
+        int[] rgb = getRGB(src);
+        
+        BufferedImage dst = new BufferedImage(
+                width, height, BufferedImage.TYPE_INT_ARGB);
+        
+        int value, r, g, b, a;
+        float[] hsb = new float[3];
+        
+        for (int i = 0; i < rgb.length; i++) {
+            value = rgb[i];
+            
+            r = (value >> 16) & 0xFF;
+            g = (value >>  8) & 0xFF;
+            b = (value      ) & 0xFF;
+            
+            Color.RGBtoHSB(r, g, b, hsb);
+            a = (int)(hsb[2] * alpha);
+            
+            rgb[i] = (value & 0x00FFFFFF) | (a << 24);
+        }
+        
+        dst.setRGB(0, 0, width, height, rgb, 0, width);
+        return dst;
+    }
+    
+    private static int[] getRGB(BufferedImage image) {
+        int w = image.getWidth();
+        int h = image.getHeight();
+        return image.getRGB(0, 0, w, h, null, 0, w);
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2010 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.sunclock;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * An {@link IncrementalMask} and the composite that is updated from 
+ * its dirty pixels must match a mask and a composite that are rebuilt 
+ * from scratch.
+ */
+public class IncrementalMaskTest {
+    
+    private static final int[][] SIZES = { 
+        { 97, 61 }, { 360, 180 }, { 1000, 333 } 
+    };
+    
+    /**
+     * The size of the map of {@link Main}.
+     */
+    private static final int KIOSK_WIDTH = 1000;
+    
+    private static final int KIOSK_HEIGHT = 500;
+    
+    private static World world;
+    
+    @BeforeClass
+    public static void setUp() throws IOException {
+        world = new World(
+                ImageUtils.load(Main.class.getResource("world.jpg")), 
+                ImageUtils.load(Main.class.getResource("world_night.jpg")));
+    }
+    
+    /**
+     * Steps through a whole day at the rate at which {@link Main} 
+     * repaints its map and compares every step.
+     */
+    @Test
+    public void fullDayAtKioskRate() {
+        int w = KIOSK_WIDTH;
+        int h = KIOSK_HEIGHT;
+        
+        long step = RepaintScheduler.getDelay(w, 360.0);
+        long start = TestUtils.time(TestUtils.DATES[1]);
+        long end = start + ClockUtils.MILLIS_PER_DAY;
+        
+        IncrementalMask mask = new IncrementalMask(w, h);
+        int[] pixels = new int[w * h];
+        int[] expected = new int[w * h];
+        
+        int steps = 0;
+        int incremental = 0;
+        
+        for (long time = start; time <= end; time += step) {
+            world.updateCompositeImage(mask, time, pixels);
+            if (mask.getDirtyCount() > 0) {
+                incremental++;
+            }
+            
+            world.createCompositeImage(time, w, h, expected);
+            TestUtils.assertEquals(TestUtils.describe("kiosk composite", time, w, h), 
+                    w, expected, pixels);
+            steps++;
+        }
+        
+        // Only the first step rebuilds the whole mask
+        assertTrue("steps=" + steps + ", incremental=" + incremental, 
+                incremental >= steps - 1);
+    }
+    
+    /**
+     * Most ticks are short enough for an incremental update and a 
+     * few jump past {@link IncrementalMask#DEFAULT_MAX_DELTA}.
+     */
+    @Test
+    public void randomTicks() {
+        Random random = new Random(1L);
+        int incremental = 0;
+        
+        for (int[] size : SIZES) {
+            int w = size[0];
+            int h = size[1];
+            
+            for (long time : TestUtils.times(new Random(0L), 4)) {
+                IncrementalMask mask = new IncrementalMask(w, h);
+                int[] pixels = new int[w * h];
+                int[] expected = new int[w * h];
+                
+                for (int i = 0; i < 20; i++) {
+                    if (random.nextInt(10) == 0) {
+                        time += 2L * IncrementalMask.DEFAULT_MAX_DELTA;
+                    } else {
+                        time += 1000L + random.nextInt(20 * 60 * 1000);
+                    }
+                    
+                    world.updateCompositeImage(mask, time, pixels);
+                    if (mask.getDirtyCount() > 0) {
+                        incremental++;
+                    }
+                    
+                    TestUtils.assertEquals(TestUtils.describe("incremental mask", time, w, h), 
+                            w, TestUtils.createMask(time, w, h, ClockUtils.PER_COLUMN), 
+                            mask.getMask());
+                    
+                    world.createCompositeImage(time, w, h, expected);
+                    TestUtils.assertEquals(TestUtils.describe("incremental composite", time, w, h), 
+                            w, expected, pixels);
+                }
+            }
+        }
+        
+        assertTrue("incremental=" + incremental, incremental > 0);
+    }
+}
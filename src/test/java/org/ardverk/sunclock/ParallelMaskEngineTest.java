@@ -0,0 +1,137 @@
+/*
+ * Copyright 2010 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.sunclock;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * A {@link ParallelMaskEngine} must match the engine it splits into 
+ * bands. The threshold is zero, so even the smallest masks are split.
+ */
+public class ParallelMaskEngineTest {
+    
+    private static final MaskEngine[] ENGINES = { 
+        ClockUtils.PER_PIXEL, ClockUtils.PER_COLUMN, 
+        ClockUtils.GRADIENT, ClockUtils.ANTIALIASED 
+    };
+    
+    /**
+     * None of the heights is divisible by all of the band counts.
+     */
+    private static final int[][] SIZES = { 
+        { 97, 61 }, { 360, 180 }, { 1000, 333 } 
+    };
+    
+    private static final int[] BANDS = { 2, 3, 4, 7 };
+    
+    private static ExecutorService executor;
+    
+    @BeforeClass
+    public static void setUp() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+    
+    @AfterClass
+    public static void tearDown() {
+        executor.shutdownNow();
+    }
+    
+    @Test
+    public void matchesSerialEngine() {
+        long[] times = TestUtils.times(new Random(0L), 4);
+        
+        for (MaskEngine engine : ENGINES) {
+            for (int bands : BANDS) {
+                for (int[] size : SIZES) {
+                    for (long time : times) {
+                        assertMatches(engine, bands, time, size[0], size[1]);
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * Masks with fewer rows than bands get one band per row.
+     */
+    @Test
+    public void moreBandsThanRows() {
+        long[] times = TestUtils.times(new Random(1L), 4);
+        int[] heights = { 1, 2, 5, 15 };
+        
+        for (MaskEngine engine : ENGINES) {
+            for (int h : heights) {
+                for (long time : times) {
+                    assertMatches(engine, 16, time, 90, h);
+                }
+            }
+        }
+    }
+    
+    /**
+     * The bands cover every row exactly once if the number of rows 
+     * isn't divisible by the number of bands or is smaller than it.
+     */
+    @Test
+    public void bandsCoverEveryRowOnce() {
+        int[][] cases = { { 61, 4 }, { 7, 3 }, { 5, 16 }, { 1, 4 }, { 100, 7 } };
+        
+        for (int[] c : cases) {
+            int rows = c[0];
+            int bands = c[1];
+            
+            final AtomicIntegerArray counts = new AtomicIntegerArray(rows + 3);
+            ParallelUtils.forEachBand(executor, bands, 3, rows + 3, 
+                    new ParallelUtils.Band() {
+                @Override
+                public void run(int from, int to) {
+                    for (int i = from; i < to; i++) {
+                        counts.incrementAndGet(i);
+                    }
+                }
+            });
+            
+            for (int i = 0; i < counts.length(); i++) {
+                assertEquals("rows=" + rows + ", bands=" + bands + ", row=" + i, 
+                        (i < 3) ? 0 : 1, counts.get(i));
+            }
+        }
+    }
+    
+    private static void assertMatches(MaskEngine engine, 
+            int bands, long time, int w, int h) {
+        
+        MaskEngine parallel = new ParallelMaskEngine(engine, executor, bands, 0);
+        
+        byte[] expected = TestUtils.createMask(time, w, h, engine);
+        byte[] actual = TestUtils.createMask(time, w, h, parallel);
+        
+        String name = "parallel " + engine.getClass().getSimpleName() 
+                + ", bands=" + bands;
+        TestUtils.assertEquals(TestUtils.describe(name, time, w, h), 
+                w, expected, actual);
+    }
+}
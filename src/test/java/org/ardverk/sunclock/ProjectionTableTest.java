@@ -0,0 +1,189 @@
+/*
+ * Copyright 2010 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.ardverk.sunclock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ProjectionTableTest {
+    
+    private static final Projection[] PROJECTIONS = {
+        Projection.MERCATOR, 
+        Projection.ROBINSON, 
+        Projection.orthographic(0.0, 0.0), 
+        Projection.orthographic(40.0, -100.0), 
+        Projection.orthographic(-60.0, 170.0), 
+        Projection.orthographic(10.0, 180.0), 
+    };
+    
+    /**
+     * Every pixel of the table points to the cell of the grid that 
+     * contains its latitude and longitude and only pixels that are 
+     * on the map point to one.
+     */
+    @Test
+    public void lookup() {
+        double[] latLon = new double[2];
+        
+        for (Projection projection : PROJECTIONS) {
+            int width = 160;
+            int height = 100;
+            
+            ProjectionTable table = new ProjectionTable(projection, width, height);
+            Region region = table.getRegion();
+            int gw = table.getGridWidth();
+            int gh = table.getGridHeight();
+            int[] index = table.getIndex();
+            
+            double cellWidth = region.getLongitudes() / gw;
+            double cellHeight = (region.getNorth() - region.getSouth()) / gh;
+            
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    String message = projection + ": x=" + x + ", y=" + y;
+                    
+                    double u = 2.0 * (x + 0.5) / width - 1.0;
+                    double v = 1.0 - 2.0 * (y + 0.5) / height;
+                    if (!projection.inverse(u, v, latLon)) {
+                        assertEquals(message, -1, index[y * width + x]);
+                        continue;
+                    }
+                    
+                    int k = index[y * width + x];
+                    double west = (k % gw) * cellWidth;
+                    double north = region.getNorth() - (k / gw) * cellHeight;
+                    
+                    // Degrees east of the west edge of the region
+                    double longitude = latLon[1] - region.getWest();
+                    if (longitude < 0.0) {
+                        longitude += 360.0;
+                    }
+                    
+                    assertTrue(message, longitude >= west - 1e-9 
+                            && longitude <= west + cellWidth + 1e-9);
+                    assertTrue(message, latLon[0] <= north + 1e-9 
+                            && latLon[0] >= north - cellHeight - 1e-9);
+                }
+            }
+        }
+    }
+    
+    /**
+     * The mask of a projection agrees with the mask that is computed 
+     * at the latitude and longitude of every pixel except for a few 
+     * pixels along the terminators.
+     */
+    @Test
+    public void maskMatchesPixels() {
+        double[] latLon = new double[2];
+        byte[] pixel = new byte[1];
+        
+        for (Projection projection : PROJECTIONS) {
+            for (String date : TestUtils.DATES) {
+                long time = TestUtils.time(date);
+                int width = 160;
+                int height = 100;
+                
+                byte[] mask = new byte[width * height];
+                ClockUtils.createMask(time, projection, width, height, 
+                        mask, ClockUtils.PER_PIXEL);
+                
+                int differences = 0;
+                int visible = 0;
+                for (int y = 0; y < height; y++) {
+                    for (int x = 0; x < width; x++) {
+                        double u = 2.0 * (x + 0.5) / width - 1.0;
+                        double v = 1.0 - 2.0 * (y + 0.5) / height;
+                        if (!projection.inverse(u, v, latLon)) {
+                            continue;
+                        }
+                        
+                        ClockUtils.createMask(time, point(latLon[0], latLon[1]), 
+                                1, 1, pixel, 0, 1, ClockUtils.PER_PIXEL);
+                        
+                        if (pixel[0] != mask[y * width + x]) {
+                            differences++;
+                        }
+                        visible++;
+                    }
+                }
+                
+                String message = TestUtils.describe(projection.toString(), 
+                        time, width, height) + ", differences=" + differences;
+                assertTrue(message, differences <= visible / 20);
+            }
+        }
+    }
+    
+    /**
+     * The grid covers the visible {@link Region} of the projection 
+     * with about one cell per pixel that is on the map.
+     */
+    @Test
+    public void gridSize() {
+        ProjectionTable table = new ProjectionTable(
+                Projection.orthographic(0.0, 0.0), 400, 400);
+        
+        Region region = table.getRegion();
+        assertEquals(-90.0, region.getWest(), 0.0);
+        assertEquals(90.0, region.getEast(), 0.0);
+        assertTrue(region.toString(), region.getNorth() >= 85.0);
+        assertEquals(-region.getNorth(), region.getSouth(), 0.0);
+        
+        long cells = (long)table.getGridWidth() * table.getGridHeight();
+        long visible = 0L;
+        for (int value : table.getIndex()) {
+            if (value != -1) {
+                visible++;
+            }
+        }
+        
+        assertTrue(cells + " cells, " + visible + " pixels", 
+                cells >= visible * 9L / 10L && cells <= visible * 11L / 10L);
+    }
+    
+    /**
+     * The grid of a view that contains the 180th meridian covers 
+     * the visible hemisphere across the meridian and not the whole 
+     * world.
+     */
+    @Test
+    public void gridAcrossMeridian() {
+        ProjectionTable table = new ProjectionTable(
+                Projection.orthographic(0.0, 180.0), 400, 400);
+        
+        Region region = table.getRegion();
+        assertTrue(region.toString(), region.isWrapped());
+        assertEquals(90.0, region.getWest(), 0.0);
+        assertEquals(-90.0, region.getEast(), 0.0);
+        assertEquals(180.0, region.getLongitudes(), 0.0);
+    }
+    
+    /**
+     * Returns a {@link Region} whose north west corner is the given 
+     * point, which is the only pixel of a 1x1 mask.
+     */
+    private static Region point(double latitude, double longitude) {
+        double south = Math.max(-90.0, latitude - 1e-3);
+        double east = Math.min(180.0, longitude + 1e-3);
+        return new Region(Math.max(latitude, south + 1e-6), south, 
+                Math.min(longitude, east - 1e-6), east);
+    }
+}
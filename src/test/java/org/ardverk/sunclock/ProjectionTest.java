@@ -0,0 +1,93 @@
+/*
+ * Copyright 2010 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.ardverk.sunclock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ProjectionTest {
+    
+    private static final Projection[] PROJECTIONS = {
+        Projection.EQUIRECTANGULAR, 
+        Projection.MERCATOR, 
+        Projection.ROBINSON, 
+        Projection.orthographic(0.0, 0.0), 
+        Projection.orthographic(40.0, -100.0), 
+        Projection.orthographic(-60.0, 170.0), 
+    };
+    
+    /**
+     * The inverse projection of every point that is on the map 
+     * returns its latitude and longitude.
+     */
+    @Test
+    public void forwardInverse() {
+        double[] uv = new double[2];
+        double[] latLon = new double[2];
+        
+        for (Projection projection : PROJECTIONS) {
+            int count = 0;
+            for (double latitude = -87.5; latitude < 90.0; latitude += 5.0) {
+                for (double longitude = -177.5; longitude < 180.0; longitude += 5.0) {
+                    if (!projection.forward(latitude, longitude, uv)) {
+                        continue;
+                    }
+                    
+                    String message = projection + ": latitude=" + latitude 
+                            + ", longitude=" + longitude;
+                    assertTrue(message, Math.abs(uv[0]) <= 1.0 && Math.abs(uv[1]) <= 1.0);
+                    assertTrue(message, projection.inverse(uv[0], uv[1], latLon));
+                    
+                    assertEquals(message, latitude, latLon[0], 1e-9);
+                    assertEquals(message, longitude, latLon[1], 1e-9);
+                    count++;
+                }
+            }
+            
+            assertTrue(projection.toString(), count > 0);
+        }
+    }
+    
+    /**
+     * The forward projection of every point that the inverse 
+     * projection puts on the map returns the point.
+     */
+    @Test
+    public void inverseForward() {
+        double[] uv = new double[2];
+        double[] latLon = new double[2];
+        
+        for (Projection projection : PROJECTIONS) {
+            for (double v = -0.99; v < 1.0; v += 0.02) {
+                for (double u = -0.99; u < 1.0; u += 0.02) {
+                    if (!projection.inverse(u, v, latLon)) {
+                        continue;
+                    }
+                    
+                    String message = projection + ": u=" + u + ", v=" + v;
+                    assertTrue(message, projection.forward(latLon[0], latLon[1], uv));
+                    
+                    assertEquals(message, u, uv[0], 1e-9);
+                    assertEquals(message, v, uv[1], 1e-9);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright 2010 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.ardverk.sunclock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.imageio.ImageIO;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+public class RenderServerTest {
+    
+    private static final long BUCKET = 60L * 1000L;
+    
+    private World world;
+    
+    private ExecutorService executor;
+    
+    private HttpServer server;
+    
+    @Before
+    public void setUp() throws IOException {
+        world = new World(
+                new BufferedImage(64, 32, BufferedImage.TYPE_INT_RGB), 
+                new BufferedImage(64, 32, BufferedImage.TYPE_INT_RGB), 
+                TestUtils.time(TestUtils.DATES[0]));
+        world.setMaskEngine(ClockUtils.PER_COLUMN);
+        
+        executor = Executors.newFixedThreadPool(2);
+        server = new RenderServer(world, BUCKET, 
+                RenderServer.DEFAULT_CACHE_CAPACITY, 1).start(
+                    new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 
+                    executor);
+    }
+    
+    @After
+    public void tearDown() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+    
+    /**
+     * The size and the format default to the size of the 
+     * {@link World} and PNG.
+     */
+    @Test
+    public void defaults() throws IOException {
+        Response response = get("/");
+        assertEquals(200, response.code);
+        assertEquals("image/png", response.contentType);
+        
+        BufferedImage image = response.decode();
+        assertEquals(64, image.getWidth());
+        assertEquals(32, image.getHeight());
+    }
+    
+    /**
+     * The parameters of the query select the time, the size and the 
+     * format. Unknown parameters and parameters without a value are 
+     * ignored.
+     */
+    @Test
+    public void parameters() throws IOException {
+        Response response = get("/?time=0&w=40&h=20&format=JPEG&foo=bar&baz");
+        assertEquals(200, response.code);
+        assertEquals("image/jpeg", response.contentType);
+        
+        BufferedImage image = response.decode();
+        assertEquals(40, image.getWidth());
+        assertEquals(20, image.getHeight());
+        
+        assertEquals("image/jpeg", get("/?w=8&h=4&format=jpg").contentType);
+        assertEquals("image/png", get("/?w=8&h=4&format=png").contentType);
+    }
+    
+    /**
+     * Parameters that can't be parsed or are out of bounds are 
+     * rejected with their name and value.
+     */
+    @Test
+    public void badRequest() throws IOException {
+        assertBadRequest("/?w=abc", "w=abc");
+        assertBadRequest("/?time=1.5", "time=1.5");
+        assertBadRequest("/?format=gif", "format=gif");
+        assertBadRequest("/?w=0", "w=0");
+        assertBadRequest("/?w=4097", "w=4097");
+        assertBadRequest("/?h=-1", "h=-1");
+        assertBadRequest("/?h=4097", "h=4097");
+        assertBadRequest("/?w=4096&h=4096", "w=4096, h=4096");
+        assertBadRequest("/?time=" + Long.MAX_VALUE, "time=" + Long.MAX_VALUE);
+        
+        // The largest image is fine
+        assertEquals(200, get("/?w=4096&h=1").code);
+        
+        assertEquals(405, request("/", "POST").code);
+    }
+    
+    /**
+     * Images may be cached until the end of their time bucket.
+     */
+    @Test
+    public void cacheControl() throws IOException {
+        long now = System.currentTimeMillis();
+        long end = (Math.floorDiv(now, BUCKET) + 1L) * BUCKET;
+        
+        Response response = get("/?w=8&h=4&time=" + now);
+        assertEquals(200, response.code);
+        
+        String cacheControl = response.cacheControl;
+        assertTrue(cacheControl, cacheControl.startsWith("max-age="));
+        
+        long maxAge = Long.parseLong(cacheControl.substring("max-age=".length()));
+        assertTrue(cacheControl, maxAge >= 0L && maxAge <= (end - now) / 1000L);
+        
+        // Past buckets expire right away
+        assertEquals("max-age=0", get("/?w=8&h=4&time=0").cacheControl);
+    }
+    
+    /**
+     * Failures are logged on the server and the client only 
+     * gets a generic message.
+     */
+    @Test
+    public void internalError() throws IOException {
+        world.setMaskEngine(new MaskEngine() {
+            @Override
+            public boolean isGradient() {
+                return false;
+            }
+            
+            @Override
+            public void createMask(SolarPosition position, Region region, int w, int h, 
+                    byte[] mask, int offset, int scanline, int from, int to) {
+                throw new IllegalStateException("secret");
+            }
+        });
+        
+        Logger logger = Logger.getLogger(RenderServer.class.getName());
+        Level level = logger.getLevel();
+        logger.setLevel(Level.OFF);
+        try {
+            Response response = get("/?w=8&h=4");
+            assertEquals(500, response.code);
+            
+            String body = new String(response.body, "UTF-8");
+            assertEquals("Internal Server Error", body);
+            assertFalse(body, body.contains("secret"));
+        } finally {
+            logger.setLevel(level);
+        }
+    }
+    
+    private void assertBadRequest(String path, String message) throws IOException {
+        Response response = get(path);
+        assertEquals(path, 400, response.code);
+        assertEquals(path, message, new String(response.body, "UTF-8"));
+    }
+    
+    private Response get(String path) throws IOException {
+        return request(path, "GET");
+    }
+    
+    private Response request(String path, String method) throws IOException {
+        URL url = new URL("http", InetAddress.getLoopbackAddress().getHostAddress(), 
+                server.getAddress().getPort(), path);
+        
+        HttpURLConnection connection = (HttpURLConnection)url.openConnection();
+        try {
+            connection.setRequestMethod(method);
+            
+            Response response = new Response();
+            response.code = connection.getResponseCode();
+            response.contentType = connection.getContentType();
+            response.cacheControl = connection.getHeaderField("Cache-Control");
+            
+            InputStream in = (response.code < 400) 
+                    ? connection.getInputStream() : connection.getErrorStream();
+            response.body = (in != null) ? read(in) : new byte[0];
+            return response;
+        } finally {
+            connection.disconnect();
+        }
+    }
+    
+    private static byte[] read(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int length;
+            while ((length = in.read(buffer)) != -1) {
+                out.write(buffer, 0, length);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+    
+    private static class Response {
+        
+        private int code;
+        
+        private String contentType;
+        
+        private String cacheControl;
+        
+        private byte[] body;
+        
+        public BufferedImage decode() throws IOException {
+            BufferedImage image = ImageIO.read(new ByteArrayInputStream(body));
+            assertTrue(image != null);
+            return image;
+        }
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2010 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.sunclock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class RenderServiceTest {
+    
+    private static final long BUCKET = 60L * 1000L;
+    
+    private static final long TIME = TestUtils.time(TestUtils.DATES[0]);
+    
+    private World world;
+    
+    private CountingEngine engine;
+    
+    @Before
+    public void setUp() {
+        world = new World(
+                new BufferedImage(64, 32, BufferedImage.TYPE_INT_RGB), 
+                new BufferedImage(64, 32, BufferedImage.TYPE_INT_RGB), 
+                TIME);
+        
+        engine = new CountingEngine();
+        world.setMaskEngine(engine);
+    }
+    
+    /**
+     * Threads that request the same bucket and size at the same 
+     * time share a single render.
+     */
+    @Test
+    public void singleFlight() throws Exception {
+        final RenderService service = new RenderService(
+                world, BUCKET, RenderService.DEFAULT_CAPACITY);
+        
+        int threads = 16;
+        final CountDownLatch started = new CountDownLatch(threads);
+        engine.blocked = new CountDownLatch(1);
+        
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<BufferedImage>> futures 
+                = new ArrayList<Future<BufferedImage>>();
+            
+            for (int i = 0; i < threads; i++) {
+                final long time = TIME + i;
+                futures.add(executor.submit(new Callable<BufferedImage>() {
+                    @Override
+                    public BufferedImage call() {
+                        started.countDown();
+                        return service.getCompositeImage(time, 40, 20);
+                    }
+                }));
+            }
+            
+            // Hold the render until all threads are waiting for it
+            assertTrue(started.await(10L, TimeUnit.SECONDS));
+            Thread.sleep(100L);
+            engine.blocked.countDown();
+            
+            BufferedImage image = futures.get(0).get(10L, TimeUnit.SECONDS);
+            for (Future<BufferedImage> future : futures) {
+                assertSame(image, future.get(10L, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        
+        assertEquals(1, engine.renders.get());
+    }
+    
+    /**
+     * The cache evicts the least recently used images once the 
+     * memory of their pixels exceeds the capacity.
+     */
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        // Room for three images of 10x10 pixels
+        RenderService service = new RenderService(world, BUCKET, 3L * 4L * 10L * 10L);
+        
+        BufferedImage a = service.getCompositeImage(TIME, 10, 10);
+        BufferedImage b = service.getCompositeImage(TIME + BUCKET, 10, 10);
+        BufferedImage c = service.getCompositeImage(TIME + 2L * BUCKET, 10, 10);
+        assertEquals(3, engine.renders.get());
+        assertEquals(3L * 400L, service.getSize());
+        
+        // Makes b the least recently used image
+        assertSame(a, service.getCompositeImage(TIME, 10, 10));
+        
+        service.getCompositeImage(TIME + 3L * BUCKET, 10, 10);
+        assertEquals(4, engine.renders.get());
+        assertEquals(3L * 400L, service.getSize());
+        
+        assertSame(a, service.getCompositeImage(TIME, 10, 10));
+        assertSame(c, service.getCompositeImage(TIME + 2L * BUCKET, 10, 10));
+        assertEquals(4, engine.renders.get());
+        
+        assertNotSame(b, service.getCompositeImage(TIME + BUCKET, 10, 10));
+        assertEquals(5, engine.renders.get());
+    }
+    
+    /**
+     * A larger image evicts as many of the least recently used 
+     * images as it needs room for.
+     */
+    @Test
+    public void evictsByBytes() {
+        RenderService service = new RenderService(world, BUCKET, 3L * 4L * 10L * 10L);
+        
+        BufferedImage a = service.getCompositeImage(TIME, 10, 10);
+        service.getCompositeImage(TIME + BUCKET, 10, 10);
+        service.getCompositeImage(TIME + 2L * BUCKET, 10, 10);
+        assertSame(a, service.getCompositeImage(TIME, 10, 10));
+        
+        // Twice the size of the others
+        service.getCompositeImage(TIME, 20, 10);
+        assertEquals(1200L, service.getSize());
+        
+        assertSame(a, service.getCompositeImage(TIME, 10, 10));
+        assertEquals(4, engine.renders.get());
+        
+        service.setCapacity(400L);
+        assertEquals(400L, service.getSize());
+        assertSame(a, service.getCompositeImage(TIME, 10, 10));
+        assertEquals(4, engine.renders.get());
+        
+        // An image that is larger than the capacity is still returned
+        service.getCompositeImage(TIME, 40, 40);
+        assertEquals(4L * 40L * 40L, service.getSize());
+    }
+    
+    /**
+     * Counts the renders and optionally blocks them.
+     */
+    private static class CountingEngine implements MaskEngine {
+        
+        private final AtomicInteger renders = new AtomicInteger();
+        
+        private volatile CountDownLatch blocked = null;
+        
+        @Override
+        public boolean isGradient() {
+            return false;
+        }
+        
+        @Override
+        public void createMask(SolarPosition position, Region region, int w, int h, 
+                byte[] mask, int offset, int scanline, int from, int to) {
+            
+            renders.incrementAndGet();
+            
+            CountDownLatch blocked = this.blocked;
+            if (blocked != null) {
+                try {
+                    blocked.await(10L, TimeUnit.SECONDS);
+                } catch (InterruptedException err) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            
+            ClockUtils.PER_COLUMN.createMask(position, region, w, h, 
+                    mask, offset, scanline, from, to);
+        }
+    }
+}
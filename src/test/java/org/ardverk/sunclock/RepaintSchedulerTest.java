@@ -0,0 +1,48 @@
+/*
+ * Copyright 2010 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.ardverk.sunclock;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class RepaintSchedulerTest {
+    
+    /**
+     * The terminator moves by a pixel every {@code MILLIS_PER_DAY * span 
+     * / 360 / width} milliseconds, rounded up, but never more often than 
+     * once a second.
+     */
+    @Test
+    public void getDelay() {
+        // One pixel per 1.44 minutes of a 1000 pixel world map
+        assertEquals(86400L, RepaintScheduler.getDelay(1000, 360.0));
+        assertEquals(43200L, RepaintScheduler.getDelay(1000, 180.0));
+        assertEquals(12342858L, RepaintScheduler.getDelay(7, 360.0));
+        
+        // Wide maps and small regions are limited to a second
+        assertEquals(1000L, RepaintScheduler.getDelay(86400, 360.0));
+        assertEquals(1000L, RepaintScheduler.getDelay(100000, 360.0));
+        assertEquals(1000L, RepaintScheduler.getDelay(1000, 1.0));
+        assertEquals(1200L, RepaintScheduler.getDelay(1000, 5.0));
+        
+        // Components without a width yet
+        assertEquals(60000L, RepaintScheduler.getDelay(0, 360.0));
+        assertEquals(60000L, RepaintScheduler.getDelay(-1, 360.0));
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2010 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.sunclock;
+
+import static org.junit.Assert.assertEquals;
+
+import java.time.Instant;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * The states of {@link SolarQuery} must match the mask.
+ */
+public class SolarQueryTest {
+    
+    /**
+     * Known places are checked ten minutes before and after their 
+     * sunrise and sunset on 2010-06-21.
+     */
+    @Test
+    public void knownPlaces() {
+        // The name, latitude, longitude, sunrise and sunset (UTC)
+        Object[][] places = {
+            { "Berlin", 52.52, 13.405, "02:43", "19:33" },
+            { "Sydney", -33.87, 151.21, "20:59", "06:53" },
+            { "New York", 40.71, -74.01, "09:25", "00:30" },
+        };
+        
+        long margin = 10L * 60L * 1000L;
+        
+        for (Object[] place : places) {
+            String name = (String)place[0];
+            double latitude = (Double)place[1];
+            double longitude = (Double)place[2];
+            
+            long sunrise = TestUtils.time("2010-06-21T" + place[3] + ":00Z");
+            long sunset = TestUtils.time("2010-06-21T" + place[4] + ":00Z");
+            
+            assertPlace(name, latitude, longitude, 
+                    sunrise - margin, SolarQuery.TWILIGHT);
+            assertPlace(name, latitude, longitude, 
+                    sunrise + margin, SolarQuery.DAY);
+            assertPlace(name, latitude, longitude, 
+                    sunset - margin, SolarQuery.DAY);
+            assertPlace(name, latitude, longitude, 
+                    sunset + margin, SolarQuery.TWILIGHT);
+        }
+    }
+    
+    /**
+     * The corners of all pixels of a whole mask are checked.
+     */
+    @Test
+    public void matchesMask() {
+        int w = 360;
+        int h = 180;
+        
+        double[] latitudes = new double[w * h];
+        double[] longitudes = new double[w * h];
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                latitudes[y * w + x] = Region.WORLD.latitude(y, h);
+                longitudes[y * w + x] = -Region.WORLD.longitude(x, w);
+            }
+        }
+        
+        byte[] states = new byte[w * h];
+        for (long time : TestUtils.times(new Random(0L), 8)) {
+            byte[] mask = TestUtils.createMask(time, w, h, ClockUtils.PER_COLUMN);
+            SolarQuery.query(time, latitudes, longitudes, 
+                    states, null, null, null);
+            
+            TestUtils.assertEquals(TestUtils.describe("query", time, w, h), 
+                    w, mask, toMask(states));
+        }
+    }
+    
+    /**
+     * Checks the state of the place and of the mask pixel that it's 
+     * drawn in. The pixel is computed for its top left corner, so the 
+     * query for that corner must match the pixel exactly.
+     */
+    private static void assertPlace(String name, double latitude, 
+            double longitude, long time, byte expected) {
+        
+        int w = 3600;
+        int h = 1800;
+        int x = (int)((longitude + 180.0) * w / 360.0);
+        int y = (int)((90.0 - latitude) * h / 180.0);
+        
+        double[] latitudes = { latitude, Region.WORLD.latitude(y, h) };
+        double[] longitudes = { longitude, -Region.WORLD.longitude(x, w) };
+        byte[] states = new byte[2];
+        SolarQuery.query(time, latitudes, longitudes, states, null, null, null);
+        
+        byte pixel = TestUtils.createMask(time, w, h, ClockUtils.PER_COLUMN)[y * w + x];
+        
+        String message = name + ": time=" + Instant.ofEpochMilli(time);
+        assertEquals(message + ", place", expected, states[0]);
+        assertEquals(message + ", corner", expected, states[1]);
+        assertEquals(message + ", pixel", toMask(states)[1], pixel);
+    }
+    
+    /**
+     * Turns the states of {@link SolarQuery} into mask values.
+     */
+    private static byte[] toMask(byte[] states) {
+        byte[] mask = new byte[states.length];
+        for (int i = 0; i < states.length; i++) {
+            if (states[i] == SolarQuery.TWILIGHT) {
+                mask[i] = (byte)0x80;
+            } else if (states[i] == SolarQuery.NIGHT) {
+                mask[i] = (byte)0xFF;
+            }
+        }
+        return mask;
+    }
+}
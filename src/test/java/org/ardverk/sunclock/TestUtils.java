@@ -0,0 +1,111 @@
+/*
+ * Copyright 2010 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.ardverk.sunclock;
+
+import java.time.Instant;
+import java.util.Random;
+
+import org.junit.Assert;
+
+/**
+ * Times, masks and assertions that are shared by the tests.
+ */
+class TestUtils {
+    
+    /**
+     * The equinoxes and solstices of 2010.
+     */
+    static final String[] DATES = { 
+        "2010-03-20T17:32:00Z", "2010-06-21T11:28:00Z", 
+        "2010-09-23T03:09:00Z", "2010-12-21T23:38:00Z" 
+    };
+    
+    private TestUtils() {}
+    
+    /**
+     * Returns the equinoxes and solstices of 2010 followed by the 
+     * given number of random times within about 100 years of the epoch.
+     */
+    static long[] times(Random random, int count) {
+        long[] times = new long[DATES.length + count];
+        for (int i = 0; i < DATES.length; i++) {
+            times[i] = time(DATES[i]);
+        }
+        
+        long range = 100L * 365L * ClockUtils.MILLIS_PER_DAY;
+        for (int i = DATES.length; i < times.length; i++) {
+            times[i] = (long)((2.0 * random.nextDouble() - 1.0) * range);
+        }
+        return times;
+    }
+    
+    static long time(String date) {
+        return Instant.parse(date).toEpochMilli();
+    }
+    
+    static byte[] createMask(long time, int w, int h, MaskEngine engine) {
+        return createMask(time, Region.WORLD, w, h, engine);
+    }
+    
+    static byte[] createMask(long time, Region region, 
+            int w, int h, MaskEngine engine) {
+        byte[] mask = new byte[w * h];
+        ClockUtils.createMask(time, region, w, h, mask, 0, w, engine);
+        return mask;
+    }
+    
+    static String describe(String name, long time, int w, int h) {
+        return name + ": time=" + Instant.ofEpochMilli(time) 
+                + ", w=" + w + ", h=" + h;
+    }
+    
+    /**
+     * Fails with the coordinates of the first pixel that differs.
+     */
+    static void assertEquals(String message, int w, 
+            byte[] expected, byte[] actual) {
+        
+        Assert.assertEquals(message, expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            if (expected[i] != actual[i]) {
+                fail(message, w, i, expected[i] & 0xFF, actual[i] & 0xFF);
+            }
+        }
+    }
+    
+    /**
+     * Fails with the coordinates of the first pixel that differs.
+     */
+    static void assertEquals(String message, int w, 
+            int[] expected, int[] actual) {
+        
+        Assert.assertEquals(message, expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            if (expected[i] != actual[i]) {
+                fail(message, w, i, expected[i], actual[i]);
+            }
+        }
+    }
+    
+    private static void fail(String message, int w, 
+            int index, int expected, int actual) {
+        Assert.fail(message 
+                + ", x=" + (index % w) + ", y=" + (index / w) 
+                + ", expected=" + Integer.toHexString(expected) 
+                + ", actual=" + Integer.toHexString(actual));
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright 2010 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.ardverk.sunclock;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TextureCacheTest {
+    
+    /**
+     * The size of a cached 16x16 texture.
+     */
+    private static final long ENTRY = 12L + 4L * 16L * 16L;
+    
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+    
+    private File directory;
+    
+    @Before
+    public void setUp() throws IOException {
+        directory = folder.newFolder("cache");
+    }
+    
+    /**
+     * The entries are keyed by the content and not the {@link URL}, 
+     * so equal images at two URLs share a file.
+     */
+    @Test
+    public void key() throws IOException {
+        TextureCache cache = new TextureCache(directory);
+        
+        URL a = image("a.png", 0xFF0000);
+        URL b = image("b.png", 0xFF0000);
+        URL c = image("c.png", 0x00FF00);
+        
+        BufferedImage expected = ImageUtils.toIntARGB(ImageIO.read(a));
+        assertPixels(expected, cache.load(a));
+        assertPixels(expected, cache.load(b));
+        assertEquals(1, entries().length);
+        
+        cache.load(c);
+        assertEquals(2, entries().length);
+        
+        for (File file : entries()) {
+            assertTrue(file.getName(), 
+                    file.getName().matches("[0-9a-f]{64}-[0-9]+\\.argb"));
+            assertEquals(ENTRY, file.length());
+        }
+    }
+    
+    /**
+     * A cached image is read from its file and not decoded again.
+     */
+    @Test
+    public void hit() throws IOException {
+        TextureCache cache = new TextureCache(directory);
+        URL url = image("a.png", 0xFF0000);
+        cache.load(url);
+        
+        // Change the first pixel of the entry
+        RandomAccessFile file = new RandomAccessFile(entries()[0], "rw");
+        try {
+            file.seek(12L);
+            file.writeInt(pixel(0xFF0000FF));
+        } finally {
+            file.close();
+        }
+        
+        assertEquals(0xFF0000FF, cache.load(url).getRGB(0, 0));
+    }
+    
+    /**
+     * Entries with a wrong header or size are decoded again 
+     * and replaced.
+     */
+    @Test
+    public void corrupt() throws IOException {
+        TextureCache cache = new TextureCache(directory);
+        URL url = image("a.png", 0xFF0000);
+        BufferedImage expected = cache.load(url);
+        File entry = entries()[0];
+        
+        // magic, width, height and the size of the pixels
+        int[][] headers = { { 0, 0x12345678 }, { 4, 17 }, { 8, 0 } };
+        for (int[] header : headers) {
+            RandomAccessFile file = new RandomAccessFile(entry, "rw");
+            try {
+                file.seek(header[0]);
+                file.writeInt(pixel(header[1]));
+            } finally {
+                file.close();
+            }
+            
+            assertPixels(expected, cache.load(url));
+            assertEquals(ENTRY, entry.length());
+        }
+        
+        RandomAccessFile file = new RandomAccessFile(entry, "rw");
+        try {
+            file.setLength(ENTRY - 1L);
+        } finally {
+            file.close();
+        }
+        
+        assertPixels(expected, cache.load(url));
+        assertEquals(ENTRY, entry.length());
+        assertEquals(1, entries().length);
+    }
+    
+    /**
+     * The least recently used entries are deleted once the 
+     * cache is full.
+     */
+    @Test
+    public void evict() throws IOException {
+        TextureCache cache = new TextureCache(directory, 2L * ENTRY);
+        URL a = image("a.png", 0xFF0000);
+        URL b = image("b.png", 0x00FF00);
+        URL c = image("c.png", 0x0000FF);
+        URL d = image("d.png", 0xFFFFFF);
+        
+        long now = System.currentTimeMillis();
+        File fileA = load(cache, a, now - 3000L);
+        File fileB = load(cache, b, now - 2000L);
+        
+        // Makes b the least recently used entry
+        cache.load(a);
+        
+        File fileC = load(cache, c, now - 1000L);
+        assertTrue(fileA.exists());
+        assertFalse(fileB.exists());
+        assertTrue(fileC.exists());
+        
+        // A new entry is kept even if it doesn't fit
+        cache = new TextureCache(directory, 0L);
+        File fileD = load(cache, d, now);
+        assertTrue(fileD.exists());
+        assertEquals(1, entries().length);
+    }
+    
+    /**
+     * Loads the image and sets the time of the last use of its entry.
+     */
+    private File load(TextureCache cache, URL url, long lastModified) throws IOException {
+        File[] before = entries();
+        cache.load(url);
+        
+        for (File file : entries()) {
+            if (!Arrays.asList(before).contains(file)) {
+                assertTrue(file.setLastModified(lastModified));
+                return file;
+            }
+        }
+        throw new AssertionError(url.toString());
+    }
+    
+    private File[] entries() {
+        File[] files = directory.listFiles();
+        assertTrue(files != null);
+        return files;
+    }
+    
+    /**
+     * Writes a 16x16 PNG of the given color.
+     */
+    private URL image(String name, int rgb) throws IOException {
+        BufferedImage image = new BufferedImage(16, 16, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < 16; y++) {
+            for (int x = 0; x < 16; x++) {
+                image.setRGB(x, y, rgb);
+            }
+        }
+        
+        File file = folder.newFile(name);
+        assertTrue(ImageIO.write(image, "png", file));
+        return file.toURI().toURL();
+    }
+    
+    /**
+     * Converts a pixel into the byte order of the cache, which is 
+     * the native order but written in big endian.
+     */
+    private static int pixel(int value) {
+        return ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN 
+                ? value : Integer.reverseBytes(value);
+    }
+    
+    private static void assertPixels(BufferedImage expected, BufferedImage actual) {
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        assertArrayEquals(ImageUtils.getPixels(ImageUtils.toIntARGB(expected)), 
+                ImageUtils.getPixels(ImageUtils.toIntARGB(actual)));
+    }
+}
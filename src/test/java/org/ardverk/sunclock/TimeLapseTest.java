@@ -0,0 +1,217 @@
+/*
+ * Copyright 2010 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.ardverk.sunclock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TimeLapseTest {
+    
+    private static final long TIME = TestUtils.time(TestUtils.DATES[0]);
+    
+    private static final long HOUR = 60L * 60L * 1000L;
+    
+    private static final int THREADS = 4;
+    
+    private World world;
+    
+    private ExecutorService executor;
+    
+    @Before
+    public void setUp() {
+        BufferedImage day = new BufferedImage(64, 32, BufferedImage.TYPE_INT_RGB);
+        BufferedImage night = new BufferedImage(64, 32, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < 32; y++) {
+            for (int x = 0; x < 64; x++) {
+                day.setRGB(x, y, 0xFFFFFF);
+                night.setRGB(x, y, 4 * x);
+            }
+        }
+        
+        world = new World(day, night, TIME);
+        world.setMaskEngine(new SlowEngine());
+        
+        executor = Executors.newFixedThreadPool(THREADS);
+    }
+    
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+    
+    /**
+     * The frames are written in order even if they're rendered out 
+     * of order and at most {@code maxInFlight} buffers are used.
+     */
+    @Test
+    public void order() throws Exception {
+        int maxInFlight = 3;
+        RecordingSink sink = new RecordingSink(40, 20);
+        
+        TimeLapse timeLapse = new TimeLapse(world, 40, 20, executor, maxInFlight);
+        int count = timeLapse.render(TIME, TIME + 24L * HOUR, HOUR, sink);
+        
+        assertEquals(25, count);
+        assertEquals(25, sink.times.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals(TIME + i * HOUR, sink.times.get(i).longValue());
+        }
+        
+        assertTrue(String.valueOf(sink.images.size()), 
+                sink.images.size() <= maxInFlight);
+    }
+    
+    /**
+     * Every frame is the composite image of its time, with and 
+     * without the {@link EphemerisTable} of long time lapses.
+     */
+    @Test
+    public void frames() throws Exception {
+        // More days than frames: the series for every frame
+        assertFrames(TIME, TIME + 10L * 24L * HOUR, 5L * 24L * HOUR);
+        
+        // More frames than days: looked up in the table
+        assertFrames(TIME, TIME + 2L * 24L * HOUR, 3L * HOUR);
+    }
+    
+    /**
+     * The workers that start at the same time share a single scale 
+     * of the textures.
+     */
+    @Test
+    public void texturesScaledOnce() throws Exception {
+        RenderMetrics metrics = RenderMetrics.getInstance();
+        boolean enabled = metrics.isEnabled();
+        metrics.setEnabled(true);
+        metrics.reset();
+        try {
+            TimeLapse timeLapse = new TimeLapse(world, 48, 24, executor, 2 * THREADS);
+            timeLapse.render(TIME, TIME + 7L * HOUR, HOUR, new RecordingSink(48, 24));
+            
+            assertEquals(1L, metrics.getTextureCacheMisses());
+            assertEquals(7L, metrics.getTextureCacheHits());
+        } finally {
+            metrics.setEnabled(enabled);
+            metrics.reset();
+        }
+    }
+    
+    private void assertFrames(long start, long end, long step) throws Exception {
+        RecordingSink sink = new RecordingSink(40, 20);
+        sink.copy = true;
+        
+        new TimeLapse(world, 40, 20, executor, THREADS).render(start, end, step, sink);
+        
+        for (int i = 0; i < sink.times.size(); i++) {
+            long time = sink.times.get(i);
+            
+            BufferedImage expected = new BufferedImage(40, 20, BufferedImage.TYPE_INT_RGB);
+            world.createCompositeImage(time, 40, 20, ImageUtils.getPixels(expected));
+            
+            TestUtils.assertEquals(TestUtils.describe("frame " + i, time, 40, 20), 40, 
+                    ImageUtils.getPixels(expected), sink.frames.get(i));
+        }
+    }
+    
+    /**
+     * Records the frames and the buffers they were written in.
+     */
+    private static class RecordingSink implements FrameSink {
+        
+        private final int width;
+        
+        private final int height;
+        
+        private final List<Long> times = new ArrayList<Long>();
+        
+        private final List<int[]> frames = new ArrayList<int[]>();
+        
+        private final Map<BufferedImage, Boolean> images 
+            = new IdentityHashMap<BufferedImage, Boolean>();
+        
+        private boolean copy = false;
+        
+        public RecordingSink(int width, int height) {
+            this.width = width;
+            this.height = height;
+        }
+        
+        @Override
+        public void write(int index, long time, BufferedImage image) {
+            assertEquals(times.size(), index);
+            assertEquals(width, image.getWidth());
+            assertEquals(height, image.getHeight());
+            
+            times.add(time);
+            images.put(image, Boolean.TRUE);
+            
+            if (copy) {
+                frames.add(ImageUtils.getPixels(image).clone());
+            }
+        }
+        
+        @Override
+        public void close() {
+        }
+    }
+    
+    /**
+     * Sleeps for a random time, so the frames finish out of order.
+     */
+    private static class SlowEngine implements MaskEngine {
+        
+        private final Random random = new Random(0L);
+        
+        @Override
+        public boolean isGradient() {
+            return false;
+        }
+        
+        @Override
+        public void createMask(SolarPosition position, Region region, int w, int h, 
+                byte[] mask, int offset, int scanline, int from, int to) {
+            
+            int delay;
+            synchronized (random) {
+                delay = random.nextInt(10);
+            }
+            
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException err) {
+                Thread.currentThread().interrupt();
+            }
+            
+            ClockUtils.PER_COLUMN.createMask(position, region, w, h, 
+                    mask, offset, scanline, from, to);
+        }
+    }
+}
@@ -0,0 +1,298 @@
+/*
+ * Copyright 2010 Roger Kapsi
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.ardverk.sunclock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Component;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.swing.JLabel;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class WorldTest {
+    
+    private static final long TIME = TestUtils.time(TestUtils.DATES[0]);
+    
+    private static final long MINUTE = 60L * 1000L;
+    
+    private World world;
+    
+    private CountingEngine engine;
+    
+    @Before
+    public void setUp() {
+        world = new World(texture(0xFFFFFF), texture(0x000000), TIME);
+        
+        engine = new CountingEngine();
+        world.setMaskEngine(engine);
+    }
+    
+    /**
+     * Components of different sizes that are painted alternately 
+     * keep their own composite and incremental mask, so the mask 
+     * of each size is built once and only updated afterwards.
+     */
+    @Test
+    public void incrementalSizes() {
+        Component a = component(40, 20);
+        Component b = component(64, 32);
+        
+        long time = TIME;
+        for (int i = 0; i < 10; i++) {
+            world.setTime(time);
+            
+            int[] actualA = paint(a);
+            int[] actualB = paint(b);
+            assertEquals(2, engine.renders.get());
+            
+            String message = TestUtils.describe("round " + i, time, 0, 0);
+            TestUtils.assertEquals(message, 40, expected(time, 40, 20), actualA);
+            TestUtils.assertEquals(message, 64, expected(time, 64, 32), actualB);
+            
+            time += MINUTE;
+        }
+    }
+    
+    /**
+     * In asynchronous mode components of different sizes that are 
+     * painted alternately get frames that were rendered at their size.
+     */
+    @Test
+    public void asynchronousSizes() throws InterruptedException {
+        Component a = component(40, 20);
+        Component b = component(64, 32);
+        
+        world.setAsynchronous(true);
+        try {
+            for (long time = TIME; time < TIME + 3L * MINUTE; time += MINUTE) {
+                world.setTime(time);
+                
+                int[] expectedA = expected(time, 40, 20);
+                int[] expectedB = expected(time, 64, 32);
+                
+                long timeout = System.currentTimeMillis() + 10L * 1000L;
+                while (!Arrays.equals(expectedA, paint(a)) 
+                        | !Arrays.equals(expectedB, paint(b))) {
+                    assertTrue(TestUtils.describe("timeout", time, 0, 0), 
+                            System.currentTimeMillis() < timeout);
+                    Thread.sleep(10L);
+                }
+            }
+        } finally {
+            world.setAsynchronous(false);
+        }
+    }
+    
+    /**
+     * The memory usage counts the textures, the masks that were 
+     * pooled and the composite images and incremental masks that 
+     * are kept for painting.
+     */
+    @Test
+    public void memoryUsage() {
+        // The day and night textures
+        long expected = 2L * 4L * 64L * 32L;
+        assertEquals(expected, world.getMemoryUsage());
+        
+        // The mask is pooled once it's released
+        world.createCompositeImage(TIME, 64, 32, new int[64 * 32]);
+        expected += 64L * 32L;
+        assertEquals(expected, world.getMemoryUsage());
+        
+        world.createCompositeImage(TIME, 40, 20, new int[40 * 20]);
+        expected += 2L * 4L * 40L * 20L + 40L * 20L;
+        assertEquals(expected, world.getMemoryUsage());
+        
+        // The incremental mask isn't taken from the pool
+        paint(component(40, 20));
+        expected += 4L * 40L * 20L + new IncrementalMask(40, 20).getSize();
+        assertEquals(expected, world.getMemoryUsage());
+    }
+    
+    /**
+     * The least recently used textures are evicted once they don't 
+     * fit, but the textures of the current size are always kept.
+     */
+    @Test
+    public void evictTextures() {
+        long original = world.getMemoryUsage();
+        long large = 2L * 4L * 40L * 20L + 40L * 20L;
+        long small = 2L * 4L * 20L * 10L + 20L * 10L;
+        
+        RenderMetrics metrics = RenderMetrics.getInstance();
+        boolean enabled = metrics.isEnabled();
+        metrics.setEnabled(true);
+        metrics.reset();
+        try {
+            world.setMemoryLimit(original + large);
+            
+            render(40, 20);
+            render(40, 20);
+            assertEquals(1L, metrics.getTextureCacheMisses());
+            assertEquals(original + large, world.getMemoryUsage());
+            
+            // Evicts the larger textures
+            render(20, 10);
+            assertEquals(2L, metrics.getTextureCacheMisses());
+            assertEquals(original + small, world.getMemoryUsage());
+            
+            render(40, 20);
+            assertEquals(3L, metrics.getTextureCacheMisses());
+            
+            // Textures that don't fit are kept while they're current
+            world.setMemoryLimit(0L);
+            assertEquals(original, world.getMemoryUsage());
+            
+            render(40, 20);
+            render(40, 20);
+            assertEquals(4L, metrics.getTextureCacheMisses());
+            assertEquals(original + large, world.getMemoryUsage());
+        } finally {
+            metrics.setEnabled(enabled);
+            metrics.reset();
+        }
+    }
+    
+    private void render(int width, int height) {
+        world.createCompositeImage(TIME, width, height, new int[width * height]);
+    }
+    
+    private int[] expected(long time, int width, int height) {
+        int renders = engine.renders.get();
+        
+        int[] pixels = new int[width * height];
+        world.createCompositeImage(time, width, height, pixels);
+        
+        engine.renders.set(renders);
+        return pixels;
+    }
+    
+    private int[] paint(Component c) {
+        BufferedImage image = new BufferedImage(c.getWidth(), c.getHeight(), 
+                BufferedImage.TYPE_INT_ARGB);
+        
+        Graphics2D g = image.createGraphics();
+        try {
+            world.paintIcon(c, g, 0, 0);
+        } finally {
+            g.dispose();
+        }
+        return ImageUtils.getPixels(image);
+    }
+    
+    private static Component component(int width, int height) {
+        JLabel label = new JLabel();
+        label.setSize(width, height);
+        return label;
+    }
+    
+    /**
+     * Returns a texture that fades from black to the given color, 
+     * so every size resamples it to different pixels.
+     */
+    /**
+     * A {@link Region} that crosses the 180th meridian shows the east 
+     * end of the day image on the left and the west end on the right.
+     */
+    @Test
+    public void wrappedRegion() {
+        int w = 64;
+        int h = 32;
+        Region region = new Region(90.0, -90.0, 90.0, -90.0);
+        
+        int[] pixels = new int[w * h];
+        world.createCompositeImage(ClockUtils.solarPosition(TIME), region, 
+                w, h, pixels, new DaylightEngine());
+        
+        for (int x = 0; x < w; x++) {
+            // Skips the columns next to the meridian where the 
+            // brightest and the darkest texels are interpolated
+            if (Math.abs(x - w / 2) <= 1) {
+                continue;
+            }
+            
+            double longitude = 90.0 + (x + 0.5) * 180.0 / w;
+            double texel = ((longitude + 180.0) % 360.0) / 360.0 * 64.0 - 0.5;
+            int expected = (int)Math.round(0xFF * texel / 63.0);
+            
+            int level = pixels[(h / 2) * w + x] & 0xFF;
+            assertTrue("x=" + x + ", expected=" + expected + ", level=" + level, 
+                    Math.abs(level - expected) <= 0x10);
+        }
+    }
+    
+    private static BufferedImage texture(int rgb) {
+        BufferedImage image = new BufferedImage(64, 32, BufferedImage.TYPE_INT_RGB);
+        for (int x = 0; x < image.getWidth(); x++) {
+            int level = 0xFF * x / (image.getWidth() - 1);
+            int color = (rgb == 0) ? (level << 8) : (level * 0x010101) & rgb;
+            for (int y = 0; y < image.getHeight(); y++) {
+                image.setRGB(x, y, color);
+            }
+        }
+        return image;
+    }
+    
+    /**
+     * Puts every pixel in daylight.
+     */
+    private static class DaylightEngine implements MaskEngine {
+        
+        @Override
+        public boolean isGradient() {
+            return false;
+        }
+        
+        @Override
+        public void createMask(SolarPosition position, Region region, int w, int h, 
+                byte[] mask, int offset, int scanline, int from, int to) {
+            for (int i = from; i < to; i++) {
+                Arrays.fill(mask, offset + i * scanline, 
+                        offset + i * scanline + w, (byte)0x00);
+            }
+        }
+    }
+    
+    /**
+     * Counts the masks that are built from scratch.
+     */
+    private static class CountingEngine implements MaskEngine {
+        
+        private final AtomicInteger renders = new AtomicInteger();
+        
+        @Override
+        public boolean isGradient() {
+            return false;
+        }
+        
+        @Override
+        public void createMask(SolarPosition position, Region region, int w, int h, 
+                byte[] mask, int offset, int scanline, int from, int to) {
+            renders.incrementAndGet();
+            ClockUtils.PER_COLUMN.createMask(position, region, w, h, 
+                    mask, offset, scanline, from, to);
+        }
+    }
+}